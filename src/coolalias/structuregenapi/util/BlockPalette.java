@@ -0,0 +1,255 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * Stores each unique {blockID, metadata, customData1, customData2} tuple used by a structure
+ * exactly once, so that compiled layers need only store a small index for each cell.
+ *
+ * Index 0 is always the empty tuple {}, which is also used for cells outside of a jagged array.
+ *
+ * A palette is not synchronized; it is read by planner threads once a structure using it has
+ * been scheduled (see StructureScheduler), so it is frozen at that point, and adding a new tuple
+ * afterwards throws an IllegalStateException. Tuples already in the palette can still be looked up.
+ *
+ */
+public class BlockPalette
+{
+	/** Palette index of the empty tuple {} */
+	public static final int EMPTY = 0;
+
+	/** Original tuples, exactly as they were found in the blockArray */
+	private int[][] entries = new int[16][];
+
+	/** Tuple values expanded with the same defaults used during generation */
+	private int[] ids = new int[16], metas = new int[16], customData1 = new int[16], customData2 = new int[16];
+
+	/** True for tuples that generation skips: {} and {SET_NO_BLOCK} */
+	private boolean[] skipped = new boolean[16];
+
+	/** Rotation flags set by a PaletteRemap for each tuple, -1 if not set; null if this palette was not remapped */
+	private int[] rotationFlags = null;
+
+	/** Number of entries currently in the palette */
+	private int size = 0;
+
+	/** Maps tuple contents to palette index */
+	private final Map<Key, Integer> lookup = new HashMap<Key, Integer>();
+
+	/** Set once the palette may be read from other threads; no tuples may be added afterwards */
+	private volatile boolean frozen = false;
+
+	public BlockPalette() {
+		getIndex(new int[0]);
+	}
+
+	/**
+	 * Returns the palette index for the tuple given, adding it to the palette if necessary.
+	 * A null tuple is treated the same as the empty tuple {}.
+	 * @throws IllegalStateException if the tuple is not in the palette and the palette is frozen
+	 */
+	public final int getIndex(int[] tuple) {
+		if (tuple == null) {
+			tuple = new int[0];
+		}
+
+		Key key = new Key(tuple);
+		Integer index = lookup.get(key);
+		if (index != null) {
+			return index;
+		}
+
+		if (frozen) {
+			throw new IllegalStateException("Cannot add " + Arrays.toString(tuple) + " to a frozen palette; a structure must not be changed once it has been scheduled");
+		}
+
+		if (size == entries.length) {
+			grow();
+		}
+
+		int[] copy = Arrays.copyOf(tuple, tuple.length);
+		entries[size] = copy;
+		ids[size] = (copy.length > 0 ? copy[0] : 0);
+		metas[size] = (copy.length > 1 ? copy[1] : 0);
+		customData1[size] = (copy.length > 2 ? copy[2] : 0);
+		customData2[size] = (copy.length > 3 ? copy[3] : 0);
+		skipped[size] = (copy.length == 0 || copy[0] == StructureGeneratorBase.SET_NO_BLOCK);
+		lookup.put(new Key(copy), size);
+
+		return size++;
+	}
+
+	/**
+	 * Prevents any further tuples from being added, so the palette can be read from other threads
+	 */
+	public final void freeze() {
+		frozen = true;
+	}
+
+	/**
+	 * Returns true if no further tuples may be added to this palette
+	 */
+	public final boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Returns a new palette holding the same tuples at the same indices; the copy is not frozen
+	 */
+	final BlockPalette copy() {
+		BlockPalette copy = new BlockPalette();
+		for (int i = 1; i < size; ++i) {
+			copy.getIndex(entries[i]);
+		}
+		return copy;
+	}
+
+	/**
+	 * Returns a new palette with each tuple replaced as the remap says, at the same index.
+	 * Skipped tuples stay skipped. Several indices may now hold the same tuple, so the
+	 * result is only meant to be read, never added to.
+	 */
+	final BlockPalette remap(PaletteRemap remap) {
+		BlockPalette copy = new BlockPalette();
+		copy.entries = Arrays.copyOf(entries, entries.length);
+		copy.ids = Arrays.copyOf(ids, ids.length);
+		copy.metas = Arrays.copyOf(metas, metas.length);
+		copy.customData1 = Arrays.copyOf(customData1, customData1.length);
+		copy.customData2 = Arrays.copyOf(customData2, customData2.length);
+		copy.skipped = Arrays.copyOf(skipped, skipped.length);
+		copy.rotationFlags = new int[size];
+		copy.size = size;
+
+		for (int i = 0; i < size; ++i) {
+			int[] tuple = remap.remap(entries[i]);
+			copy.entries[i] = tuple;
+			copy.ids[i] = (tuple.length > 0 ? tuple[0] : 0);
+			copy.metas[i] = (tuple.length > 1 ? tuple[1] : 0);
+			copy.rotationFlags[i] = (skipped[i] ? -1 : remap.getRotationFlags(copy.ids[i]));
+		}
+
+		return copy;
+	}
+
+	/**
+	 * Returns the rotation flags a PaletteRemap set for the tuple at index, or -1 to use
+	 * those registered with BlockRotationData for its block
+	 */
+	public final int getRotationFlags(int index) {
+		return rotationFlags != null ? rotationFlags[index] : -1;
+	}
+
+	/**
+	 * Returns the number of unique tuples in this palette
+	 */
+	public final int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the original tuple stored at index; the returned array must not be modified
+	 */
+	public final int[] getEntry(int index) {
+		return entries[index];
+	}
+
+	/**
+	 * Returns true if the tuple at index should not generate anything
+	 */
+	public final boolean isSkipped(int index) {
+		return skipped[index];
+	}
+
+	/**
+	 * Returns the block id (or fake id) of the tuple at index, or 0 if none was given
+	 */
+	public final int getBlockID(int index) {
+		return ids[index];
+	}
+
+	/**
+	 * Returns the metadata of the tuple at index, or 0 if none was given
+	 */
+	public final int getMetadata(int index) {
+		return metas[index];
+	}
+
+	/**
+	 * Returns the first custom data value of the tuple at index, or 0 if none was given
+	 */
+	public final int getCustomData1(int index) {
+		return customData1[index];
+	}
+
+	/**
+	 * Returns the second custom data value of the tuple at index, or 0 if none was given
+	 */
+	public final int getCustomData2(int index) {
+		return customData2[index];
+	}
+
+	/**
+	 * Returns an approximation of the heap used by this palette
+	 */
+	public final long getSizeInBytes() {
+		long bytes = 64L + 16L * entries.length + 21L * entries.length + 48L * size;
+		for (int i = 0; i < size; ++i) {
+			bytes += 16L + 4L * entries[i].length;
+		}
+		return bytes;
+	}
+
+	private void grow() {
+		int length = entries.length * 2;
+		entries = Arrays.copyOf(entries, length);
+		ids = Arrays.copyOf(ids, length);
+		metas = Arrays.copyOf(metas, length);
+		customData1 = Arrays.copyOf(customData1, length);
+		customData2 = Arrays.copyOf(customData2, length);
+		skipped = Arrays.copyOf(skipped, length);
+	}
+
+	/**
+	 * Content-based wrapper so tuples can be used as map keys
+	 */
+	private static final class Key
+	{
+		private final int[] tuple;
+		private final int hash;
+
+		private Key(int[] tuple) {
+			this.tuple = tuple;
+			this.hash = Arrays.hashCode(tuple);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && Arrays.equals(tuple, ((Key) obj).tuple);
+		}
+	}
+}
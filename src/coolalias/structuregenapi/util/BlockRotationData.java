@@ -17,9 +17,13 @@
 
 package structuregenapi.util;
 
-import java.util.HashMap;
+import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 import net.minecraft.block.Block;
 import net.minecraft.init.Blocks;
@@ -81,7 +85,45 @@ public class BlockRotationData
 	};
 
 	/** A mapping of blocks to rotation type for handling rotation. Allows custom blocks to be added. */
-	private static final Map<Block, Rotation> blockRotationData = new HashMap<Block, Rotation>();
+	private static final Map<Block, Rotation> blockRotationData = new ConcurrentHashMap<Block, Rotation>();
+
+	/** Highest valid block id; ids above this are custom 'hooks' */
+	public static final int MAX_BLOCK_ID = 4095;
+
+	/** Lowest 4 bits of the block flags store the rotation type's ordinal + 1, or 0 for no rotation */
+	public static final int FLAG_ROTATION_MASK = 0x0F;
+
+	/** Block is placed after the rest of the structure, e.g. torches and levers */
+	public static final int FLAG_POST_GEN = 0x10;
+
+	/** Block's metadata must be set again after placement, e.g. rails and furnaces */
+	public static final int FLAG_SET_METADATA = 0x20;
+
+	/** Block's material blocks movement */
+	public static final int FLAG_BLOCKS_MOVEMENT = 0x40;
+
+	/**
+	 * Block must be set with World.setBlock rather than written straight into the chunk, because
+	 * its onBlockAdded or breakBlock does more than set the block, e.g. redstone, fluids, portals
+	 */
+	public static final int FLAG_NEEDS_SET_BLOCK = 0x80;
+
+	/** Blocks flagged FLAG_NEEDS_SET_BLOCK. Allows custom blocks to be added. */
+	private static final Set<Block> placementUpdateBlocks = Collections.newSetFromMap(new ConcurrentHashMap<Block, Boolean>());
+
+	/**
+	 * Flags for every block id, built from the rotation data when frozen; null until then.
+	 * Never modified once published: later registrations replace it with an updated copy.
+	 */
+	private static volatile byte[] blockFlags = null;
+
+	/** Incremented each time the block flags are invalidated, so that anything built from them can tell */
+	private static volatile int flagsVersion = 0;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** Cached copy of Rotation.values(), indexed by ordinal */
+	private static final Rotation[] rotationTypes = Rotation.values();
 
 	/**
 	 * Returns the rotation type for the block given, or null if no type is registered
@@ -90,6 +132,118 @@ public class BlockRotationData
 		return blockRotationData.get(block);
 	}
 
+	/**
+	 * Builds the block flags array from the current rotation data. Call this once all blocks
+	 * and custom rotations have been registered, e.g. during FMLPostInitializationEvent; if
+	 * not called, the first call to getBlockFlags will do so. Rotation types registered after
+	 * this point are still allowed, but each one copies the entire array. Blocks registered
+	 * with the game afterwards are only flagged once invalidate is called.
+	 */
+	public static final synchronized void freeze() {
+		if (blockFlags == null) {
+			byte[] flags = new byte[MAX_BLOCK_ID + 1];
+			for (int id = 0; id < flags.length; ++id) {
+				Block block = Block.getBlockById(id);
+				flags[id] = (block == null ? 0 : computeFlags(block, blockRotationData.get(block)));
+			}
+			blockFlags = flags;
+		}
+	}
+
+	/**
+	 * Discards the block flags array, so that it is built again from the block ids in use on the next
+	 * call to getBlockFlags. FML remaps block ids whenever a save with a different id map is loaded,
+	 * so call this from your mod's FMLServerAboutToStartEvent and FMLModIdMappingEvent handlers.
+	 * PlacementPlanCaches (whose plans hold real block ids) and StructureCaches (which hash the
+	 * registry) notice the change through getFlagsVersion and drop what they hold.
+	 */
+	public static final synchronized void invalidate() {
+		blockFlags = null;
+		++flagsVersion;
+	}
+
+	/**
+	 * Returns a number that changes each time invalidate is called
+	 */
+	public static final int getFlagsVersion() {
+		return flagsVersion;
+	}
+
+	/**
+	 * Returns true once the block flags array has been built
+	 */
+	public static final boolean isFrozen() {
+		return blockFlags != null;
+	}
+
+	/**
+	 * Returns the flags for the block id given; ids outside of 0-4095, for which
+	 * Block.getBlockById returns air, have no flags.
+	 */
+	public static final int getBlockFlags(int blockID) {
+		byte[] flags = blockFlags;
+		if (flags == null) {
+			freeze();
+			flags = blockFlags;
+		}
+		return (blockID & ~MAX_BLOCK_ID) == 0 ? flags[blockID] & 0xFF : 0;
+	}
+
+	/**
+	 * Returns a checksum of the block registry and flags as seen by the generator: the name
+	 * and flags of the block at every id. Anything derived from block ids or rotation data
+	 * should be recomputed when this changes; see StructureCache.
+	 */
+	public static final long getRegistryHash() {
+		byte[] flags = blockFlags;
+		if (flags == null) {
+			freeze();
+			flags = blockFlags;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(flags);
+		for (int id = 0; id < flags.length; ++id) {
+			Block block = Block.getBlockById(id);
+			String name = (block == null ? null : Block.blockRegistry.getNameForObject(block));
+			if (name != null) {
+				crc.update(id >> 8);
+				crc.update(id);
+				crc.update(name.getBytes(UTF_8));
+			}
+		}
+
+		return crc.getValue();
+	}
+
+	/**
+	 * Returns the rotation type stored in the block flags given, or null if none
+	 */
+	public static final Rotation getRotationType(int flags) {
+		int type = flags & FLAG_ROTATION_MASK;
+		return type == 0 ? null : rotationTypes[type - 1];
+	}
+
+	/**
+	 * Returns the packed flags for a block with the given rotation type
+	 */
+	private static final byte computeFlags(Block block, Rotation type) {
+		int flags = (type == null ? 0 : type.ordinal() + 1);
+		if (type == Rotation.WALL_MOUNTED || type == Rotation.LEVER) {
+			flags |= FLAG_POST_GEN;
+		}
+		if (type == Rotation.PISTON_CONTAINER || type == Rotation.RAIL) {
+			flags |= FLAG_SET_METADATA;
+		}
+		if (block.getMaterial() != null && block.getMaterial().blocksMovement()) {
+			flags |= FLAG_BLOCKS_MOVEMENT;
+		}
+		if (placementUpdateBlocks.contains(block)) {
+			flags |= FLAG_NEEDS_SET_BLOCK;
+		}
+		return (byte) flags;
+	}
+
 	/**
 	 * Maps a block to a specified rotation type. Allows custom blocks to rotate with structure.
 	 * @param block a valid block
@@ -107,7 +261,7 @@ public class BlockRotationData
 	 * @param override if true, will override the previously set rotation data for specified block
 	 * @return false if a rotation type has already been specified for the given block
 	 */
-	public static final boolean registerCustomBlockRotation(Block block, Rotation rotationType, boolean override) {
+	public static final synchronized boolean registerCustomBlockRotation(Block block, Rotation rotationType, boolean override) {
 		if (blockRotationData.containsKey(block)) {
 			Logger.getLogger("StructureGenAPI").warning("Block " + block + " already has a rotation type." + (override ? " Overriding previous data." : ""));
 			if (override) {
@@ -118,10 +272,40 @@ public class BlockRotationData
 		}
 
 		blockRotationData.put(block, rotationType);
+		updateFlags(block);
+
+		return true;
+	}
 
+	/**
+	 * Marks a block as needing World.setBlock whenever it is placed or replaced, because its
+	 * onBlockAdded or breakBlock must run; batch placement then sets it like any other generator
+	 * would, rather than writing it straight into the chunk. Vanilla blocks are already registered.
+	 * @return false if the block was already registered
+	 */
+	public static final synchronized boolean registerPlacementUpdate(Block block) {
+		if (!placementUpdateBlocks.add(block)) {
+			return false;
+		}
+
+		updateFlags(block);
 		return true;
 	}
 
+	/**
+	 * Replaces the block flags array, once built, with a copy holding the block's current flags
+	 */
+	private static final void updateFlags(Block block) {
+		if (blockFlags != null) {
+			int id = Block.getIdFromBlock(block);
+			if ((id & ~MAX_BLOCK_ID) == 0) {
+				byte[] flags = blockFlags.clone();
+				flags[id] = computeFlags(block, blockRotationData.get(block));
+				blockFlags = flags;
+			}
+		}
+	}
+
 	/** Set rotation data for vanilla blocks */
 	static
 	{
@@ -199,4 +383,35 @@ public class BlockRotationData
 		blockRotationData.put(Blocks.log, Rotation.WOOD);
 		blockRotationData.put(Blocks.log2, Rotation.WOOD);
 	}
+
+	/** Vanilla blocks whose onBlockAdded or breakBlock matters when placed or replaced */
+	static
+	{
+		// redstone components update their power and notify neighbors
+		placementUpdateBlocks.add(Blocks.redstone_wire);
+		placementUpdateBlocks.add(Blocks.redstone_torch);
+		placementUpdateBlocks.add(Blocks.unlit_redstone_torch);
+		placementUpdateBlocks.add(Blocks.powered_repeater);
+		placementUpdateBlocks.add(Blocks.unpowered_repeater);
+		placementUpdateBlocks.add(Blocks.powered_comparator);
+		placementUpdateBlocks.add(Blocks.unpowered_comparator);
+		placementUpdateBlocks.add(Blocks.redstone_lamp);
+		placementUpdateBlocks.add(Blocks.lit_redstone_lamp);
+		placementUpdateBlocks.add(Blocks.tnt);
+		placementUpdateBlocks.add(Blocks.tripwire);
+		// fluids and falling blocks schedule their first update
+		placementUpdateBlocks.add(Blocks.water);
+		placementUpdateBlocks.add(Blocks.flowing_water);
+		placementUpdateBlocks.add(Blocks.lava);
+		placementUpdateBlocks.add(Blocks.flowing_lava);
+		placementUpdateBlocks.add(Blocks.sand);
+		placementUpdateBlocks.add(Blocks.gravel);
+		placementUpdateBlocks.add(Blocks.anvil);
+		placementUpdateBlocks.add(Blocks.dragon_egg);
+		// fire lights portals, pumpkins complete golems, portals check their frame
+		placementUpdateBlocks.add(Blocks.fire);
+		placementUpdateBlocks.add(Blocks.portal);
+		placementUpdateBlocks.add(Blocks.pumpkin);
+		placementUpdateBlocks.add(Blocks.lit_pumpkin);
+	}
 }
@@ -0,0 +1,419 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.minecraft.block.Block;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.common.ForgeModContainer;
+
+/**
+ *
+ * Collects blocks to be placed, grouped by chunk and 16-high chunk section, then writes
+ * them directly into each section's ExtendedBlockStorage in a single pass. The height map,
+ * tile entities and dirty flag are fixed up once per chunk rather than once per block.
+ *
+ * Boxes filled with a single block are queued as one record per chunk section and written
+ * with a tight loop over the section, in the same order as the blocks queued around them.
+ *
+ * When skipUnchanged is set, blocks that are already in the world with the same metadata are
+ * left alone, so they are not relit, sent to clients or have their tile entity replaced.
+ *
+ * Blocks are written without calling onBlockAdded or breakBlock, just as if they had been
+ * part of the chunk when it was generated. Blocks flagged FLAG_NEEDS_SET_BLOCK in
+ * BlockRotationData, and blocks with a tile entity being replaced, are set with World.setBlock
+ * instead, in the same order, so that those methods run.
+ *
+ * Clients are told about the changes once per chunk: a chunk with only a few changed blocks
+ * sends those blocks, while a chunk with more than ForgeModContainer.clumpingThreshold resends
+ * each changed section whole.
+ *
+ */
+public class ChunkBatchPlacer
+{
+	/** Set in the first of the two ints queued for a filled box */
+	private static final int FILL_RECORD = 0x80000000;
+
+	/** Queued cells for each chunk, keyed by ChunkCoordIntPair.chunkXZ2Int */
+	private final Map<Long, ChunkCells> chunks = new LinkedHashMap<Long, ChunkCells>();
+
+	/** Coordinates of blocks whose light opacity or value changed, stored x, y, z */
+	private int[] relight = new int[48];
+
+	/** Number of ints used in the relight array */
+	private int relightSize = 0;
+
+	/** Total number of blocks queued since the last flush */
+	private int size = 0;
+
+	/** Bounding box of all blocks queued since the last flush */
+	private int minX, minY, minZ, maxX, maxY, maxZ;
+
+	/** When true, blocks already in the world with the same metadata are not written again */
+	private boolean skipUnchanged = false;
+
+	/** Number of blocks not written during the last flush because they were unchanged */
+	private int skipped = 0;
+
+	/** Number of blocks relit one by one during the last flush */
+	private int relit = 0;
+
+	public ChunkBatchPlacer() {}
+
+	/**
+	 * Queues a block to be placed at x/y/z; if the same position is queued more than once,
+	 * the last block queued is the one that remains. Metadata is limited to 0-15, as usual.
+	 */
+	public final void add(int x, int y, int z, Block block, int meta) {
+		if (y < 0 || y > 255) {
+			return;
+		}
+
+		long key = ChunkCoordIntPair.chunkXZ2Int(x >> 4, z >> 4);
+		ChunkCells cells = chunks.get(key);
+		if (cells == null) {
+			cells = new ChunkCells(x >> 4, z >> 4);
+			chunks.put(key, cells);
+		}
+
+		cells.add(x & 15, y, z & 15, Block.getIdFromBlock(block), meta);
+		include(x, y, z, x, y, z);
+		++size;
+	}
+
+	/**
+	 * Queues every position in the box between the corners given, inclusive, to be set to the
+	 * same block; positions outside of y 0-255 are ignored. Stored as one record per chunk section.
+	 */
+	public final void fill(int x1, int y1, int z1, int x2, int y2, int z2, Block block, int meta) {
+		int fromX = Math.min(x1, x2), toX = Math.max(x1, x2), fromZ = Math.min(z1, z2), toZ = Math.max(z1, z2);
+		int fromY = Math.max(0, Math.min(y1, y2)), toY = Math.min(255, Math.max(y1, y2));
+		if (fromY > toY) {
+			return;
+		}
+
+		int id = Block.getIdFromBlock(block);
+		for (int cx = fromX >> 4; cx <= toX >> 4; ++cx) {
+			for (int cz = fromZ >> 4; cz <= toZ >> 4; ++cz) {
+				long key = ChunkCoordIntPair.chunkXZ2Int(cx, cz);
+				ChunkCells cells = chunks.get(key);
+				if (cells == null) {
+					cells = new ChunkCells(cx, cz);
+					chunks.put(key, cells);
+				}
+
+				int lx0 = Math.max(fromX, cx << 4) & 15, lx1 = Math.min(toX, (cx << 4) + 15) & 15;
+				int lz0 = Math.max(fromZ, cz << 4) & 15, lz1 = Math.min(toZ, (cz << 4) + 15) & 15;
+				for (int s = fromY >> 4; s <= toY >> 4; ++s) {
+					int ly0 = Math.max(fromY, s << 4) & 15, ly1 = Math.min(toY, (s << 4) + 15) & 15;
+					cells.addFill(s, lx0, lx1, ly0, ly1, lz0, lz1, id, meta);
+				}
+			}
+		}
+
+		include(fromX, fromY, fromZ, toX, toY, toZ);
+		size += (toX - fromX + 1) * (toY - fromY + 1) * (toZ - fromZ + 1);
+	}
+
+	private void include(int x1, int y1, int z1, int x2, int y2, int z2) {
+		if (size == 0) {
+			minX = x1;
+			minY = y1;
+			minZ = z1;
+			maxX = x2;
+			maxY = y2;
+			maxZ = z2;
+		} else {
+			minX = Math.min(minX, x1);
+			minY = Math.min(minY, y1);
+			minZ = Math.min(minZ, z1);
+			maxX = Math.max(maxX, x2);
+			maxY = Math.max(maxY, y2);
+			maxZ = Math.max(maxZ, z2);
+		}
+	}
+
+	/**
+	 * Sets whether blocks already in the world with the same metadata are skipped when flushing
+	 */
+	public final void setSkipUnchanged(boolean value) {
+		skipUnchanged = value;
+	}
+
+	/**
+	 * Returns the number of blocks skipped during the last flush because they were unchanged
+	 */
+	public final int getSkippedCount() {
+		return skipped;
+	}
+
+	/**
+	 * Returns the number of blocks relit one by one during the last flush with relighting
+	 */
+	public final int getRelitCount() {
+		return relit;
+	}
+
+	/**
+	 * Returns the number of blocks waiting to be placed
+	 */
+	public final int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of chunks with blocks waiting to be placed
+	 */
+	public final int getChunkCount() {
+		return chunks.size();
+	}
+
+	/**
+	 * Returns the bounding box of all queued blocks as {minX, minY, minZ, maxX, maxY, maxZ},
+	 * or null if no blocks are queued
+	 */
+	public final int[] getBounds() {
+		return size > 0 ? new int[] {minX, minY, minZ, maxX, maxY, maxZ} : null;
+	}
+
+	/**
+	 * Discards all queued blocks without placing them
+	 */
+	public final void clear() {
+		chunks.clear();
+		relightSize = 0;
+		size = 0;
+	}
+
+	/**
+	 * Writes all queued blocks into the world and clears the queue
+	 * @param relight if true, lighting is updated at each block whose opacity or light value
+	 * 			changed; if false, the caller is responsible for relighting the area afterwards
+	 * @return the number of blocks written
+	 */
+	public final int flush(World world, boolean relight) {
+		int written = 0;
+		relightSize = 0;
+		skipped = relit = 0;
+
+		for (ChunkCells cells : chunks.values()) {
+			written += cells.write(world);
+		}
+
+		if (relight) {
+			for (int i = 0; i < relightSize; i += 3) {
+				world.func_147451_t(this.relight[i], this.relight[i + 1], this.relight[i + 2]);
+			}
+			relit = relightSize / 3;
+		}
+
+		clear();
+
+		return written;
+	}
+
+	/**
+	 * Marks the block for sending to clients through the PlayerManager when on the server
+	 */
+	private static void markBlockForUpdate(World world, int x, int y, int z) {
+		if (world instanceof WorldServer) {
+			((WorldServer) world).getPlayerManager().markBlockForUpdate(x, y, z);
+		} else {
+			world.markBlockForUpdate(x, y, z);
+		}
+	}
+
+	private void addRelight(int x, int y, int z) {
+		if (relightSize + 3 > relight.length) {
+			relight = Arrays.copyOf(relight, relight.length * 2);
+		}
+		relight[relightSize++] = x;
+		relight[relightSize++] = y;
+		relight[relightSize++] = z;
+	}
+
+	/**
+	 * Queued cells for a single chunk, one packed int per cell in each section:
+	 * bits 0-11 local position (y << 8 | z << 4 | x), 12-23 block id, 24-27 metadata.
+	 * A filled box is two ints: FILL_RECORD with the block id and metadata as above, then
+	 * the local box as x0 | x1 << 4 | y0 << 8 | y1 << 12 | z0 << 16 | z1 << 20.
+	 */
+	private final class ChunkCells
+	{
+		private final int chunkX, chunkZ;
+		private final int[][] sections = new int[16][];
+		private final int[] counts = new int[16];
+
+		/** Blocks written directly, as y << 8 | z << 4 | x, kept up to the clumping threshold */
+		private int[] changed = new int[0];
+		private int changedCount = 0;
+
+		/** Bit s is set if a block was written directly into section s */
+		private int changedSections = 0;
+
+		private ChunkCells(int chunkX, int chunkZ) {
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+		}
+
+		private void add(int x, int y, int z, int id, int meta) {
+			int s = y >> 4;
+			ensureCapacity(s, 1);
+			sections[s][counts[s]++] = ((y & 15) << 8 | z << 4 | x) | (id & 4095) << 12 | (meta & 15) << 24;
+		}
+
+		private void addFill(int s, int x0, int x1, int y0, int y1, int z0, int z1, int id, int meta) {
+			ensureCapacity(s, 2);
+			sections[s][counts[s]++] = FILL_RECORD | (id & 4095) << 12 | (meta & 15) << 24;
+			sections[s][counts[s]++] = x0 | x1 << 4 | y0 << 8 | y1 << 12 | z0 << 16 | z1 << 20;
+		}
+
+		private void ensureCapacity(int s, int n) {
+			if (sections[s] == null) {
+				sections[s] = new int[64];
+			}
+			while (counts[s] + n > sections[s].length) {
+				sections[s] = Arrays.copyOf(sections[s], sections[s].length * 2);
+			}
+		}
+
+		private int write(World world) {
+			Chunk chunk = world.getChunkFromChunkCoords(chunkX, chunkZ);
+			ExtendedBlockStorage[] storage = chunk.getBlockStorageArray();
+			int written = 0;
+
+			for (int s = 0; s < 16; ++s) {
+				if (counts[s] == 0) {
+					continue;
+				}
+
+				ExtendedBlockStorage section = storage[s];
+				if (section == null) {
+					section = storage[s] = new ExtendedBlockStorage(s << 4, !world.provider.hasNoSky);
+				}
+
+				for (int i = 0; i < counts[s]; ++i) {
+					int cell = sections[s][i];
+					Block block = Block.getBlockById((cell >> 12) & 4095);
+					int meta = (cell >> 24) & 15;
+					if ((cell & FILL_RECORD) == 0) {
+						written += setCell(world, chunk, section, s, cell & 15, (cell >> 8) & 15, (cell >> 4) & 15, block, meta);
+						continue;
+					}
+
+					int box = sections[s][++i];
+					for (int y = (box >> 8) & 15; y <= ((box >> 12) & 15); ++y) {
+						for (int z = (box >> 16) & 15; z <= ((box >> 20) & 15); ++z) {
+							for (int x = box & 15; x <= ((box >> 4) & 15); ++x) {
+								written += setCell(world, chunk, section, s, x, y, z, block, meta);
+							}
+						}
+					}
+				}
+			}
+
+			if (written > 0) {
+				chunk.generateSkylightMap();
+				chunk.setChunkModified();
+			}
+
+			markForClients(world);
+			return written;
+		}
+
+		/**
+		 * Marks the blocks written directly for sending to clients. Once a chunk has clumpingThreshold
+		 * changes, the PlayerManager resends every section marked whole, so rather than marking each
+		 * block, that many distinct positions spread over the changed sections are marked.
+		 */
+		private void markForClients(World world) {
+			int threshold = ForgeModContainer.clumpingThreshold;
+			if (changedCount < threshold) {
+				for (int i = 0; i < changedCount; ++i) {
+					int cell = changed[i];
+					markBlockForUpdate(world, (chunkX << 4) + (cell & 15), cell >> 8, (chunkZ << 4) + ((cell >> 4) & 15));
+				}
+			} else {
+				int[] list = new int[16];
+				int count = 0;
+				for (int s = 0; s < 16; ++s) {
+					if ((changedSections & (1 << s)) != 0) {
+						list[count++] = s;
+					}
+				}
+				for (int i = 0; i < threshold; ++i) {
+					int y = (list[i % count] << 4) + ((i >> 8) & 15);
+					markBlockForUpdate(world, (chunkX << 4) + (i & 15), y, (chunkZ << 4) + ((i >> 4) & 15));
+				}
+			}
+
+			changedCount = 0;
+			changedSections = 0;
+		}
+
+		/**
+		 * Writes a single block into the section; returns 1 if it was written, 0 if skipped as unchanged
+		 */
+		private int setCell(World world, Chunk chunk, ExtendedBlockStorage section, int s, int x, int y, int z, Block block, int meta) {
+			int worldX = (chunkX << 4) + x, worldY = (s << 4) + y, worldZ = (chunkZ << 4) + z;
+			Block old = section.getBlockByExtId(x, y, z);
+			int oldMeta = section.getExtBlockMetadata(x, y, z);
+			if (skipUnchanged && old == block && oldMeta == meta) {
+				++skipped;
+				return 0;
+			}
+
+			// blocks whose onBlockAdded or breakBlock must run, including any tile entity being replaced
+			if (old.hasTileEntity(oldMeta) || ((BlockRotationData.getBlockFlags(Block.getIdFromBlock(old))
+					| BlockRotationData.getBlockFlags(Block.getIdFromBlock(block))) & BlockRotationData.FLAG_NEEDS_SET_BLOCK) != 0) {
+				world.setBlock(worldX, worldY, worldZ, block, meta, 2);
+				return 1;
+			}
+
+			section.func_150818_a(x, y, z, block);
+			section.setExtBlockMetadata(x, y, z, meta);
+
+			if (block.hasTileEntity(meta)) {
+				// creates the tile entity if the block has one
+				chunk.func_150806_e(x, worldY, z);
+			}
+
+			if (old.getLightOpacity() != block.getLightOpacity() || old.getLightValue() != block.getLightValue()) {
+				addRelight(worldX, worldY, worldZ);
+			}
+
+			changedSections |= 1 << s;
+			int threshold = ForgeModContainer.clumpingThreshold;
+			if (changedCount < threshold) {
+				if (changedCount == changed.length) {
+					changed = Arrays.copyOf(changed, Math.min(threshold, Math.max(16, changedCount * 2)));
+				}
+				changed[changedCount] = worldY << 8 | z << 4 | x;
+			}
+			++changedCount;
+			return 1;
+		}
+	}
+}
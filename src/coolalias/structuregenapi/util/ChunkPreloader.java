@@ -0,0 +1,194 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.gen.ChunkProviderServer;
+import net.minecraftforge.common.ForgeChunkManager;
+import net.minecraftforge.common.ForgeChunkManager.Ticket;
+
+/**
+ *
+ * Loads, or generates, every chunk a structure will touch before any of its blocks are placed,
+ * so that World.setBlock never has to load a chunk partway through placement. Chunks saved on
+ * disk are loaded asynchronously; chunks that have never been generated are generated one at a
+ * time, as many as fit before the deadline given to each call to load.
+ *
+ * Each chunk is also forced with a ForgeChunkManager ticket so that it stays loaded until release
+ * is called, once placement and post-gen processing are done. Tickets belong to the mod instance
+ * given, which must have registered a LoadingCallback; that callback should pass the tickets it
+ * receives to releaseStaleTickets, since tickets left over from a previous run are not needed.
+ * If no ticket is available, chunks are still loaded, just not held.
+ *
+ */
+public class ChunkPreloader
+{
+	/** Set in the mod data of every ticket requested by a preloader */
+	public static final String TICKET_TAG = "StructureGenPreload";
+
+	/** Chunks saved on disk are only loaded on the chunk I/O thread if loadChunk is given a callback; nothing needs doing once they are */
+	private static final Runnable ASYNC_LOAD = new Runnable() {
+		@Override
+		public void run() {}
+	};
+
+	private final Object mod;
+	private final World world;
+
+	/** Chunks to load, inclusive */
+	private final int minChunkX, minChunkZ, maxChunkX, maxChunkZ;
+
+	/** Index of the next chunk to request, counting along z first */
+	private int next = 0;
+
+	/** Chunks requested that had not finished loading when last checked, as ChunkCoordIntPair.chunkXZ2Int keys */
+	private final List<Long> waiting = new ArrayList<Long>();
+
+	/** Tickets holding the chunks loaded so far, and the number of chunks forced with the last one */
+	private final List<Ticket> tickets = new ArrayList<Ticket>();
+	private int ticketChunks = 0;
+
+	/** False once a ticket has been refused, after which chunks are no longer forced */
+	private boolean canForce = true;
+
+	/** Number of chunks that were generated rather than loaded */
+	private int generated = 0;
+
+	/**
+	 * Preloads every chunk within the block coordinates given, inclusive, plus a margin of one
+	 * block so that neighbor updates at the edges don't load the chunks beyond
+	 */
+	public ChunkPreloader(Object mod, World world, int x1, int z1, int x2, int z2) {
+		this.mod = mod;
+		this.world = world;
+		minChunkX = (Math.min(x1, x2) - 1) >> 4;
+		minChunkZ = (Math.min(z1, z2) - 1) >> 4;
+		maxChunkX = (Math.max(x1, x2) + 1) >> 4;
+		maxChunkZ = (Math.max(z1, z2) + 1) >> 4;
+	}
+
+	/**
+	 * Preloads every chunk touched by the plan when it is placed at x/y/z
+	 */
+	public ChunkPreloader(Object mod, World world, PlacementPlan plan, int x, int z) {
+		this(mod, world, x + plan.getMinX(), z + plan.getMinZ(), x + plan.getMaxX(), z + plan.getMaxZ());
+	}
+
+	/**
+	 * Returns the total number of chunks to preload
+	 */
+	public final int getChunkCount() {
+		return (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+	}
+
+	/**
+	 * Returns the number of chunks that had never been generated, so far
+	 */
+	public final int getGeneratedCount() {
+		return generated;
+	}
+
+	/**
+	 * Forces and requests chunks until all have been requested or System.nanoTime() passes the
+	 * deadline; at least one chunk is requested each call. Chunks that have to be generated are
+	 * generated right away, the rest are loaded in the background.
+	 * @param deadline value of System.nanoTime() at which to stop, or StructureGeneratorBase.NO_DEADLINE
+	 * @return true once every chunk is loaded
+	 */
+	public final boolean load(long deadline) {
+		ChunkProviderServer provider = (world instanceof WorldServer ? ((WorldServer) world).theChunkProviderServer : null);
+		int total = getChunkCount(), sizeZ = maxChunkZ - minChunkZ + 1;
+		boolean first = true;
+
+		while (next < total && (first || deadline == StructureGeneratorBase.NO_DEADLINE || System.nanoTime() - deadline < 0)) {
+			int chunkX = minChunkX + next / sizeZ, chunkZ = minChunkZ + next % sizeZ;
+			++next;
+			first = false;
+			force(chunkX, chunkZ);
+			if (provider == null) {
+				world.getChunkFromChunkCoords(chunkX, chunkZ);
+			} else if (!provider.chunkExists(chunkX, chunkZ)) {
+				// returns the chunk right away if it had to be generated, otherwise null while it loads
+				if (provider.loadChunk(chunkX, chunkZ, ASYNC_LOAD) != null) {
+					++generated;
+				} else {
+					waiting.add(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+				}
+			}
+		}
+
+		for (int i = waiting.size() - 1; i >= 0; --i) {
+			long key = waiting.get(i);
+			if (provider == null || provider.chunkExists((int) key, (int) (key >>> 32))) {
+				waiting.remove(i);
+			}
+		}
+
+		return next == total && waiting.isEmpty();
+	}
+
+	private void force(int chunkX, int chunkZ) {
+		if (!canForce) {
+			return;
+		}
+
+		Ticket ticket = (tickets.isEmpty() ? null : tickets.get(tickets.size() - 1));
+		if (ticket == null || ticketChunks >= ticket.getChunkListDepth()) {
+			ticket = ForgeChunkManager.requestTicket(mod, world, ForgeChunkManager.Type.NORMAL);
+			if (ticket == null) {
+				LogHelper.warning("No chunk loading ticket available; preloaded chunks will not be held until placement");
+				canForce = false;
+				return;
+			}
+			ticket.getModData().setBoolean(TICKET_TAG, true);
+			tickets.add(ticket);
+			ticketChunks = 0;
+		}
+
+		ForgeChunkManager.forceChunk(ticket, new ChunkCoordIntPair(chunkX, chunkZ));
+		++ticketChunks;
+	}
+
+	/**
+	 * Releases every ticket, allowing the chunks to unload as usual
+	 */
+	public final void release() {
+		for (Ticket ticket : tickets) {
+			ForgeChunkManager.releaseTicket(ticket);
+		}
+		tickets.clear();
+		ticketChunks = 0;
+	}
+
+	/**
+	 * Releases any of the tickets given that were requested by a preloader; call from the mod's
+	 * LoadingCallback, as such tickets are only left over if the server stopped mid-placement
+	 */
+	public static void releaseStaleTickets(List<Ticket> tickets) {
+		for (Ticket ticket : tickets) {
+			if (ticket.getModData().getBoolean(TICKET_TAG)) {
+				ForgeChunkManager.releaseTicket(ticket);
+			}
+		}
+	}
+}
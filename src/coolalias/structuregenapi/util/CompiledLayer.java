@@ -0,0 +1,561 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ *
+ * Compact form of a single int[][][][] blockArray 'layer'. Each cell is stored as an index
+ * into a shared BlockPalette, packed into a flat long array using only as many bits as the
+ * palette size requires. Entries never span two longs.
+ *
+ * Jagged arrays are supported: the length of every x and z array is kept so that the
+ * original blockArray can be rebuilt exactly with toBlockArray().
+ *
+ * An occupancy bitset marks every cell that is not skipped (empty or SET_NO_BLOCK), so
+ * that sparse layers can be walked with nextOccupied() without visiting the skipped cells.
+ *
+ * Both are held in LongBuffers, so a layer loaded by StructureFile reads its cells straight
+ * from the memory-mapped file rather than from a copy on the heap.
+ *
+ * A layer created by a StructureDiff shares the packed data of the layer it was derived from
+ * and keeps only the changed cells, in a sorted overlay that is checked before the data.
+ *
+ * Layers are equal if they have the same shape and the same tuple in every cell, whatever
+ * their palettes or packing; the hash code is computed once, so layers (and Structures)
+ * may be used as keys. See StructurePool for sharing equal layers between structures.
+ *
+ */
+public class CompiledLayer
+{
+	/** Palette holding the tuples referenced by this layer */
+	private final BlockPalette palette;
+
+	/** Number of y arrays, and largest number of x and z arrays found in the layer */
+	private final int height, maxX, maxZ;
+
+	/** Number of x arrays for each y; null if every y has exactly maxX */
+	private final int[] lengthX;
+
+	/** Number of z arrays for each y/x pair; null if every x has exactly maxZ */
+	private final int[] lengthZ;
+
+	/** Bits used per cell and number of cells stored in each long */
+	private final int bits, cellsPerLong;
+
+	/** Mask of the lowest 'bits' bits */
+	private final long mask;
+
+	/** Packed palette indices, ordered y, x, z */
+	private final LongBuffer data;
+
+	/** One bit per cell, in the same order as data, set if the cell is not skipped */
+	private final LongBuffer occupied;
+
+	/** Number of cells that are not skipped */
+	private final int occupiedCount;
+
+	/** Sorted indices of cells replaced by a StructureDiff, and their palette indices; null if none */
+	private final int[] overlayCells, overlayIndices;
+
+	/** Hash of the layer's shape and contents, computed when first needed; 0 if not yet computed */
+	private int hash = 0;
+
+	/**
+	 * Creates a layer from already packed data; see StructureFile
+	 */
+	CompiledLayer(BlockPalette palette, int height, int maxX, int maxZ, int[] lengthX, int[] lengthZ, int bits, LongBuffer data, LongBuffer occupied, int occupiedCount) {
+		this.palette = palette;
+		this.height = height;
+		this.maxX = maxX;
+		this.maxZ = maxZ;
+		this.lengthX = lengthX;
+		this.lengthZ = lengthZ;
+		this.bits = bits;
+		this.cellsPerLong = 64 / bits;
+		this.mask = (1L << bits) - 1;
+		this.data = data;
+		this.occupied = occupied;
+		this.occupiedCount = occupiedCount;
+		this.overlayCells = null;
+		this.overlayIndices = null;
+	}
+
+	/**
+	 * Creates a layer sharing the base layer's data, with some cells replaced by the overlay
+	 */
+	private CompiledLayer(CompiledLayer base, BlockPalette palette, int[] overlayCells, int[] overlayIndices, int occupiedCount) {
+		this.palette = palette;
+		this.height = base.height;
+		this.maxX = base.maxX;
+		this.maxZ = base.maxZ;
+		this.lengthX = base.lengthX;
+		this.lengthZ = base.lengthZ;
+		this.bits = base.bits;
+		this.cellsPerLong = base.cellsPerLong;
+		this.mask = base.mask;
+		this.data = base.data;
+		this.occupied = base.occupied;
+		this.occupiedCount = occupiedCount;
+		this.overlayCells = overlayCells;
+		this.overlayIndices = overlayIndices;
+	}
+
+	private static CompiledLayer create(BlockPalette palette, int height, int maxX, int maxZ, int[] lengthX, int[] lengthZ, int[] indices) {
+		int bits = getBitsFor(palette.size());
+		int cellsPerLong = 64 / bits;
+		long mask = (1L << bits) - 1;
+		long[] data = new long[getDataLength(indices.length, bits)];
+		long[] occupied = new long[getOccupiedLength(indices.length)];
+		int count = 0;
+
+		for (int i = 0; i < indices.length; ++i) {
+			data[i / cellsPerLong] |= (indices[i] & mask) << ((i % cellsPerLong) * bits);
+			if (!palette.isSkipped(indices[i])) {
+				occupied[i >> 6] |= 1L << i;
+				++count;
+			}
+		}
+
+		return new CompiledLayer(palette, height, maxX, maxZ, lengthX, lengthZ, bits, LongBuffer.wrap(data), LongBuffer.wrap(occupied), count);
+	}
+
+	/**
+	 * Compiles a blockArray into a layer, adding any new tuples to the palette given.
+	 * Conversion is lossless; see toBlockArray().
+	 */
+	public static CompiledLayer compile(int[][][][] blocks, BlockPalette palette) {
+		int height = blocks.length, maxX = 0, maxZ = 0;
+		for (int y = 0; y < height; ++y) {
+			maxX = Math.max(maxX, blocks[y].length);
+			for (int x = 0; x < blocks[y].length; ++x) {
+				maxZ = Math.max(maxZ, blocks[y][x].length);
+			}
+		}
+
+		int[] lengthX = new int[height];
+		int[] lengthZ = new int[height * maxX];
+		int[] indices = new int[height * maxX * maxZ];
+		boolean jaggedX = false, jaggedZ = false;
+
+		for (int y = 0; y < height; ++y) {
+			lengthX[y] = blocks[y].length;
+			jaggedX |= lengthX[y] != maxX;
+			for (int x = 0; x < blocks[y].length; ++x) {
+				lengthZ[y * maxX + x] = blocks[y][x].length;
+				jaggedZ |= blocks[y][x].length != maxZ;
+				for (int z = 0; z < blocks[y][x].length; ++z) {
+					indices[(y * maxX + x) * maxZ + z] = palette.getIndex(blocks[y][x][z]);
+				}
+			}
+		}
+
+		return create(palette, height, maxX, maxZ, (jaggedX ? lengthX : null), (jaggedZ ? lengthZ : null), indices);
+	}
+
+	/**
+	 * Creates a rectangular layer from palette indices already added to the palette given,
+	 * ordered (y * maxX + x) * maxZ + z; used by importers that never build a blockArray
+	 */
+	static CompiledLayer fromIndices(BlockPalette palette, int height, int maxX, int maxZ, int[] indices) {
+		return create(palette, height, maxX, maxZ, null, null, indices);
+	}
+
+	/**
+	 * Returns a copy of this layer with the tuples given placed at the flat cell indices given,
+	 * without copying the packed data; see StructureDiff. The palette must hold every entry of
+	 * this layer's palette at the same index, and the tuples are added to it. Cells set to the
+	 * tuple already there are left out of the overlay.
+	 */
+	final CompiledLayer withOverlay(BlockPalette palette, int[] cells, int[][] tuples) {
+		Map<Integer, Integer> changes = new TreeMap<Integer, Integer>();
+		for (int i = 0; i < cells.length; ++i) {
+			changes.put(cells[i], palette.getIndex(tuples[i]));
+		}
+
+		int count = occupiedCount;
+		for (Map.Entry<Integer, Integer> change : changes.entrySet()) {
+			int old = getPaletteIndex(change.getKey());
+			count += (palette.isSkipped(change.getValue()) ? 0 : 1) - (this.palette.isSkipped(old) ? 0 : 1);
+		}
+
+		Map<Integer, Integer> merged = new TreeMap<Integer, Integer>();
+		if (overlayCells != null) {
+			for (int i = 0; i < overlayCells.length; ++i) {
+				merged.put(overlayCells[i], overlayIndices[i]);
+			}
+		}
+		for (Map.Entry<Integer, Integer> change : changes.entrySet()) {
+			int cell = change.getKey();
+			if (change.getValue() == getDataIndex(cell)) {
+				merged.remove(cell);
+			} else {
+				merged.put(cell, change.getValue());
+			}
+		}
+
+		if (merged.isEmpty()) {
+			return new CompiledLayer(palette, height, maxX, maxZ, lengthX, lengthZ, bits, data, occupied, count);
+		}
+
+		int[] newCells = new int[merged.size()], newIndices = new int[merged.size()];
+		int n = 0;
+		for (Map.Entry<Integer, Integer> entry : merged.entrySet()) {
+			newCells[n] = entry.getKey();
+			newIndices[n++] = entry.getValue();
+		}
+
+		return new CompiledLayer(this, palette, newCells, newIndices, count);
+	}
+
+	/**
+	 * Returns this layer with any overlay merged into newly packed data, or this layer if it has none
+	 */
+	final CompiledLayer flatten() {
+		if (overlayCells == null) {
+			return this;
+		}
+
+		int[] indices = new int[height * maxX * maxZ];
+		for (int i = 0; i < indices.length; ++i) {
+			indices[i] = getPaletteIndex(i);
+		}
+
+		return create(palette, height, maxX, maxZ, lengthX, lengthZ, indices);
+	}
+
+	/**
+	 * Returns a copy of rows y0 (inclusive) to y1 (exclusive) with a palette of its own,
+	 * holding only the tuples used by those rows in the order they are first found
+	 */
+	final CompiledLayer copyRows(int y0, int y1) {
+		BlockPalette palette = new BlockPalette();
+		int rows = y1 - y0;
+		int[] indices = new int[rows * maxX * maxZ];
+		for (int i = 0; i < indices.length; ++i) {
+			indices[i] = palette.getIndex(this.palette.getEntry(getPaletteIndex(y0 * maxX * maxZ + i)));
+		}
+
+		int[] lengthX = (this.lengthX != null ? Arrays.copyOfRange(this.lengthX, y0, y1) : null);
+		int[] lengthZ = (this.lengthZ != null ? Arrays.copyOfRange(this.lengthZ, y0 * maxX, y1 * maxX) : null);
+		return create(palette, rows, maxX, maxZ, lengthX, lengthZ, indices);
+	}
+
+	/**
+	 * Returns true if every y has the same number of x arrays and every x the same number of z
+	 */
+	public final boolean isRectangular() {
+		return lengthX == null && lengthZ == null;
+	}
+
+	/**
+	 * Returns the number of cells replaced by an overlay
+	 */
+	public final int getOverlaySize() {
+		return overlayCells != null ? overlayCells.length : 0;
+	}
+
+	/**
+	 * Returns the number of bits needed to store indices into a palette of the given size
+	 */
+	static int getBitsFor(int paletteSize) {
+		return Math.max(1, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+	}
+
+	/**
+	 * Returns the number of longs needed to pack the given number of cells
+	 */
+	static int getDataLength(int cells, int bits) {
+		int cellsPerLong = 64 / bits;
+		return (cells + cellsPerLong - 1) / cellsPerLong;
+	}
+
+	/**
+	 * Returns the number of longs in the occupancy bitset for the given number of cells
+	 */
+	static int getOccupiedLength(int cells) {
+		return (cells + 63) >> 6;
+	}
+
+	/**
+	 * Returns the number of bits used to store each cell
+	 */
+	public final int getBits() {
+		return bits;
+	}
+
+	/** Raw jagged lengths, packed data and occupancy bitset; see StructureFile */
+	final int[] getLengthXArray() {
+		return lengthX;
+	}
+
+	final int[] getLengthZArray() {
+		return lengthZ;
+	}
+
+	final LongBuffer getData() {
+		return data.duplicate();
+	}
+
+	final LongBuffer getOccupied() {
+		return occupied.duplicate();
+	}
+
+	/**
+	 * Returns the palette used by this layer
+	 */
+	public final BlockPalette getPalette() {
+		return palette;
+	}
+
+	/**
+	 * Returns the number of y arrays in this layer
+	 */
+	public final int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the number of x arrays at y = 0, i.e. blockArray[0].length
+	 */
+	public final int getWidthX() {
+		return height > 0 ? getLengthX(0) : 0;
+	}
+
+	/**
+	 * Returns the number of z arrays at y = 0, x = 0, i.e. blockArray[0][0].length
+	 */
+	public final int getWidthZ() {
+		return height > 0 && getLengthX(0) > 0 ? getLengthZ(0, 0) : 0;
+	}
+
+	/**
+	 * Returns the largest number of x arrays found at any y
+	 */
+	public final int getMaxX() {
+		return maxX;
+	}
+
+	/**
+	 * Returns the largest number of z arrays found at any y/x
+	 */
+	public final int getMaxZ() {
+		return maxZ;
+	}
+
+	/**
+	 * Returns the number of x arrays at y, i.e. blockArray[y].length
+	 */
+	public final int getLengthX(int y) {
+		return lengthX != null ? lengthX[y] : maxX;
+	}
+
+	/**
+	 * Returns the number of z arrays at y/x, i.e. blockArray[y][x].length
+	 */
+	public final int getLengthZ(int y, int x) {
+		return lengthZ != null ? lengthZ[y * maxX + x] : maxZ;
+	}
+
+	/**
+	 * Returns the palette index of the cell at y/x/z; cells outside of a jagged array are EMPTY
+	 */
+	public final int getPaletteIndex(int y, int x, int z) {
+		return getPaletteIndex((y * maxX + x) * maxZ + z);
+	}
+
+	private int getPaletteIndex(int i) {
+		if (overlayCells != null) {
+			int k = Arrays.binarySearch(overlayCells, i);
+			if (k >= 0) {
+				return overlayIndices[k];
+			}
+		}
+
+		return getDataIndex(i);
+	}
+
+	/**
+	 * Returns the palette index stored in the packed data, ignoring any overlay
+	 */
+	private int getDataIndex(int i) {
+		return (int)((data.get(i / cellsPerLong) >>> ((i % cellsPerLong) * bits)) & mask);
+	}
+
+	/**
+	 * Returns the flat index, (y * getMaxX() + x) * getMaxZ() + z, of the first cell at or after
+	 * 'from' and before 'to' that is not skipped, or -1 if there is none
+	 */
+	public final int nextOccupied(int from, int to) {
+		int cell = nextOccupiedInData(from, to);
+		if (overlayCells == null) {
+			return cell;
+		}
+
+		// walk the overlay alongside the data, skipping data cells the overlay cleared
+		int k = Arrays.binarySearch(overlayCells, from);
+		for (k = (k >= 0 ? k : -k - 1); k < overlayCells.length && overlayCells[k] < to && (cell < 0 || overlayCells[k] <= cell); ++k) {
+			if (!palette.isSkipped(overlayIndices[k])) {
+				return overlayCells[k];
+			}
+			if (overlayCells[k] == cell) {
+				cell = nextOccupiedInData(cell + 1, to);
+			}
+		}
+
+		return cell;
+	}
+
+	/**
+	 * Returns the next cell set in the occupancy bitset, ignoring any overlay
+	 */
+	private int nextOccupiedInData(int from, int to) {
+		if (from >= to) {
+			return -1;
+		}
+
+		int word = from >> 6;
+		long bits = occupied.get(word) & (-1L << from);
+		while (bits == 0) {
+			if (++word >= occupied.limit() || (word << 6) >= to) {
+				return -1;
+			}
+			bits = occupied.get(word);
+		}
+
+		int i = (word << 6) + Long.numberOfTrailingZeros(bits);
+		return i < to ? i : -1;
+	}
+
+	/**
+	 * Returns the number of cells in this layer that are not skipped
+	 */
+	public final int getOccupiedCount() {
+		return occupiedCount;
+	}
+
+	/**
+	 * Returns an approximation of the heap memory used by this layer, not counting the palette;
+	 * a layer with an overlay only counts the overlay, as its data belongs to its base layer.
+	 * Data read from a memory-mapped file is not on the heap; see getMappedSizeInBytes.
+	 */
+	public final long getSizeInBytes() {
+		if (overlayCells != null) {
+			return 64L + 2L * (16L + 4L * overlayCells.length);
+		}
+		return 64L + (data.isDirect() ? 0 : 8L * data.limit()) + (occupied.isDirect() ? 0 : 8L * occupied.limit())
+				+ (lengthX != null ? 16L + 4L * lengthX.length : 0) + (lengthZ != null ? 16L + 4L * lengthZ.length : 0);
+	}
+
+	/**
+	 * Returns the number of bytes of this layer's data used straight from a memory-mapped file
+	 * (or another buffer outside the heap), or 0 if its data is on the heap or is an overlay
+	 */
+	public final long getMappedSizeInBytes() {
+		if (overlayCells != null) {
+			return 0;
+		}
+		return (data.isDirect() ? 8L * data.limit() : 0) + (occupied.isDirect() ? 8L * occupied.limit() : 0);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			int[] tupleHashes = new int[palette.size()];
+			for (int i = 0; i < tupleHashes.length; ++i) {
+				tupleHashes[i] = Arrays.hashCode(palette.getEntry(i));
+			}
+
+			h = height;
+			for (int y = 0; y < height; ++y) {
+				h = 31 * h + getLengthX(y);
+				for (int x = 0; x < getLengthX(y); ++x) {
+					h = 31 * h + getLengthZ(y, x);
+					for (int z = 0; z < getLengthZ(y, x); ++z) {
+						h = 31 * h + tupleHashes[getPaletteIndex(y, x, z)];
+					}
+				}
+			}
+
+			hash = h = (h == 0 ? 1 : h);
+		}
+
+		return h;
+	}
+
+	/**
+	 * Returns true if the object is a layer with the same shape and the same tuple in every cell
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof CompiledLayer)) {
+			return false;
+		}
+
+		CompiledLayer layer = (CompiledLayer) obj;
+		if (layer.height != height || layer.hashCode() != hashCode()) {
+			return false;
+		}
+
+		for (int y = 0; y < height; ++y) {
+			if (layer.getLengthX(y) != getLengthX(y)) {
+				return false;
+			}
+			for (int x = 0; x < getLengthX(y); ++x) {
+				if (layer.getLengthZ(y, x) != getLengthZ(y, x)) {
+					return false;
+				}
+				for (int z = 0; z < getLengthZ(y, x); ++z) {
+					int a = getPaletteIndex(y, x, z), b = layer.getPaletteIndex(y, x, z);
+					if (palette == layer.palette ? a != b : !Arrays.equals(palette.getEntry(a), layer.palette.getEntry(b))) {
+						return false;
+					}
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Rebuilds the original blockArray from the compiled data; the result is a new copy
+	 */
+	public final int[][][][] toBlockArray() {
+		int[][][][] blocks = new int[height][][][];
+		for (int y = 0; y < height; ++y) {
+			blocks[y] = new int[getLengthX(y)][][];
+			for (int x = 0; x < blocks[y].length; ++x) {
+				blocks[y][x] = new int[getLengthZ(y, x)][];
+				for (int z = 0; z < blocks[y][x].length; ++z) {
+					int[] tuple = palette.getEntry(getPaletteIndex(y, x, z));
+					blocks[y][x][z] = tuple.clone();
+				}
+			}
+		}
+
+		return blocks;
+	}
+}
@@ -0,0 +1,191 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.AxisAlignedBB;
+import net.minecraft.world.World;
+
+/**
+ *
+ * Collects the blocks cleared while removing a structure, then removes every entity other than
+ * a player that is left around them with a single entity query over all of those blocks. An
+ * entity is removed if it is within the same box removing each block used to check on its own:
+ * the hanging entity box for that block (see GenHelper), expanded by one in every direction.
+ *
+ */
+public class EntitySweep
+{
+	/** Added to x and z so they pack as positive values; covers the whole world border */
+	private static final int COORD_OFFSET = 1 << 25;
+
+	/** Box checked around a block at 0/0/0 for each facing, as {minX, minY, minZ, maxX, maxY, maxZ} */
+	private static final double[][] BOXES = new double[6][];
+
+	/** Smallest and largest offset of any of the boxes, on each side */
+	private static final double[] REACH = {0, 0, 0, 0, 0, 0};
+
+	static {
+		for (int facing = 0; facing < BOXES.length; ++facing) {
+			AxisAlignedBB box = GenHelper.getHangingEntityAxisAligned(0, 0, 0, facing).expand(1.0D, 1.0D, 1.0D);
+			BOXES[facing] = new double[] {box.minX, box.minY, box.minZ, box.maxX, box.maxY, box.maxZ};
+			for (int i = 0; i < 3; ++i) {
+				REACH[i] = Math.min(REACH[i], BOXES[facing][i]);
+				REACH[i + 3] = Math.max(REACH[i + 3], BOXES[facing][i + 3]);
+			}
+		}
+	}
+
+	/** Cleared blocks as x << 37 | z << 11 | y << 3 | facing, sorted when swept */
+	private long[] cells = new long[64];
+
+	/** Number of cleared blocks collected since the last sweep */
+	private int size = 0;
+
+	/** Bounding box of the cleared blocks */
+	private int minX, minY, minZ, maxX, maxY, maxZ;
+
+	/** Total number of entities removed */
+	private int removed = 0;
+
+	public EntitySweep() {}
+
+	/**
+	 * Records that the block at x/y/z was cleared; facing is the direction hanging entities
+	 * around it are expected to face, as passed to GenHelper.getHangingEntityAxisAligned
+	 */
+	public final void add(int x, int y, int z, int facing) {
+		if (size == cells.length) {
+			cells = Arrays.copyOf(cells, size * 2);
+		}
+		cells[size] = pack(x, y, z) | (facing < 0 || facing >= BOXES.length ? 0 : facing);
+
+		if (size++ == 0) {
+			minX = maxX = x;
+			minY = maxY = y;
+			minZ = maxZ = z;
+		} else {
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			minZ = Math.min(minZ, z);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+			maxZ = Math.max(maxZ, z);
+		}
+	}
+
+	private static long pack(int x, int y, int z) {
+		return (long) (x + COORD_OFFSET) << 37 | (long) (z + COORD_OFFSET) << 11 | (long) (y & 255) << 3;
+	}
+
+	/**
+	 * Returns the number of cleared blocks waiting to be swept
+	 */
+	public final int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the total number of entities removed by this sweeper
+	 */
+	public final int getRemovedCount() {
+		return removed;
+	}
+
+	/**
+	 * Discards all cleared blocks without removing any entities
+	 */
+	public final void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Removes every entity, players excepted, within the box around any of the cleared blocks,
+	 * then forgets the blocks
+	 * @return the number of entities removed
+	 */
+	public final int sweep(World world) {
+		if (size == 0) {
+			return 0;
+		}
+
+		Arrays.sort(cells, 0, size);
+		AxisAlignedBB area = AxisAlignedBB.getBoundingBox(minX + REACH[0], minY + REACH[1], minZ + REACH[2],
+				maxX + REACH[3], maxY + REACH[4], maxZ + REACH[5]);
+		List<Entity> list = world.getEntitiesWithinAABB(Entity.class, area);
+		int count = 0;
+
+		for (Entity entity : list) {
+			if (!(entity instanceof EntityPlayer) && !entity.isDead && isNearCell(entity.boundingBox)) {
+				entity.setDead();
+				++count;
+			}
+		}
+
+		size = 0;
+		removed += count;
+		return count;
+	}
+
+	/**
+	 * Returns true if the box given is within the box around any cleared block; only the blocks
+	 * whose box could reach it are looked up
+	 */
+	private boolean isNearCell(AxisAlignedBB bb) {
+		int x0 = Math.max(minX, (int) Math.floor(bb.minX - REACH[3]) + 1), x1 = Math.min(maxX, (int) Math.ceil(bb.maxX - REACH[0]) - 1);
+		int y0 = Math.max(minY, (int) Math.floor(bb.minY - REACH[4]) + 1), y1 = Math.min(maxY, (int) Math.ceil(bb.maxY - REACH[1]) - 1);
+		int z0 = Math.max(minZ, (int) Math.floor(bb.minZ - REACH[5]) + 1), z1 = Math.min(maxZ, (int) Math.ceil(bb.maxZ - REACH[2]) - 1);
+
+		for (int x = x0; x <= x1; ++x) {
+			for (int z = z0; z <= z1; ++z) {
+				for (int y = y0; y <= y1; ++y) {
+					long key = pack(x, y, z);
+					for (int i = find(key); i < size && (cells[i] & ~7L) == key; ++i) {
+						double[] box = BOXES[(int) (cells[i] & 7)];
+						if (bb.maxX > x + box[0] && bb.minX < x + box[3] && bb.maxY > y + box[1] && bb.minY < y + box[4]
+								&& bb.maxZ > z + box[2] && bb.minZ < z + box[5]) {
+							return true;
+						}
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the index of the first cell at or after key in the sorted cells
+	 */
+	private int find(long key) {
+		int low = 0, high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cells[mid] < key) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
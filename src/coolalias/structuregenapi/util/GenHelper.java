@@ -35,6 +35,7 @@ import net.minecraft.tileentity.TileEntitySign;
 import net.minecraft.tileentity.TileEntitySkull;
 import net.minecraft.util.AxisAlignedBB;
 import net.minecraft.world.World;
+import structuregenapi.util.BlockRotationData.Rotation;
 
 /**
  * 
@@ -43,6 +44,20 @@ import net.minecraft.world.World;
  */
 public class GenHelper
 {
+	/** Rotated metadata for each rotation type, indexed [type.ordinal()][rotations][origMeta] */
+	private static final int[][][] rotatedMetadata = new int[Rotation.values().length][4][16];
+
+	static
+	{
+		for (Rotation type : Rotation.values()) {
+			for (int rotations = 0; rotations < 4; ++rotations) {
+				for (int meta = 0; meta < 16; ++meta) {
+					rotatedMetadata[type.ordinal()][rotations][meta] = computeMetadata(rotations, type, meta);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Use this method to add an ItemStack to the first available slot in a TileEntity that
 	 * implements IInventory (and thus, by extension, ISidedInventory)
@@ -368,9 +383,29 @@ public class GenHelper
 	 * @param origMeta	The block's original metadata value
 	 */
 	public static final int getMetadata(int rotations, Block block, int origMeta) {
-		if (BlockRotationData.getBlockRotationType(block) == null) {
+		return getMetadata(rotations, BlockRotationData.getBlockRotationType(block), origMeta);
+	}
+
+	/**
+	 * Returns the rotated metadata for a block of the given rotation type; see above.
+	 * Values within the normal ranges (0-3 rotations, 0-15 metadata) are a single table
+	 * lookup; anything else is computed exactly as the tables were.
+	 * @param type	The block's rotation type; if null, the original metadata is returned
+	 */
+	public static final int getMetadata(int rotations, Rotation type, int origMeta) {
+		if (type == null) {
 			return origMeta; // no rotation data, return original metadata value
 		}
+		if ((rotations & ~3) == 0 && (origMeta & ~15) == 0) {
+			return rotatedMetadata[type.ordinal()][rotations][origMeta];
+		}
+		return computeMetadata(rotations, type, origMeta);
+	}
+
+	/**
+	 * Applies each rotation in turn to the original metadata; used to build the rotation tables
+	 */
+	static final int computeMetadata(int rotations, Rotation type, int origMeta) {
 		int meta = origMeta;
 		int bitface;
 		int tickDelay = (meta >> 2);// used by repeaters, comparators, etc.
@@ -381,7 +416,7 @@ public class GenHelper
 
 		for (int i = 0; i < rotations; ++i) {
 			bitface = meta % 4;
-			switch(BlockRotationData.getBlockRotationType(block)) {
+			switch(type) {
 			case ANVIL:
 				meta ^= 1;
 				break;
@@ -0,0 +1,262 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.minecraft.world.World;
+
+/**
+ * 
+ * A structure waiting to be generated, or being generated, by a StructureScheduler.
+ * The generator should be fully set up (structure, facing, offsets) before scheduling,
+ * and must not be used for anything else until the job has finished.
+ *
+ */
+public class GenerationJob
+{
+	private final StructureGeneratorBase generator;
+	private final World world;
+	private final Random random;
+	private final int x, y, z;
+	private final IGenerationCallback callback;
+
+	/** Set from any thread to stop the job at the start of the next tick */
+	private volatile boolean cancelled = false;
+
+	/** Set once the generator has been started, and once the job is no longer in progress */
+	private boolean started = false, finished = false;
+
+	/** Plan being made on the scheduler's planner thread, or null if planning has not started or is over */
+	private Future<PlacementPlan> plan = null;
+
+	/** True while the planner thread is reading the generator, which must not be reset meanwhile */
+	private volatile boolean planRunning = false;
+
+	/** Plan collected from the planner thread, kept until its chunks are loaded and generation starts */
+	private PlacementPlan placementPlan = null;
+
+	/** Mod requesting chunk tickets when chunks are preloaded before placement, otherwise null */
+	private Object preloadMod = null;
+
+	/** Loads the chunks touched by the plan before generation starts, if preloading */
+	private ChunkPreloader preloader = null;
+
+	/** Total time spent generating this job so far, in nanoseconds */
+	private long elapsed = 0;
+
+	public GenerationJob(StructureGeneratorBase generator, World world, Random random, int x, int y, int z, IGenerationCallback callback) {
+		this.generator = generator;
+		this.world = world;
+		this.random = random;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.callback = callback;
+	}
+
+	public final StructureGeneratorBase getGenerator() {
+		return generator;
+	}
+
+	public final World getWorld() {
+		return world;
+	}
+
+	public final int getPosX() {
+		return x;
+	}
+
+	public final int getPosY() {
+		return y;
+	}
+
+	public final int getPosZ() {
+		return z;
+	}
+
+	/**
+	 * Requests that this job be stopped; blocks already placed remain in the world
+	 */
+	public final void cancel() {
+		cancelled = true;
+	}
+
+	public final boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns true once the job is no longer in progress, whether or not it was successful
+	 */
+	public final boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Returns the total time spent generating this job so far, in milliseconds
+	 */
+	public final long getElapsedMillis() {
+		return elapsed / 1000000L;
+	}
+
+	/**
+	 * Sets the mod that chunk tickets are requested for, to preload the chunks touched by
+	 * the structure before placing it; see ChunkPreloader. Null to not preload.
+	 */
+	final void setPreloadMod(Object mod) {
+		preloadMod = mod;
+	}
+
+	/**
+	 * Returns true if the job has been handed to a planner thread
+	 */
+	final boolean isPlanning() {
+		return plan != null;
+	}
+
+	/**
+	 * Returns true if the job can be run without waiting for its plan; jobs that have not been
+	 * handed to a planner thread are only ready if there is nothing to plan
+	 */
+	final boolean isReady() {
+		return started || cancelled || placementPlan != null || (plan != null ? plan.isDone() : !generator.canGenerate());
+	}
+
+	/**
+	 * Starts creating this job's plan on the executor given, if the generator has anything to generate
+	 */
+	final void startPlanning(ExecutorService executor) {
+		if (plan == null && placementPlan == null && !started && !cancelled && generator.canGenerate()) {
+			plan = executor.submit(new Callable<PlacementPlan>() {
+				@Override
+				public PlacementPlan call() {
+					planRunning = true;
+					try {
+						return (cancelled ? null : generator.createPlan());
+					} finally {
+						planRunning = false;
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Generates as much of the structure as possible before the deadline. A cancelled job
+	 * interrupts its planner thread and only finishes once that thread has let go of the generator.
+	 * @return true if the job is finished
+	 */
+	final boolean run(long deadline) {
+		if (finished) {
+			return true;
+		}
+
+		if (cancelled) {
+			if (plan != null) {
+				plan.cancel(true);
+				if (planRunning) {
+					return false;
+				}
+				plan = null;
+			}
+			generator.cancelGeneration();
+			finish(false);
+			return true;
+		}
+
+		long start = System.nanoTime();
+		if (!started) {
+			boolean prepared = prepare(deadline);
+			if (finished) {
+				return true;
+			} else if (!prepared) {
+				elapsed += System.nanoTime() - start;
+				return false;
+			}
+
+			started = true;
+			PlacementPlan startPlan = placementPlan;
+			placementPlan = null;
+			if (!generator.startGeneration(world, random, x, y, z, startPlan)) {
+				finish(false);
+				return true;
+			}
+		}
+
+		boolean done = generator.continueGeneration(deadline);
+		elapsed += System.nanoTime() - start;
+		if (done) {
+			finish(generator.wasGenerated());
+		}
+
+		return done;
+	}
+
+	/**
+	 * Collects the plan made on the planner thread and, when preloading, loads the chunks it touches.
+	 * The plan is never made here, so that the server thread does not have to wait for it.
+	 * @return true once generation can start; false if it cannot start yet, or the job failed
+	 */
+	private boolean prepare(long deadline) {
+		if (plan != null) {
+			try {
+				placementPlan = plan.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				LogHelper.severe("Failed to plan structure generation: " + e.getCause());
+			}
+			plan = null;
+		}
+
+		if (placementPlan == null) {
+			finish(false);
+			return false;
+		}
+
+		if (preloadMod == null) {
+			return true;
+		}
+
+		if (preloader == null) {
+			preloader = new ChunkPreloader(preloadMod, world, placementPlan, x, z);
+		}
+
+		if (!preloader.load(deadline)) {
+			return false;
+		}
+
+		LogHelper.fine("Preloaded " + preloader.getChunkCount() + " chunks, " + preloader.getGeneratedCount() + " of them newly generated");
+		return true;
+	}
+
+	private void finish(boolean generated) {
+		if (preloader != null) {
+			preloader.release();
+		}
+		finished = true;
+		if (callback != null) {
+			callback.onGenerationFinished(this, generated);
+		}
+	}
+}
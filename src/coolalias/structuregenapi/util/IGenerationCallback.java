@@ -0,0 +1,33 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+/**
+ * 
+ * Notified on the server thread when a scheduled generation job finishes or is cancelled
+ *
+ */
+public interface IGenerationCallback
+{
+	/**
+	 * Called once the job is no longer in progress
+	 * @param generated true if the structure was completely generated; false if generation
+	 * 			failed or the job was cancelled (see GenerationJob.isCancelled)
+	 */
+	public void onGenerationFinished(GenerationJob job, boolean generated);
+}
@@ -0,0 +1,158 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import structuregenapi.util.BlockRotationData.Rotation;
+
+/**
+ *
+ * Replaces block ids, metadata and rotation types when a structure is planned, so that
+ * a desert or snowy version of a structure needs no copy of its blockArrays:
+ *
+ * 		PaletteRemap desert = new PaletteRemap();
+ * 		desert.setBlock(Block.getIdFromBlock(Blocks.cobblestone), Block.getIdFromBlock(Blocks.sandstone));
+ * 		desert.setBlock(Block.getIdFromBlock(Blocks.stone_stairs), Block.getIdFromBlock(Blocks.sandstone_stairs));
+ * 		gen.setPaletteRemap(desert);
+ *
+ * The remap is applied to each palette once and the result is kept for as long as the
+ * original palette is in use, so a remapped structure plans exactly as fast as the original;
+ * a palette that has grown since is remapped again. All access to the kept copies is
+ * synchronized, as plans may be made on the StructureScheduler's planner threads.
+ * Rules must not be changed once the remap has been used.
+ *
+ * Ids are matched as they appear in the blockArray, ignoring the sign; the sign and any
+ * custom data are kept. Cells that generate nothing ({} and SET_NO_BLOCK) are never remapped.
+ *
+ */
+public class PaletteRemap
+{
+	/** Keep the original metadata when remapping */
+	public static final int ANY_META = -1;
+
+	/** Replacement {id, meta} for a specific id and metadata, keyed by id << 32 | meta */
+	private final Map<Long, int[]> exact = new HashMap<Long, int[]>();
+
+	/** Replacement {id, meta} for an id with any metadata */
+	private final Map<Integer, int[]> byID = new HashMap<Integer, int[]>();
+
+	/** Rotation type to use for a (remapped) id instead of its registered type; null values disable rotation */
+	private final Map<Integer, Rotation> rotations = new HashMap<Integer, Rotation>();
+
+	/** Remapped copy of every palette this remap has been applied to */
+	private final Map<BlockPalette, BlockPalette> palettes = new WeakHashMap<BlockPalette, BlockPalette>();
+
+	public PaletteRemap() {}
+
+	/**
+	 * Replaces every block with id 'from' by id 'to', keeping its metadata
+	 */
+	public final void setBlock(int from, int to) {
+		setBlock(from, ANY_META, to, ANY_META);
+	}
+
+	/**
+	 * Replaces blocks with id 'from' and metadata 'fromMeta' (or any metadata, if ANY_META)
+	 * by id 'to' with metadata 'toMeta' (or the original metadata, if ANY_META).
+	 * Rules for a specific metadata take precedence over those for ANY_META.
+	 */
+	public final void setBlock(int from, int fromMeta, int to, int toMeta) {
+		if (to == StructureGeneratorBase.SET_NO_BLOCK) {
+			throw new IllegalArgumentException("Blocks cannot be remapped to SET_NO_BLOCK");
+		}
+
+		int[] replacement = {Math.abs(to), toMeta};
+		if (fromMeta == ANY_META) {
+			byID.put(Math.abs(from), replacement);
+		} else {
+			exact.put(getKey(Math.abs(from), fromMeta), replacement);
+		}
+	}
+
+	/**
+	 * Sets the rotation type used for blocks with the id given, after remapping, in place
+	 * of the type registered with BlockRotationData; null means the block is not rotated
+	 */
+	public final void setRotation(int id, Rotation type) {
+		rotations.put(Math.abs(id), type);
+	}
+
+	/**
+	 * Returns the remapped copy of the palette given, creating it the first time and again
+	 * whenever the palette has gained tuples since, e.g. from a blockArray added afterwards
+	 */
+	final BlockPalette apply(BlockPalette palette) {
+		synchronized (palettes) {
+			BlockPalette remapped = palettes.get(palette);
+			if (remapped == null || remapped.size() != palette.size()) {
+				remapped = palette.remap(this);
+				palettes.put(palette, remapped);
+			}
+			return remapped;
+		}
+	}
+
+	/**
+	 * Returns the remapped tuple, or the tuple itself if no rule matches
+	 */
+	final int[] remap(int[] tuple) {
+		if (tuple.length == 0 || tuple[0] == StructureGeneratorBase.SET_NO_BLOCK) {
+			return tuple;
+		}
+
+		int id = Math.abs(tuple[0]), meta = (tuple.length > 1 ? tuple[1] : 0);
+		int[] replacement = exact.get(getKey(id, meta));
+		if (replacement == null) {
+			replacement = byID.get(id);
+		}
+		if (replacement == null) {
+			return tuple;
+		}
+
+		int newMeta = (replacement[1] == ANY_META ? meta : replacement[1]);
+		int[] result = new int[Math.max(tuple.length, newMeta != 0 ? 2 : 1)];
+		System.arraycopy(tuple, 0, result, 0, tuple.length);
+		result[0] = (tuple[0] < 0 ? -replacement[0] : replacement[0]);
+		if (result.length > 1) {
+			result[1] = newMeta;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the rotation flags for the id given as stored in BlockRotationData.FLAG_ROTATION_MASK,
+	 * or -1 if the registered rotation type should be used
+	 */
+	final int getRotationFlags(int id) {
+		id = Math.abs(id);
+		if (!rotations.containsKey(id)) {
+			return -1;
+		}
+
+		Rotation type = rotations.get(id);
+		return type == null ? 0 : type.ordinal() + 1;
+	}
+
+	private static long getKey(int id, int meta) {
+		return (long) id << 32 | (meta & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,173 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import net.minecraft.block.Block;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.event.terraingen.PopulateChunkEvent;
+import net.minecraftforge.event.world.ChunkEvent;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+
+/**
+ *
+ * Places the blocks held in PendingBlockStores once their chunks are ready: right after a chunk
+ * is populated, or on the next world tick after an already populated chunk is loaded from disk.
+ *
+ * Register a single instance to MinecraftForge.TERRAIN_GEN_BUS, MinecraftForge.EVENT_BUS and the
+ * FML event bus. Chunk providers that do not post PopulateChunkEvent (some modded dimensions) may
+ * call applyPending from an IWorldGenerator instead.
+ *
+ * Pending blocks are set without notifying their neighbors, so that placing them never loads or
+ * generates the chunks around them. Custom hooks are triggered on a new instance of the generator
+ * that deferred the block, so such generators need a public constructor without arguments; the
+ * instance is given the facing and rotations the original had, but none of its other state.
+ *
+ */
+public class PendingBlockHandler
+{
+	/** Generator instances used for custom hooks, by class name; null if one could not be made */
+	private static final Map<String, StructureGeneratorBase> generators = new HashMap<String, StructureGeneratorBase>();
+
+	/** Populated chunks loaded since the last world tick that have pending blocks, for each world */
+	private final Map<World, Set<Long>> loaded = new WeakHashMap<World, Set<Long>>();
+
+	public PendingBlockHandler() {}
+
+	@SubscribeEvent
+	public void onPopulateChunk(PopulateChunkEvent.Post event) {
+		applyPending(event.world, event.chunkX, event.chunkZ);
+	}
+
+	@SubscribeEvent
+	public void onChunkLoad(ChunkEvent.Load event) {
+		Chunk chunk = event.getChunk();
+		if (event.world.isRemote || !chunk.isTerrainPopulated) {
+			return;
+		}
+
+		PendingBlockStore store = PendingBlockStore.get(event.world, chunk.xPosition, chunk.zPosition, false);
+		if (store != null && store.hasBlocks(chunk.xPosition, chunk.zPosition)) {
+			Set<Long> chunks = loaded.get(event.world);
+			if (chunks == null) {
+				chunks = new LinkedHashSet<Long>();
+				loaded.put(event.world, chunks);
+			}
+			chunks.add(ChunkCoordIntPair.chunkXZ2Int(chunk.xPosition, chunk.zPosition));
+		}
+	}
+
+	@SubscribeEvent
+	public void onWorldTick(TickEvent.WorldTickEvent event) {
+		Set<Long> chunks = (event.phase == TickEvent.Phase.END ? loaded.remove(event.world) : null);
+		if (chunks != null) {
+			for (long key : chunks) {
+				int chunkX = (int) key, chunkZ = (int) (key >>> 32);
+				if (event.world.blockExists(chunkX << 4, 0, chunkZ << 4)) {
+					applyPending(event.world, chunkX, chunkZ);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Places every block waiting in the chunk given, which must be loaded, and removes them
+	 * from the store. Post-gen blocks are placed after all of the others.
+	 * @return the number of blocks placed
+	 */
+	public static int applyPending(World world, int chunkX, int chunkZ) {
+		PendingBlockStore store = (world.isRemote ? null : PendingBlockStore.get(world, chunkX, chunkZ, false));
+		int[] records = (store != null ? store.take(chunkX, chunkZ) : null);
+		if (records == null) {
+			return 0;
+		}
+
+		int placed = 0;
+		for (int pass = 0; pass < 2; ++pass) {
+			for (int i = 0; i < records.length; i += PendingBlockStore.RECORD_SIZE) {
+				int flags = records[i + PendingBlockStore.FLAGS];
+				if (((flags & BlockRotationData.FLAG_POST_GEN) != 0) != (pass == 1)) {
+					continue;
+				}
+
+				int pos = records[i + PendingBlockStore.POS];
+				int x = (chunkX << 4) + (pos & 15), y = pos >> 8, z = (chunkZ << 4) + ((pos >> 4) & 15);
+				int realID = records[i + PendingBlockStore.REAL_ID], fakeID = records[i + PendingBlockStore.FAKE_ID];
+				int meta = records[i + PendingBlockStore.META];
+				if (realID < 0 && !world.isAirBlock(x, y, z) && world.getBlock(x, y, z).getMaterial().blocksMovement()) {
+					continue;
+				}
+
+				world.setBlock(x, y, z, Block.getBlockById(Math.abs(realID)), meta, 2);
+				if ((flags & BlockRotationData.FLAG_SET_METADATA) != 0) {
+					GenHelper.setMetadata(world, x, y, z, meta);
+				}
+
+				if (Math.abs(fakeID) > 4095) {
+					StructureGeneratorBase generator = getGenerator(store.getGenerator(records[i + PendingBlockStore.GENERATOR]));
+					if (generator != null) {
+						generator.onCustomBlockAdded(world, x, y, z, fakeID, records[i + PendingBlockStore.DATA1], records[i + PendingBlockStore.DATA2]);
+					}
+				}
+				++placed;
+			}
+		}
+
+		LogHelper.fine("Placed " + placed + " pending structure blocks in chunk " + chunkX + ", " + chunkZ);
+		return placed;
+	}
+
+	/**
+	 * Returns the instance of the generator class named, set to the facing and rotations stored
+	 * along with the name, or null if the class could not be instantiated
+	 */
+	private static StructureGeneratorBase getGenerator(String name) {
+		int separator = name.indexOf(StructureGeneratorBase.PENDING_STATE_SEPARATOR);
+		String className = (separator < 0 ? name : name.substring(0, separator));
+		StructureGeneratorBase generator;
+		if (generators.containsKey(className)) {
+			generator = generators.get(className);
+		} else {
+			generator = null;
+			try {
+				generator = (StructureGeneratorBase) Class.forName(className).newInstance();
+			} catch (Exception e) {
+				LogHelper.warning("Unable to create generator " + className + " for pending custom blocks: " + e);
+			}
+			generators.put(className, generator);
+		}
+
+		if (generator != null && separator >= 0) {
+			try {
+				generator.restorePendingState(Integer.parseInt(name.substring(separator + 1)));
+			} catch (NumberFormatException e) {
+				LogHelper.warning("Invalid facing stored for pending custom blocks of " + className + ": " + name);
+			}
+		}
+
+		return generator;
+	}
+}
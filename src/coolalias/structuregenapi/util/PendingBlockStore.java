@@ -0,0 +1,229 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldSavedData;
+import net.minecraftforge.common.util.Constants;
+
+/**
+ *
+ * Blocks of structures generated with chunk clipping that fell in chunks not yet populated,
+ * waiting to be placed once those chunks are; see StructureGeneratorBase.setChunkClipping.
+ * There is one store for each region of REGION_SIZE x REGION_SIZE chunks that has ever had
+ * pending blocks, saved with the world's other data so that nothing is lost over a restart.
+ *
+ * Blocks are stored with their real block id and metadata already worked out, along with the
+ * name of the generator class and its facing and rotations, so that custom hooks can still be
+ * triggered; PendingBlockHandler places them.
+ *
+ */
+public class PendingBlockStore extends WorldSavedData
+{
+	/** Chunks in each region along each axis, the same as Minecraft's own region files */
+	public static final int REGION_SIZE = 32;
+
+	/** Shift converting chunk coordinates to region coordinates */
+	private static final int REGION_SHIFT = 5;
+
+	/** Ints stored for each block, and the position of each value within them */
+	static final int RECORD_SIZE = 8, POS = 0, REAL_ID = 1, FAKE_ID = 2, META = 3, FLAGS = 4, DATA1 = 5, DATA2 = 6, GENERATOR = 7;
+
+	private static final String PREFIX = "StructureGenPending";
+
+	/** Pending blocks for each chunk, keyed by ChunkCoordIntPair.chunkXZ2Int */
+	private final Map<Long, ChunkBlocks> chunks = new HashMap<Long, ChunkBlocks>();
+
+	/** Class names of the generators that deferred the blocks, referred to by index */
+	private final List<String> generators = new ArrayList<String>();
+
+	/** Total number of blocks pending in this region */
+	private int size = 0;
+
+	public PendingBlockStore(String name) {
+		super(name);
+	}
+
+	/**
+	 * Returns the store for the region containing the chunk given, or null if that region
+	 * has no store and create is false
+	 */
+	public static PendingBlockStore get(World world, int chunkX, int chunkZ, boolean create) {
+		String name = PREFIX + "_" + (chunkX >> REGION_SHIFT) + "_" + (chunkZ >> REGION_SHIFT);
+		PendingBlockStore store = (PendingBlockStore) world.perWorldStorage.loadData(PendingBlockStore.class, name);
+		if (store == null && create) {
+			store = new PendingBlockStore(name);
+			world.perWorldStorage.setData(name, store);
+		}
+
+		return store;
+	}
+
+	/**
+	 * Adds a block at world position x/y/z; positions outside of y 0-255 are ignored
+	 */
+	public final void add(int x, int y, int z, int realID, int fakeID, int meta, int flags, int customData1, int customData2, String generator) {
+		if (y < 0 || y > 255) {
+			return;
+		}
+
+		long key = ChunkCoordIntPair.chunkXZ2Int(x >> 4, z >> 4);
+		ChunkBlocks blocks = chunks.get(key);
+		if (blocks == null) {
+			blocks = new ChunkBlocks(new int[RECORD_SIZE * 16], 0);
+			chunks.put(key, blocks);
+		}
+
+		int index = generators.indexOf(generator);
+		if (index < 0) {
+			index = generators.size();
+			generators.add(generator);
+		}
+
+		blocks.add(y << 8 | (z & 15) << 4 | (x & 15), realID, fakeID, meta, flags, customData1, customData2, index);
+		++size;
+		markDirty();
+	}
+
+	/**
+	 * Returns true if any blocks are waiting to be placed in the chunk given
+	 */
+	public final boolean hasBlocks(int chunkX, int chunkZ) {
+		return chunks.containsKey(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+	}
+
+	/**
+	 * Removes and returns the blocks waiting to be placed in the chunk given, RECORD_SIZE ints
+	 * each in the order they were added, or null if there are none
+	 */
+	final int[] take(int chunkX, int chunkZ) {
+		ChunkBlocks blocks = chunks.remove(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+		if (blocks == null) {
+			return null;
+		}
+
+		size -= blocks.size / RECORD_SIZE;
+		markDirty();
+
+		return Arrays.copyOf(blocks.records, blocks.size);
+	}
+
+	/**
+	 * Returns the name of the generator stored at the index given; see StructureGeneratorBase.getPendingName
+	 */
+	final String getGenerator(int index) {
+		return generators.get(index);
+	}
+
+	/**
+	 * Returns the number of blocks waiting to be placed in this region
+	 */
+	public final int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of chunks in this region with blocks waiting to be placed
+	 */
+	public final int getChunkCount() {
+		return chunks.size();
+	}
+
+	@Override
+	public void readFromNBT(NBTTagCompound compound) {
+		chunks.clear();
+		generators.clear();
+		size = 0;
+
+		NBTTagList names = compound.getTagList("generators", Constants.NBT.TAG_STRING);
+		for (int i = 0; i < names.tagCount(); ++i) {
+			generators.add(names.getStringTagAt(i));
+		}
+
+		NBTTagList list = compound.getTagList("chunks", Constants.NBT.TAG_COMPOUND);
+		for (int i = 0; i < list.tagCount(); ++i) {
+			NBTTagCompound tag = list.getCompoundTagAt(i);
+			int[] records = tag.getIntArray("blocks");
+			if (records.length == 0 || records.length % RECORD_SIZE != 0) {
+				LogHelper.warning("Discarding malformed pending blocks for chunk " + tag.getInteger("x") + ", " + tag.getInteger("z") + " in " + mapName);
+				continue;
+			}
+			chunks.put(ChunkCoordIntPair.chunkXZ2Int(tag.getInteger("x"), tag.getInteger("z")), new ChunkBlocks(records, records.length));
+			size += records.length / RECORD_SIZE;
+		}
+	}
+
+	@Override
+	public void writeToNBT(NBTTagCompound compound) {
+		NBTTagList names = new NBTTagList();
+		for (String generator : generators) {
+			names.appendTag(new NBTTagString(generator));
+		}
+		compound.setTag("generators", names);
+
+		NBTTagList list = new NBTTagList();
+		for (Map.Entry<Long, ChunkBlocks> entry : chunks.entrySet()) {
+			ChunkBlocks blocks = entry.getValue();
+			NBTTagCompound tag = new NBTTagCompound();
+			tag.setInteger("x", (int) entry.getKey().longValue());
+			tag.setInteger("z", (int) (entry.getKey().longValue() >>> 32));
+			tag.setIntArray("blocks", Arrays.copyOf(blocks.records, blocks.size));
+			list.appendTag(tag);
+		}
+		compound.setTag("chunks", list);
+	}
+
+	/**
+	 * Pending blocks for a single chunk; local position y << 8 | z << 4 | x, then the block itself
+	 */
+	private static final class ChunkBlocks
+	{
+		private int[] records;
+		private int size;
+
+		private ChunkBlocks(int[] records, int size) {
+			this.records = records;
+			this.size = size;
+		}
+
+		private void add(int pos, int realID, int fakeID, int meta, int flags, int customData1, int customData2, int generator) {
+			if (size + RECORD_SIZE > records.length) {
+				records = Arrays.copyOf(records, records.length * 2);
+			}
+			records[size + POS] = pos;
+			records[size + REAL_ID] = realID;
+			records[size + FAKE_ID] = fakeID;
+			records[size + META] = meta;
+			records[size + FLAGS] = flags;
+			records[size + DATA1] = customData1;
+			records[size + DATA2] = customData2;
+			records[size + GENERATOR] = generator;
+			size += RECORD_SIZE;
+		}
+	}
+}
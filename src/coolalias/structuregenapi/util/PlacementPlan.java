@@ -0,0 +1,369 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Every block a generator will place (or remove), in order, with all rotation, offset,
+ * real block id and metadata calculations already done. Positions are relative to the
+ * position passed to generate, so the same plan can be applied at any location.
+ *
+ * Cells are grouped into runs; a run placed more than once (see StructurePrimitive.REPEAT)
+ * is stored once and placed again strideY higher each time. Boxes filled with a single block
+ * are kept as fills rather than cells, and are placed before the cells, or after them when
+ * removing.
+ *
+ * Creating a plan never touches the World, so it may be done on another thread; see
+ * StructureGeneratorBase.createPlan. Once returned, a plan is never modified.
+ *
+ */
+public class PlacementPlan
+{
+	/** Ints stored for each fill, and the position of each value within them */
+	static final int FILL_SIZE = 12, FILL_MIN_X = 0, FILL_MIN_Y = 1, FILL_MIN_Z = 2, FILL_MAX_X = 3, FILL_MAX_Y = 4, FILL_MAX_Z = 5,
+			FILL_REAL_ID = 6, FILL_FAKE_ID = 7, FILL_META = 8, FILL_DATA1 = 9, FILL_DATA2 = 10, FILL_FLAGS = 11;
+
+	/** Number of rotations applied to the structure */
+	private final int rotations;
+
+	/** True if this plan removes the structure rather than generating it */
+	private final boolean removal;
+
+	/** Number of cells in the plan */
+	private int size = 0;
+
+	/** Position of each cell relative to the generation position */
+	private int[] posX, posY, posZ;
+
+	/** Block id returned from getRealBlockID (negative to only place if free), and id as found in the blockArray */
+	private int[] realIDs, fakeIDs;
+
+	/** Rotated metadata and custom data for each cell */
+	private int[] metas, customData1, customData2;
+
+	/** BlockRotationData flags for each cell's real block id */
+	private byte[] flags;
+
+	/** Fills, FILL_SIZE ints each, and the number of fills */
+	private int[] fills = new int[0];
+	private int fillCount = 0;
+
+	/** End of each run of cells, the number of times it is placed and the y distance between copies */
+	private int[] runEnds = new int[0], runRepeats = new int[0], runStrides = new int[0];
+	private int runCount = 0;
+
+	/** Bounds of all cells and fills relative to the generation position, inclusive */
+	private int minX, minY, minZ, maxX, maxY, maxZ;
+
+	/** True until the first cell or fill is added */
+	private boolean empty = true;
+
+	PlacementPlan(int rotations, boolean removal, int capacity) {
+		this.rotations = rotations;
+		this.removal = removal;
+		capacity = Math.max(capacity, 16);
+		posX = new int[capacity];
+		posY = new int[capacity];
+		posZ = new int[capacity];
+		realIDs = new int[capacity];
+		fakeIDs = new int[capacity];
+		metas = new int[capacity];
+		customData1 = new int[capacity];
+		customData2 = new int[capacity];
+		flags = new byte[capacity];
+	}
+
+	/**
+	 * Adds a cell to the plan; only used while the plan is being created
+	 */
+	final void add(int x, int y, int z, int realID, int fakeID, int meta, int data1, int data2, int blockFlags) {
+		if (size == posX.length) {
+			resize(size * 2);
+		}
+
+		include(x, y, z, x, y, z);
+		posX[size] = x;
+		posY[size] = y;
+		posZ[size] = z;
+		realIDs[size] = realID;
+		fakeIDs[size] = fakeID;
+		metas[size] = meta;
+		customData1[size] = data1;
+		customData2[size] = data2;
+		flags[size] = (byte) blockFlags;
+		++size;
+	}
+
+	/**
+	 * Adds a box, inclusive, filled with a single block; only used while the plan is being created
+	 */
+	final void addFill(int x1, int y1, int z1, int x2, int y2, int z2, int realID, int fakeID, int meta, int data1, int data2, int blockFlags) {
+		if ((fillCount + 1) * FILL_SIZE > fills.length) {
+			fills = Arrays.copyOf(fills, Math.max(4, fillCount * 2) * FILL_SIZE);
+		}
+
+		int[] fill = {Math.min(x1, x2), Math.min(y1, y2), Math.min(z1, z2), Math.max(x1, x2), Math.max(y1, y2), Math.max(z1, z2),
+				realID, fakeID, meta, data1, data2, blockFlags};
+		include(fill[FILL_MIN_X], fill[FILL_MIN_Y], fill[FILL_MIN_Z], fill[FILL_MAX_X], fill[FILL_MAX_Y], fill[FILL_MAX_Z]);
+		System.arraycopy(fill, 0, fills, fillCount * FILL_SIZE, FILL_SIZE);
+		++fillCount;
+	}
+
+	/**
+	 * Ends the run of cells added since the previous run ended; the run is placed 'repeats'
+	 * times, each copy strideY higher than the last
+	 */
+	final void endRun(int repeats, int strideY) {
+		int start = (runCount > 0 ? runEnds[runCount - 1] : 0);
+		if (start == size) {
+			return;
+		}
+
+		if (runCount == runEnds.length) {
+			int length = Math.max(4, runCount * 2);
+			runEnds = Arrays.copyOf(runEnds, length);
+			runRepeats = Arrays.copyOf(runRepeats, length);
+			runStrides = Arrays.copyOf(runStrides, length);
+		}
+
+		if (repeats > 1) {
+			int top = posY[start];
+			for (int i = start + 1; i < size; ++i) {
+				top = Math.max(top, posY[i]);
+			}
+			maxY = Math.max(maxY, top + (repeats - 1) * strideY);
+		}
+
+		runEnds[runCount] = size;
+		runRepeats[runCount] = repeats;
+		runStrides[runCount] = strideY;
+		++runCount;
+	}
+
+	private void include(int x1, int y1, int z1, int x2, int y2, int z2) {
+		if (empty) {
+			minX = x1;
+			minY = y1;
+			minZ = z1;
+			maxX = x2;
+			maxY = y2;
+			maxZ = z2;
+			empty = false;
+		} else {
+			minX = Math.min(minX, x1);
+			minY = Math.min(minY, y1);
+			minZ = Math.min(minZ, z1);
+			maxX = Math.max(maxX, x2);
+			maxY = Math.max(maxY, y2);
+			maxZ = Math.max(maxZ, z2);
+		}
+	}
+
+	/**
+	 * Releases unused capacity; called once the plan is complete
+	 */
+	final void trim() {
+		if (size < posX.length) {
+			resize(size);
+		}
+		if (fillCount * FILL_SIZE < fills.length) {
+			fills = Arrays.copyOf(fills, fillCount * FILL_SIZE);
+		}
+	}
+
+	private void resize(int length) {
+		posX = Arrays.copyOf(posX, length);
+		posY = Arrays.copyOf(posY, length);
+		posZ = Arrays.copyOf(posZ, length);
+		realIDs = Arrays.copyOf(realIDs, length);
+		fakeIDs = Arrays.copyOf(fakeIDs, length);
+		metas = Arrays.copyOf(metas, length);
+		customData1 = Arrays.copyOf(customData1, length);
+		customData2 = Arrays.copyOf(customData2, length);
+		flags = Arrays.copyOf(flags, length);
+	}
+
+	/**
+	 * Returns the number of rotations the structure was planned with
+	 */
+	public final int getRotations() {
+		return rotations;
+	}
+
+	/**
+	 * Returns true if this plan removes the structure rather than generating it
+	 */
+	public final boolean isRemoval() {
+		return removal;
+	}
+
+	/**
+	 * Returns the number of cells in the plan; repeated runs are only counted once
+	 */
+	public final int size() {
+		return size;
+	}
+
+	/**
+	 * Returns true if the plan has neither cells nor fills
+	 */
+	public final boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * Returns the number of runs of cells; cells after the last run ended form a final run placed once
+	 */
+	public final int getRunCount() {
+		return runCount + (size > getRunStart(runCount) ? 1 : 0);
+	}
+
+	/**
+	 * Returns the index of the first cell in run r
+	 */
+	public final int getRunStart(int r) {
+		return r == 0 ? 0 : r <= runCount ? runEnds[r - 1] : size;
+	}
+
+	/**
+	 * Returns the index after the last cell in run r
+	 */
+	public final int getRunEnd(int r) {
+		return r < runCount ? runEnds[r] : size;
+	}
+
+	/**
+	 * Returns the number of times run r is placed
+	 */
+	public final int getRunRepeats(int r) {
+		return r < runCount ? runRepeats[r] : 1;
+	}
+
+	/**
+	 * Returns the y distance between copies of run r
+	 */
+	public final int getRunStrideY(int r) {
+		return r < runCount ? runStrides[r] : 0;
+	}
+
+	/**
+	 * Returns the number of filled boxes in the plan
+	 */
+	public final int getFillCount() {
+		return fillCount;
+	}
+
+	/**
+	 * Returns the value at 'field' (e.g. FILL_MIN_X) of fill i
+	 */
+	final int getFill(int i, int field) {
+		return fills[i * FILL_SIZE + field];
+	}
+
+	public final int getX(int i) {
+		return posX[i];
+	}
+
+	public final int getY(int i) {
+		return posY[i];
+	}
+
+	public final int getZ(int i) {
+		return posZ[i];
+	}
+
+	/**
+	 * Returns the block id to place; negative ids are only placed if the location is free
+	 */
+	public final int getRealID(int i) {
+		return realIDs[i];
+	}
+
+	/**
+	 * Returns the id as found in the blockArray, which may be a custom 'hook'
+	 */
+	public final int getFakeID(int i) {
+		return fakeIDs[i];
+	}
+
+	/**
+	 * Returns the metadata to place, already rotated
+	 */
+	public final int getMetadata(int i) {
+		return metas[i];
+	}
+
+	public final int getCustomData1(int i) {
+		return customData1[i];
+	}
+
+	public final int getCustomData2(int i) {
+		return customData2[i];
+	}
+
+	/**
+	 * Returns the BlockRotationData flags for the real block id
+	 */
+	public final int getFlags(int i) {
+		return flags[i] & 0xFF;
+	}
+
+	/**
+	 * Returns the smallest x of any cell or fill, relative to the generation position
+	 */
+	public final int getMinX() {
+		return minX;
+	}
+
+	/**
+	 * Returns the smallest y of any cell or fill, relative to the generation position
+	 */
+	public final int getMinY() {
+		return minY;
+	}
+
+	/**
+	 * Returns the smallest z of any cell or fill, relative to the generation position
+	 */
+	public final int getMinZ() {
+		return minZ;
+	}
+
+	/**
+	 * Returns the largest x of any cell or fill, relative to the generation position
+	 */
+	public final int getMaxX() {
+		return maxX;
+	}
+
+	/**
+	 * Returns the largest y of any cell or fill, relative to the generation position
+	 */
+	public final int getMaxY() {
+		return maxY;
+	}
+
+	/**
+	 * Returns the largest z of any cell or fill, relative to the generation position
+	 */
+	public final int getMaxZ() {
+		return maxZ;
+	}
+}
@@ -0,0 +1,218 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * Keeps the PlacementPlans made for Structures so that placing the same structure again with
+ * the same rotation and offsets only has to add the world position to each cell. Plans are
+ * keyed by the Structure instance, its number of layers and primitives, the generator class, the PaletteRemap
+ * instance, the total and manual rotations, the offsets and whether the structure is being
+ * removed; the least recently used plan is dropped once the cache is full.
+ *
+ * Only Structures are cached; blockArrays set directly on a generator are planned every time.
+ * Since getRealBlockID is not called again for a cached plan, a cache should not be used with
+ * generators whose getRealBlockID returns different ids for the same arguments. Plans are made
+ * with the BlockRotationData registered at the time, so call clear() after registering more;
+ * all plans are dropped automatically once BlockRotationData.invalidate is called, e.g. after
+ * FML has remapped block ids.
+ *
+ * Structures are only referenced weakly, so a cache does not keep alive a structure that was
+ * dropped elsewhere, e.g. evicted from a StructureRegistry; its plans are discarded once the
+ * structure has been garbage collected.
+ *
+ * A single cache may be shared by any number of generators, on any thread.
+ *
+ */
+public class PlacementPlanCache
+{
+	/** Default maximum number of plans kept */
+	public static final int DEFAULT_MAX_SIZE = 256;
+
+	/** Cached plans, in access order */
+	private final LinkedHashMap<Key, PlacementPlan> plans;
+
+	/** Maximum number of plans kept */
+	private final int maxSize;
+
+	/** Number of plans found in and not found in the cache */
+	private long hits = 0, misses = 0;
+
+	/** BlockRotationData.getFlagsVersion when the cached plans were made */
+	private int flagsVersion = BlockRotationData.getFlagsVersion();
+
+	public PlacementPlanCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * @param maxSize Maximum number of plans kept
+	 */
+	public PlacementPlanCache(int maxSize) {
+		this.maxSize = Math.max(1, maxSize);
+		this.plans = new LinkedHashMap<Key, PlacementPlan>(16, 0.75F, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, PlacementPlan> eldest) {
+				return size() > PlacementPlanCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the plan cached for the key given, or null
+	 */
+	final synchronized PlacementPlan get(Key key) {
+		checkFlagsVersion();
+		PlacementPlan plan = plans.get(key);
+		if (plan != null) {
+			++hits;
+		} else {
+			++misses;
+		}
+		return plan;
+	}
+
+	final synchronized void put(Key key, PlacementPlan plan) {
+		checkFlagsVersion();
+		expungeStaleKeys();
+		if (key.flagsVersion == flagsVersion) {
+			plans.put(key, plan);
+		}
+	}
+
+	/**
+	 * Drops the plans of every Structure that has been garbage collected
+	 */
+	private void expungeStaleKeys() {
+		Iterator<Key> iterator = plans.keySet().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().structure.get() == null) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops every plan made before the block flags were last invalidated
+	 */
+	private void checkFlagsVersion() {
+		int version = BlockRotationData.getFlagsVersion();
+		if (version != flagsVersion) {
+			plans.clear();
+			flagsVersion = version;
+		}
+	}
+
+	/**
+	 * Returns the number of times a cached plan was used
+	 */
+	public final synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of times a plan had to be made
+	 */
+	public final synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of plans currently cached
+	 */
+	public final synchronized int size() {
+		expungeStaleKeys();
+		return plans.size();
+	}
+
+	public final int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Discards all cached plans; the hit and miss counts are kept
+	 */
+	public final synchronized void clear() {
+		plans.clear();
+	}
+
+	/**
+	 * Everything that determines the contents of a plan for a Structure
+	 */
+	static final class Key
+	{
+		private final WeakReference<Structure> structure;
+		private final int structureHash, layers, primitives;
+		private final Class generator;
+		private final PaletteRemap remap;
+		private final int rotations, manualRotations, offsetX, offsetY, offsetZ;
+		private final boolean removal;
+
+		/** Block flags version the plan is made with, so a plan made across an invalidate is never kept */
+		private final int flagsVersion = BlockRotationData.getFlagsVersion();
+
+		Key(Structure structure, Class generator, PaletteRemap remap, int rotations, int manualRotations, int offsetX, int offsetY, int offsetZ, boolean removal) {
+			this.structure = new WeakReference<Structure>(structure);
+			this.structureHash = System.identityHashCode(structure);
+			this.layers = structure.getLayers().size();
+			this.primitives = structure.getPrimitives().size();
+			this.generator = generator;
+			this.remap = remap;
+			this.rotations = rotations;
+			this.manualRotations = manualRotations;
+			this.offsetX = offsetX;
+			this.offsetY = offsetY;
+			this.offsetZ = offsetZ;
+			this.removal = removal;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			} else if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) obj;
+			Structure structure = this.structure.get();
+			return structure != null && structure == key.structure.get() && layers == key.layers && primitives == key.primitives && generator == key.generator && remap == key.remap
+					&& rotations == key.rotations && manualRotations == key.manualRotations
+					&& offsetX == key.offsetX && offsetY == key.offsetY && offsetZ == key.offsetZ
+					&& removal == key.removal;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = structureHash;
+			hash = 31 * hash + layers;
+			hash = 31 * hash + primitives;
+			hash = 31 * hash + generator.hashCode();
+			hash = 31 * hash + System.identityHashCode(remap);
+			hash = 31 * hash + (rotations << 2 | manualRotations);
+			hash = 31 * hash + offsetX;
+			hash = 31 * hash + offsetY;
+			hash = 31 * hash + offsetZ;
+			return 31 * hash + (removal ? 1 : 0);
+		}
+	}
+}
@@ -0,0 +1,533 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *
+ * Converts between MCEdit .schematic files (gzip-compressed NBT) and Structures. The NBT is
+ * read as a stream: only the Blocks, AddBlocks and Data arrays and the tile entities are kept,
+ * and every other tag is skipped without being built, so memory use is bounded by the size of
+ * the structure. Writing streams each array straight from the compiled layers.
+ *
+ * A schematic becomes a single layer in which every cell holds {blockID, metadata}; air is
+ * either kept as {0, 0}, so that it clears the area as it does in MCEdit, or skipped. Schematics
+ * store raw block ids, which are only correct for the world's id mapping (vanilla blocks always
+ * match). TileEntities are kept as raw NBT (see Structure.addTileEntity) and read into the
+ * tile entities at their rotated positions once the structure is generated; their contents
+ * are not rotated themselves. Entities are not imported.
+ *
+ * When writing, skipped cells become air and custom 'fake' ids that are not real blocks are
+ * written as air; negative ids are written as the block they stand for.
+ *
+ */
+public class SchematicFile
+{
+	/** NBT tag types used by schematics */
+	private static final int TAG_END = 0, TAG_BYTE = 1, TAG_SHORT = 2, TAG_INT = 3, TAG_LONG = 4,
+			TAG_FLOAT = 5, TAG_DOUBLE = 6, TAG_BYTE_ARRAY = 7, TAG_STRING = 8, TAG_LIST = 9,
+			TAG_COMPOUND = 10, TAG_INT_ARRAY = 11;
+
+	private SchematicFile() {}
+
+	/**
+	 * Reads a schematic file into a new Structure named after the file, with air kept
+	 */
+	public static Structure read(File file) throws IOException {
+		return read(file, false);
+	}
+
+	/**
+	 * Reads a schematic file into a new Structure named after the file
+	 * @param skipAir true to leave whatever is in the world where the schematic has air
+	 */
+	public static Structure read(File file, boolean skipAir) throws IOException {
+		String name = file.getName();
+		if (name.toLowerCase().endsWith(".schematic")) {
+			name = name.substring(0, name.length() - ".schematic".length());
+		}
+
+		InputStream in = new FileInputStream(file);
+		try {
+			return read(in, name, skipAir);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a gzip-compressed schematic from the stream given; the stream is not closed
+	 */
+	public static Structure read(InputStream stream, String name, boolean skipAir) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream), 65536));
+		if (in.readByte() != TAG_COMPOUND) {
+			throw new IOException("Schematic does not start with a compound tag");
+		}
+		in.readUTF();
+
+		int width = -1, height = -1, length = -1;
+		byte[] blocks = null, data = null, addBlocks = null;
+		List<byte[]> tileEntities = new ArrayList<byte[]>();
+		List<int[]> tileEntityPositions = new ArrayList<int[]>();
+
+		for (int type = in.readByte(); type != TAG_END; type = in.readByte()) {
+			String tag = in.readUTF();
+			if (type == TAG_SHORT && tag.equals("Width")) {
+				width = in.readShort() & 0xFFFF;
+			} else if (type == TAG_SHORT && tag.equals("Height")) {
+				height = in.readShort() & 0xFFFF;
+			} else if (type == TAG_SHORT && tag.equals("Length")) {
+				length = in.readShort() & 0xFFFF;
+			} else if (type == TAG_STRING && tag.equals("Materials")) {
+				String materials = in.readUTF();
+				if (!materials.equals("Alpha")) {
+					throw new IOException("Unsupported schematic materials: " + materials);
+				}
+			} else if (type == TAG_BYTE_ARRAY && tag.equals("Blocks")) {
+				blocks = readByteArray(in);
+			} else if (type == TAG_BYTE_ARRAY && tag.equals("Data")) {
+				data = readByteArray(in);
+			} else if (type == TAG_BYTE_ARRAY && tag.equals("AddBlocks")) {
+				addBlocks = readByteArray(in);
+			} else if (type == TAG_LIST && tag.equals("TileEntities")) {
+				int elementType = in.readByte();
+				int count = in.readInt();
+				for (int i = 0; i < count; ++i) {
+					if (elementType != TAG_COMPOUND) {
+						skipPayload(in, elementType);
+						continue;
+					}
+					int[] pos = new int[3];
+					tileEntities.add(readTileEntity(in, pos));
+					tileEntityPositions.add(pos);
+				}
+			} else {
+				skipPayload(in, type);
+			}
+		}
+
+		long cells = (long) width * height * length;
+		if (width < 0 || height < 0 || length < 0 || blocks == null || cells > Integer.MAX_VALUE) {
+			throw new IOException("Schematic is missing its dimensions or Blocks");
+		}
+		if (blocks.length < cells || (data != null && data.length < cells) || (addBlocks != null && addBlocks.length < (cells + 1) / 2)) {
+			throw new IOException("Schematic arrays are shorter than its dimensions");
+		}
+		BlockPalette palette = new BlockPalette();
+		int[] lookup = new int[4096 * 16];
+		int[] indices = new int[(int) cells];
+
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				for (int z = 0; z < length; ++z) {
+					int i = (y * length + z) * width + x;
+					int id = blocks[i] & 0xFF;
+					if (addBlocks != null) {
+						id |= ((i & 1) == 0 ? (addBlocks[i >> 1] >> 4) & 0xF : addBlocks[i >> 1] & 0xF) << 8;
+					}
+					int meta = (data != null ? data[i] & 0xF : 0);
+					int key = id << 4 | meta;
+					if (lookup[key] == 0) {
+						lookup[key] = (id == 0 && skipAir ? BlockPalette.EMPTY : palette.getIndex(new int[] {id, meta})) + 1;
+					}
+					indices[(y * width + x) * length + z] = lookup[key] - 1;
+				}
+			}
+		}
+
+		Structure structure = new Structure(name);
+		structure.addLayer(CompiledLayer.fromIndices(palette, height, width, length, indices));
+		int outside = 0;
+		for (int i = 0; i < tileEntities.size(); ++i) {
+			int[] pos = tileEntityPositions.get(i);
+			if (pos[0] < 0 || pos[0] >= width || pos[1] < 0 || pos[1] >= height || pos[2] < 0 || pos[2] >= length) {
+				++outside;
+			} else {
+				structure.addTileEntity(pos[0], pos[1], pos[2], tileEntities.get(i));
+			}
+		}
+		if (outside > 0) {
+			LogHelper.warning("Schematic " + name + " has " + outside + " tile entities outside of its blocks; they were not imported");
+		}
+		return structure;
+	}
+
+	/**
+	 * Reads a tile entity's compound payload, returning it as a root compound tag that
+	 * CompressedStreamTools can read, and its x, y and z tags in pos
+	 */
+	private static byte[] readTileEntity(DataInputStream in, int[] pos) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(TAG_COMPOUND);
+		out.writeUTF("");
+		copyCompound(in, out, pos, false);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Copies a compound tag's payload; unless pos is null, its x, y and z int tags are read
+	 * into pos, or replaced with the values in pos if replace is true
+	 */
+	private static void copyCompound(DataInputStream in, DataOutputStream out, int[] pos, boolean replace) throws IOException {
+		for (int type = in.readByte(); type != TAG_END; type = in.readByte()) {
+			String tag = in.readUTF();
+			out.writeByte(type);
+			out.writeUTF(tag);
+			int axis = (pos != null && type == TAG_INT && tag.length() == 1 ? "xyz".indexOf(tag.charAt(0)) : -1);
+			if (axis < 0) {
+				copyPayload(in, out, type);
+			} else if (replace) {
+				in.readInt();
+				out.writeInt(pos[axis]);
+			} else {
+				pos[axis] = in.readInt();
+				out.writeInt(pos[axis]);
+			}
+		}
+		out.writeByte(TAG_END);
+	}
+
+	/**
+	 * Copies a tag's payload unchanged
+	 */
+	private static void copyPayload(DataInputStream in, DataOutputStream out, int type) throws IOException {
+		switch(type) {
+		case TAG_BYTE: out.writeByte(in.readByte()); break;
+		case TAG_SHORT: out.writeShort(in.readShort()); break;
+		case TAG_INT: case TAG_FLOAT: out.writeInt(in.readInt()); break;
+		case TAG_LONG: case TAG_DOUBLE: out.writeLong(in.readLong()); break;
+		case TAG_BYTE_ARRAY:
+			byte[] array = readByteArray(in);
+			out.writeInt(array.length);
+			out.write(array);
+			break;
+		case TAG_INT_ARRAY:
+			int length = in.readInt();
+			if (length < 0) {
+				throw new IOException("Negative array length in schematic");
+			}
+			out.writeInt(length);
+			for (int i = 0; i < length; ++i) {
+				out.writeInt(in.readInt());
+			}
+			break;
+		case TAG_STRING: out.writeUTF(in.readUTF()); break;
+		case TAG_LIST:
+			int elementType = in.readByte();
+			int count = in.readInt();
+			out.writeByte(elementType);
+			out.writeInt(count);
+			for (int i = 0; i < count; ++i) {
+				copyPayload(in, out, elementType);
+			}
+			break;
+		case TAG_COMPOUND: copyCompound(in, out, null, false); break;
+		default:
+			throw new IOException("Unknown NBT tag type " + type + " in schematic");
+		}
+	}
+
+	private static byte[] readByteArray(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Negative array length in schematic");
+		}
+		byte[] array = new byte[length];
+		in.readFully(array);
+		return array;
+	}
+
+	/**
+	 * Skips over a tag's payload without building it
+	 */
+	private static void skipPayload(DataInputStream in, int type) throws IOException {
+		switch(type) {
+		case TAG_BYTE: skipBytes(in, 1); break;
+		case TAG_SHORT: skipBytes(in, 2); break;
+		case TAG_INT: case TAG_FLOAT: skipBytes(in, 4); break;
+		case TAG_LONG: case TAG_DOUBLE: skipBytes(in, 8); break;
+		case TAG_BYTE_ARRAY: skipBytes(in, in.readInt()); break;
+		case TAG_INT_ARRAY: skipBytes(in, 4L * in.readInt()); break;
+		case TAG_STRING: skipBytes(in, in.readUnsignedShort()); break;
+		case TAG_LIST:
+			int elementType = in.readByte();
+			int count = in.readInt();
+			for (int i = 0; i < count; ++i) {
+				skipPayload(in, elementType);
+			}
+			break;
+		case TAG_COMPOUND:
+			for (int t = in.readByte(); t != TAG_END; t = in.readByte()) {
+				skipBytes(in, in.readUnsignedShort());
+				skipPayload(in, t);
+			}
+			break;
+		default:
+			throw new IOException("Unknown NBT tag type " + type + " in schematic");
+		}
+	}
+
+	private static void skipBytes(DataInputStream in, long count) throws IOException {
+		if (count < 0) {
+			throw new IOException("Negative length in schematic");
+		}
+		while (count > 0) {
+			long skipped = in.skip(count);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new EOFException();
+				}
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+
+	/**
+	 * Writes the structure as a gzip-compressed schematic, replacing any existing file
+	 */
+	public static void write(Structure structure, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			write(structure, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the structure as a gzip-compressed schematic to the stream given; the stream is
+	 * not closed. Layers are stacked bottom up and centered on each other, as when generated;
+	 * primitives (see Structure.addFill) are not written.
+	 */
+	public static void write(Structure structure, OutputStream stream) throws IOException {
+		if (!structure.getPrimitives().isEmpty()) {
+			LogHelper.warning("Structure " + structure.name + " has " + structure.getPrimitives().size() + " fills or repeats, which are not written to schematics");
+		}
+
+		Grid grid = new Grid(structure.getLayers());
+		GZIPOutputStream gzip = new GZIPOutputStream(stream);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip, 65536));
+
+		writeTag(out, TAG_COMPOUND, "Schematic");
+		writeTag(out, TAG_SHORT, "Width");
+		out.writeShort(grid.width);
+		writeTag(out, TAG_SHORT, "Height");
+		out.writeShort(grid.height);
+		writeTag(out, TAG_SHORT, "Length");
+		out.writeShort(grid.length);
+		writeTag(out, TAG_STRING, "Materials");
+		out.writeUTF("Alpha");
+
+		int cells = grid.width * grid.height * grid.length, invalid = 0;
+		writeTag(out, TAG_BYTE_ARRAY, "Blocks");
+		out.writeInt(cells);
+		for (int i = 0; i < cells; ++i) {
+			int id = grid.getBlockID(i);
+			if (id < 0) {
+				++invalid;
+			}
+			out.writeByte(Math.max(0, id) & 0xFF);
+		}
+
+		writeTag(out, TAG_BYTE_ARRAY, "Data");
+		out.writeInt(cells);
+		for (int i = 0; i < cells; ++i) {
+			out.writeByte(grid.getMetadata(i));
+		}
+
+		if (grid.hasAddBlocks()) {
+			writeTag(out, TAG_BYTE_ARRAY, "AddBlocks");
+			out.writeInt((cells + 1) / 2);
+			for (int i = 0; i < cells; i += 2) {
+				int high = Math.max(0, grid.getBlockID(i)) >> 8;
+				int low = (i + 1 < cells ? Math.max(0, grid.getBlockID(i + 1)) >> 8 : 0);
+				out.writeByte(high << 4 | low);
+			}
+		}
+
+		writeTag(out, TAG_LIST, "Entities");
+		out.writeByte(TAG_COMPOUND);
+		out.writeInt(0);
+		writeTileEntities(out, structure, grid);
+		out.writeByte(TAG_END);
+
+		out.flush();
+		gzip.finish();
+
+		if (invalid > 0) {
+			LogHelper.warning("Wrote " + invalid + " blocks with ids that are not real blocks as air");
+		}
+	}
+
+	/**
+	 * Writes the structure's tile entities with their x, y and z moved to schematic coordinates
+	 */
+	private static void writeTileEntities(DataOutputStream out, Structure structure, Grid grid) throws IOException {
+		List<TileEntityData> inside = new ArrayList<TileEntityData>();
+		List<int[]> positions = new ArrayList<int[]>();
+		for (TileEntityData data : structure.getTileEntities()) {
+			int y = data.getPosY();
+			if (y < 0 || y >= grid.height) {
+				continue;
+			}
+			int x = data.getPosX() - grid.shiftX[y], z = data.getPosZ() - grid.shiftZ[y];
+			if (x >= 0 && x < grid.width && z >= 0 && z < grid.length) {
+				inside.add(data);
+				positions.add(new int[] {x, y, z});
+			}
+		}
+		if (inside.size() < structure.getTileEntities().size()) {
+			LogHelper.warning("Structure " + structure.name + " has " + (structure.getTileEntities().size() - inside.size()) + " tile entities outside of its layers, which are not written");
+		}
+
+		writeTag(out, TAG_LIST, "TileEntities");
+		out.writeByte(TAG_COMPOUND);
+		out.writeInt(inside.size());
+		for (int i = 0; i < inside.size(); ++i) {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(inside.get(i).getNBT()));
+			if (in.readByte() != TAG_COMPOUND) {
+				throw new IOException("Tile entity data is not a compound tag");
+			}
+			in.readUTF();
+			copyCompound(in, out, positions.get(i), true);
+		}
+	}
+
+	private static void writeTag(DataOutputStream out, int type, String name) throws IOException {
+		out.writeByte(type);
+		out.writeUTF(name);
+	}
+
+	/**
+	 * Maps schematic indices, (y * length + z) * width + x, onto the structure's layers
+	 */
+	private static final class Grid
+	{
+		private final int width, height, length;
+
+		/** Layer and y within that layer for each schematic y */
+		private final CompiledLayer[] layerAt;
+		private final int[] layerY;
+
+		/** Amount to add to a schematic x or z to get the x or z within each layer */
+		private final int[] shiftX, shiftZ;
+
+		private Grid(List<CompiledLayer> layers) {
+			int minX = 0, maxX = -1, minZ = 0, maxZ = -1, total = 0;
+			for (CompiledLayer layer : layers) {
+				int centerX = layer.getWidthX() / 2, centerZ = layer.getWidthZ() / 2;
+				minX = Math.min(minX, -centerX);
+				maxX = Math.max(maxX, layer.getMaxX() - 1 - centerX);
+				minZ = Math.min(minZ, -centerZ);
+				maxZ = Math.max(maxZ, layer.getMaxZ() - 1 - centerZ);
+				total += layer.getHeight();
+			}
+
+			width = maxX - minX + 1;
+			length = maxZ - minZ + 1;
+			height = total;
+			if (width > 0xFFFF || length > 0xFFFF || height > 0xFFFF) {
+				throw new IllegalArgumentException("Structure is too large for a schematic");
+			}
+
+			layerAt = new CompiledLayer[height];
+			layerY = new int[height];
+			shiftX = new int[height];
+			shiftZ = new int[height];
+			int y = 0;
+			for (CompiledLayer layer : layers) {
+				for (int ly = 0; ly < layer.getHeight(); ++ly, ++y) {
+					layerAt[y] = layer;
+					layerY[y] = ly;
+					shiftX[y] = minX + layer.getWidthX() / 2;
+					shiftZ[y] = minZ + layer.getWidthZ() / 2;
+				}
+			}
+		}
+
+		/**
+		 * Returns true if any layer's palette has a block id above 255
+		 */
+		private boolean hasAddBlocks() {
+			for (CompiledLayer layer : layerAt) {
+				BlockPalette palette = layer.getPalette();
+				for (int i = 0; i < palette.size(); ++i) {
+					if (!palette.isSkipped(i) && getRealID(palette.getBlockID(i)) > 255) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Returns the palette index at schematic index i, or -1 if no layer has a cell there
+		 */
+		private int getPaletteIndex(int i) {
+			int x = i % width, z = (i / width) % length, y = i / (width * length);
+			CompiledLayer layer = layerAt[y];
+			int ly = layerY[y], lx = x + shiftX[y], lz = z + shiftZ[y];
+			if (lx < 0 || lx >= layer.getLengthX(ly) || lz < 0 || lz >= layer.getLengthZ(ly, lx)) {
+				return -1;
+			}
+			int index = layer.getPaletteIndex(ly, lx, lz);
+			return layer.getPalette().isSkipped(index) ? -1 : index;
+		}
+
+		/**
+		 * Returns the block id at schematic index i, 0 for air, or -1 if it is a custom id
+		 */
+		private int getBlockID(int i) {
+			int index = getPaletteIndex(i);
+			return index < 0 ? 0 : getRealID(layerAt[i / (width * length)].getPalette().getBlockID(index));
+		}
+
+		private int getMetadata(int i) {
+			int index = getPaletteIndex(i);
+			return index < 0 || getBlockID(i) <= 0 ? 0 : layerAt[i / (width * length)].getPalette().getMetadata(index) & 0xF;
+		}
+
+		/**
+		 * Returns the real block id for a blockArray id, or -1 if it is a custom id
+		 */
+		private static int getRealID(int id) {
+			id = Math.abs(id);
+			return id >= 0 && id <= 4095 ? id : -1;
+		}
+	}
+}
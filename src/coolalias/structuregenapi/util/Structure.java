@@ -17,8 +17,8 @@
 
 package structuregenapi.util;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Structure
@@ -26,8 +26,17 @@ public class Structure
 	/** The name of this structure */
 	public final String name;
 
-	/** The List of all blockArray layers necessary to complete the structure */
-	private final List<int[][][][]> blockArrayList = new LinkedList();
+	/** Palette of unique block tuples shared by all of this structure's layers */
+	private final BlockPalette palette = new BlockPalette();
+
+	/** The List of all compiled layers necessary to complete the structure */
+	private final List<CompiledLayer> layers = new ArrayList<CompiledLayer>();
+
+	/** Fills, hollow boxes and repeated layers, generated before the layers */
+	private final List<StructurePrimitive> primitives = new ArrayList<StructurePrimitive>();
+
+	/** Saved tile entity contents, restored once the structure has been generated */
+	private final List<TileEntityData> tileEntities = new ArrayList<TileEntityData>();
 
 	/** Stores the direction this structure faces. Default is EAST.*/
 	private int facing = StructureGeneratorBase.EAST;
@@ -50,10 +59,31 @@ public class Structure
 	}
 
 	/**
-	 * Returns the blockArray List for this structure
+	 * Returns a newly built, unmodifiable blockArray List for this structure. Each call decodes
+	 * the compiled layers into fresh arrays, so use getLayers() when only reading the data.
+	 * NOTE: this no longer returns the structure's own list; changing the arrays returned does
+	 * not change the structure, so use addBlockArray (or a new Structure) to add layers.
 	 */
 	public final List<int[][][][]> blockArrayList() {
-		return this.blockArrayList;
+		List<int[][][][]> list = new ArrayList<int[][][][]>(layers.size());
+		for (CompiledLayer layer : layers) {
+			list.add(layer.toBlockArray());
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Returns the compiled layers for this structure, from the bottom up
+	 */
+	public final List<CompiledLayer> getLayers() {
+		return Collections.unmodifiableList(this.layers);
+	}
+
+	/**
+	 * Returns the palette shared by this structure's layers
+	 */
+	public final BlockPalette getPalette() {
+		return this.palette;
 	}
 
 	/**
@@ -72,31 +102,114 @@ public class Structure
 	}
 
 	/**
-	 * Adds a block array 'layer' to the list to be generated
+	 * Compiles a block array 'layer' and adds it to the list to be generated.
+	 * The array is not referenced afterwards, so it may be discarded or reused.
+	 * @throws IllegalStateException if the structure has been scheduled and the array uses new tuples
 	 */
 	public final void addBlockArray(int blocks[][][][]) {
-		this.blockArrayList.add(blocks);
+		this.layers.add(CompiledLayer.compile(blocks, palette));
 	}
 
 	/**
-	 * Adds all elements contained in the parameter list to the structure
+	 * Compiles and adds all elements contained in the parameter list to the structure
 	 */
 	public final void addBlockArrayList(List<int[][][][]> list) {
-		this.blockArrayList.addAll(list);
+		for (int[][][][] blocks : list) {
+			addBlockArray(blocks);
+		}
+	}
+
+	/**
+	 * Adds an already compiled layer to the structure; the layer keeps its own palette
+	 */
+	public final void addLayer(CompiledLayer layer) {
+		this.layers.add(layer);
+	}
+
+	/**
+	 * Fills the box between the corners given, inclusive, with a single tuple such as {blockID, meta}.
+	 * Coordinates are blockArray indices, [y][x][z], with y counted from the bottom of the first
+	 * layer; the box may extend beyond the layers. Generated as one bulk operation.
+	 */
+	public final void addFill(int x1, int y1, int z1, int x2, int y2, int z2, int[] tuple) {
+		primitives.add(new StructurePrimitive(StructurePrimitive.Type.FILL, x1, y1, z1, x2, y2, z2, tuple, null));
+	}
+
+	/**
+	 * Sets the faces of the box between the corners given to the tuple, e.g. for solid walls,
+	 * floor and ceiling, and the inside to the interior tuple, or leaves the inside alone if null
+	 */
+	public final void addHollowBox(int x1, int y1, int z1, int x2, int y2, int z2, int[] tuple, int[] interior) {
+		primitives.add(new StructurePrimitive(StructurePrimitive.Type.HOLLOW_BOX, x1, y1, z1, x2, y2, z2, tuple, interior));
+	}
+
+	/**
+	 * Compiles a blockArray and places it 'count' times, the first with its bottom at y and
+	 * each further copy strideY higher, e.g. identical floors of a tower. The blockArray is
+	 * only stored and planned once.
+	 */
+	public final void addRepeatedBlockArray(int blocks[][][][], int y, int count, int strideY) {
+		primitives.add(new StructurePrimitive(CompiledLayer.compile(blocks, palette), y, count, strideY));
+	}
+
+	/**
+	 * Adds an already created primitive, e.g. one read from a file
+	 */
+	final void addPrimitive(StructurePrimitive primitive) {
+		primitives.add(primitive);
+	}
+
+	/**
+	 * Returns the fills, hollow boxes and repeated layers of this structure, in the order added
+	 */
+	public final List<StructurePrimitive> getPrimitives() {
+		return Collections.unmodifiableList(this.primitives);
+	}
+
+	/**
+	 * Adds saved tile entity contents, e.g. a chest's items, to be read into the tile entity at
+	 * x/y/z once the structure has been generated. Coordinates are blockArray indices, [y][x][z],
+	 * with y counted from the bottom of the first layer and x and z within the layer holding y.
+	 * @param nbt the tile entity's compound tag, as written by CompressedStreamTools.write
+	 */
+	public final void addTileEntity(int x, int y, int z, byte[] nbt) {
+		tileEntities.add(new TileEntityData(x, y, z, nbt));
+	}
+
+	/**
+	 * Returns the saved tile entity contents of this structure, in the order added
+	 */
+	public final List<TileEntityData> getTileEntities() {
+		return Collections.unmodifiableList(this.tileEntities);
+	}
+
+	/**
+	 * Returns a new structure made of this one's layers with the changes in the diff applied.
+	 * The variant shares this structure's compiled data and only stores the changed cells;
+	 * see StructureDiff. Facing, offsets, primitives and tile entities are copied.
+	 */
+	public final Structure createVariant(String name, StructureDiff diff) {
+		Structure variant = new Structure(name);
+		variant.layers.addAll(diff.apply(layers));
+		variant.primitives.addAll(primitives);
+		variant.tileEntities.addAll(tileEntities);
+		variant.facing = facing;
+		variant.setStructureOffset(offsetX, offsetY, offsetZ);
+		return variant;
 	}
 
 	/**
 	 * Returns lowest structure layer's width along the x axis or 0 if no structure has been added
 	 */
 	public final int getWidthX() {
-		return blockArrayList.size() > 0 ? blockArrayList.get(0)[0].length : 0;
+		return layers.size() > 0 ? layers.get(0).getWidthX() : 0;
 	}
 
 	/**
 	 * Returns lowest structure layer's width along the z axis or 0 if no structure has been set
 	 */
 	public final int getWidthZ() {
-		return blockArrayList != null ? blockArrayList.get(0)[0][0].length : 0;
+		return layers.size() > 0 ? layers.get(0).getWidthZ() : 0;
 	}
 
 	/**
@@ -104,16 +217,90 @@ public class Structure
 	 */
 	public final int getHeight() {
 		int sum = 0;
-		Iterator<int[][][][]> iterator = this.blockArrayList.iterator();
-
-		while (iterator.hasNext()) {
-			int[][][][] blockArray = iterator.next();
-			sum += blockArray.length;
+		for (CompiledLayer layer : layers) {
+			sum += layer.getHeight();
+		}
+		for (StructurePrimitive primitive : primitives) {
+			sum = Math.max(sum, primitive.getMaxY() + 1);
 		}
 
 		return sum;
 	}
 
+	/**
+	 * Returns an approximation of the heap memory used by this structure's layers and palettes.
+	 * Layers read from a memory-mapped file only count their headers; see getMappedSizeInBytes.
+	 */
+	public final long getSizeInBytes() {
+		long bytes = 64L + palette.getSizeInBytes();
+		for (CompiledLayer layer : layers) {
+			bytes += layer.getSizeInBytes();
+			if (layer.getPalette() != palette) {
+				bytes += layer.getPalette().getSizeInBytes();
+			}
+		}
+		for (StructurePrimitive primitive : primitives) {
+			bytes += primitive.getSizeInBytes();
+		}
+		for (TileEntityData data : tileEntities) {
+			bytes += 32L + data.getNBT().length;
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of bytes of this structure's layers used straight from a memory-mapped
+	 * file, such as one loaded with StructureFile.read(File), rather than copied onto the heap
+	 */
+	public final long getMappedSizeInBytes() {
+		long bytes = 0;
+		for (CompiledLayer layer : layers) {
+			bytes += layer.getMappedSizeInBytes();
+		}
+		for (StructurePrimitive primitive : primitives) {
+			bytes += primitive.getMappedSizeInBytes();
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Hash of the facing, offsets, layers, primitives and tile entities; layers cache their own hash, so this is cheap.
+	 * Changes if the structure is modified, so do not modify a structure used as a key.
+	 */
+	@Override
+	public int hashCode() {
+		int hash = facing;
+		hash = 31 * hash + offsetX;
+		hash = 31 * hash + offsetY;
+		hash = 31 * hash + offsetZ;
+		for (CompiledLayer layer : layers) {
+			hash = 31 * hash + layer.hashCode();
+		}
+		hash = 31 * hash + primitives.hashCode();
+		return 31 * hash + tileEntities.hashCode();
+	}
+
+	/**
+	 * Returns true if the object is a structure with the same facing, offsets, layers, primitives
+	 * and tile entities, i.e. one that generates exactly the same blocks; the name is not compared
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof Structure)) {
+			return false;
+		}
+
+		Structure structure = (Structure) obj;
+		return facing == structure.facing && offsetX == structure.offsetX && offsetY == structure.offsetY
+				&& offsetZ == structure.offsetZ && layers.equals(structure.layers) && primitives.equals(structure.primitives)
+				&& tileEntities.equals(structure.tileEntities);
+	}
+
 	/**
 	 * Returns the structure's offset for the x axis
 	 */
@@ -0,0 +1,370 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * A single file holding many Structures in the StructureFile format, with a table of contents
+ * giving the offset, length and CRC32 checksum of each entry by name. The archive is mapped
+ * into memory when opened and only the table of contents is read; each entry is decoded the
+ * first time it is requested with get(name), or all at once on a fork-join pool with loadAll().
+ *
+ * Format, all values big-endian:
+ *
+ *	int		MAGIC, int VERSION, int number of entries
+ *	for each entry: int name length in bytes, the name in UTF-8, long offset from the start
+ *			of the file, int length, long CRC32 of the entry's bytes
+ *	the entries, each starting on a multiple of 8 bytes
+ *
+ * Entries are decoded with StructureFile, so decoded structures read their cells straight
+ * from the mapped archive. Archives may be read from any number of threads at once.
+ *
+ */
+public class StructureArchive
+{
+	/** Identifies an archive file: "SGAP" */
+	public static final int MAGIC = 0x53474150;
+
+	/** Current version of the format */
+	public static final int VERSION = 1;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** The whole archive, mapped read-only; never modified, only duplicated */
+	private final ByteBuffer buffer;
+
+	/** Table of contents, in the order the entries were written */
+	private final Map<String, Entry> entries;
+
+	/** Structures decoded so far */
+	private final Map<String, Structure> loaded = new ConcurrentHashMap<String, Structure>();
+
+	/** Number of entries decoded and total time spent decoding them, in nanoseconds */
+	private final AtomicLong decodeCount = new AtomicLong(), decodeTime = new AtomicLong();
+
+	/** Time taken to open the archive and read the table of contents, in nanoseconds */
+	private final long openTime;
+
+	private StructureArchive(ByteBuffer buffer, Map<String, Entry> entries, long openTime) {
+		this.buffer = buffer;
+		this.entries = entries;
+		this.openTime = openTime;
+	}
+
+	/**
+	 * Writes an archive containing each structure under the name it is mapped to,
+	 * replacing any existing file
+	 */
+	public static void write(File file, Map<String, Structure> structures) throws IOException {
+		List<String> names = new ArrayList<String>(structures.keySet());
+		List<byte[]> data = new ArrayList<byte[]>(names.size());
+		int tocSize = 12;
+		for (String name : names) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			StructureFile.write(structures.get(name), bytes);
+			data.add(bytes.toByteArray());
+			tocSize += 4 + name.getBytes(UTF_8).length + 20;
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(names.size());
+			long offset = align(tocSize);
+			for (int i = 0; i < names.size(); ++i) {
+				byte[] name = names.get(i).getBytes(UTF_8);
+				byte[] entry = data.get(i);
+				CRC32 crc = new CRC32();
+				crc.update(entry);
+				out.writeInt(name.length);
+				out.write(name);
+				out.writeLong(offset);
+				out.writeInt(entry.length);
+				out.writeLong(crc.getValue());
+				offset = align(offset + entry.length);
+			}
+
+			for (byte[] entry : data) {
+				while (out.size() % 8 != 0) {
+					out.writeByte(0);
+				}
+				out.write(entry);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/**
+	 * Opens an archive by mapping it into memory and reading its table of contents.
+	 * The file should not be modified while the archive or its structures are in use.
+	 */
+	public static StructureArchive open(File file) throws IOException {
+		long start = System.nanoTime();
+		ByteBuffer buffer;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+
+		ByteBuffer in = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		try {
+			if (in.getInt() != MAGIC) {
+				throw new IOException("Not a structure archive: " + file);
+			}
+			int version = in.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported structure archive version " + version + ": " + file);
+			}
+
+			int count = in.getInt();
+			if (count < 0 || count > in.remaining()) {
+				throw new IOException("Structure archive table of contents is corrupt: " + file);
+			}
+			for (int i = 0; i < count; ++i) {
+				int length = in.getInt();
+				if (length < 0 || length > in.remaining()) {
+					throw new IOException("Structure archive table of contents is corrupt: " + file);
+				}
+				byte[] name = new byte[length];
+				in.get(name);
+				Entry entry = new Entry(in.getLong(), in.getInt(), in.getLong());
+				if (entry.offset < 0 || entry.length < 0 || entry.offset + entry.length > buffer.capacity()) {
+					throw new IOException("Structure archive entry is out of bounds: " + file);
+				}
+				entries.put(new String(name, UTF_8), entry);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Structure archive is truncated: " + file);
+		}
+
+		long openTime = System.nanoTime() - start;
+		LogHelper.info("Opened structure archive " + file.getName() + " with " + entries.size() + " entries in " + (openTime / 1000000.0F) + "ms");
+
+		return new StructureArchive(buffer, Collections.unmodifiableMap(entries), openTime);
+	}
+
+	/**
+	 * Returns the names of all entries, in the order they were written
+	 */
+	public final Set<String> getNames() {
+		return entries.keySet();
+	}
+
+	public final boolean contains(String name) {
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * Returns the number of entries in the archive
+	 */
+	public final int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the structure stored under the name given, decoding it if it has not been
+	 * decoded yet, or null if there is no such entry
+	 * @throws IOException if the entry's checksum does not match or it cannot be decoded
+	 */
+	public final Structure get(String name) throws IOException {
+		Structure structure = loaded.get(name);
+		if (structure == null) {
+			Entry entry = entries.get(name);
+			if (entry == null) {
+				return null;
+			}
+			structure = decode(name, entry);
+			loaded.put(name, structure);
+		}
+
+		return structure;
+	}
+
+	/**
+	 * Decodes the structure stored under the name given without keeping it in the archive,
+	 * or returns null if there is no such entry; see StructureRegistry
+	 * @throws IOException if the entry's checksum does not match or it cannot be decoded
+	 */
+	public final Structure read(String name) throws IOException {
+		Entry entry = entries.get(name);
+		return entry != null ? decode(name, entry) : null;
+	}
+
+	/**
+	 * Decodes every entry not yet decoded in parallel, on a new fork-join pool using every
+	 * available processor. Entries that fail to decode are logged and skipped.
+	 * @return the time taken, in milliseconds
+	 */
+	public final long loadAll() {
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			return loadAll(pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * As above, using the pool given
+	 */
+	public final long loadAll(ForkJoinPool pool) {
+		long start = System.nanoTime();
+		List<String> names = new ArrayList<String>();
+		for (String name : entries.keySet()) {
+			if (!loaded.containsKey(name)) {
+				names.add(name);
+			}
+		}
+
+		pool.invoke(new DecodeTask(names, 0, names.size()));
+		long elapsed = (System.nanoTime() - start) / 1000000L;
+		LogHelper.info("Decoded " + names.size() + " structures in " + elapsed + "ms on " + pool.getParallelism() + " threads");
+
+		return elapsed;
+	}
+
+	/**
+	 * Returns the number of entries decoded so far
+	 */
+	public final long getDecodeCount() {
+		return decodeCount.get();
+	}
+
+	/**
+	 * Returns the total time spent decoding entries so far, summed over all threads, in milliseconds
+	 */
+	public final long getDecodeMillis() {
+		return decodeTime.get() / 1000000L;
+	}
+
+	/**
+	 * Returns the time taken to open the archive and read its table of contents, in milliseconds
+	 */
+	public final float getOpenMillis() {
+		return openTime / 1000000.0F;
+	}
+
+	private Structure decode(String name, Entry entry) throws IOException {
+		long start = System.nanoTime();
+		ByteBuffer data = buffer.duplicate();
+		data.position((int) entry.offset);
+		data.limit((int) entry.offset + entry.length);
+		data = data.slice();
+
+		CRC32 crc = new CRC32();
+		ByteBuffer check = data.duplicate();
+		byte[] chunk = new byte[Math.min(8192, entry.length)];
+		while (check.hasRemaining()) {
+			int n = Math.min(chunk.length, check.remaining());
+			check.get(chunk, 0, n);
+			crc.update(chunk, 0, n);
+		}
+		if (crc.getValue() != entry.checksum) {
+			throw new IOException("Checksum mismatch for structure archive entry " + name);
+		}
+
+		Structure structure = StructureFile.read(data);
+		decodeTime.addAndGet(System.nanoTime() - start);
+		decodeCount.incrementAndGet();
+
+		return structure;
+	}
+
+	/**
+	 * Location of a single entry in the archive
+	 */
+	private static final class Entry
+	{
+		private final long offset;
+		private final int length;
+		private final long checksum;
+
+		private Entry(long offset, int length, long checksum) {
+			this.offset = offset;
+			this.length = length;
+			this.checksum = checksum;
+		}
+	}
+
+	/**
+	 * Decodes a range of entries, splitting it in half until it is small enough
+	 */
+	private final class DecodeTask extends RecursiveAction
+	{
+		private static final int THRESHOLD = 4;
+		private final List<String> names;
+		private final int from, to;
+
+		private DecodeTask(List<String> names, int from, int to) {
+			this.names = names;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= THRESHOLD) {
+				for (int i = from; i < to; ++i) {
+					String name = names.get(i);
+					try {
+						loaded.put(name, decode(name, entries.get(name)));
+					} catch (IOException e) {
+						LogHelper.severe("Failed to decode structure archive entry " + name + ": " + e.getMessage());
+					}
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new DecodeTask(names, from, mid), new DecodeTask(names, mid, to));
+			}
+		}
+	}
+}
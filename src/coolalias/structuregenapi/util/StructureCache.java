@@ -0,0 +1,259 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *
+ * Keeps compiled structures in a directory on disk so that blockArrays only need to be compiled
+ * the first time a server starts. Each compiled structure is stored as a StructureFile named after
+ * a SHA-1 hash of its name, its blockArrays and BlockRotationData.getRegistryHash(), so any change
+ * to the arrays or to the block registry simply produces a new file and the old one is no longer
+ * used. Cached structures are memory-mapped rather than recompiled.
+ *
+ * Call logStatistics() once startup is done to report how many structures came from the cache,
+ * and removeUnused() to delete files that were not used since the cache was created.
+ *
+ */
+public class StructureCache
+{
+	/** Changed whenever the compiled form changes, so that older files are not used */
+	private static final int CACHE_VERSION = StructureFile.VERSION;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String EXTENSION = ".sgas";
+
+	private final File dir;
+
+	/** Block registry checksum, computed on first use and again after BlockRotationData.invalidate */
+	private Long registryHash = null;
+
+	/** BlockRotationData.getFlagsVersion when registryHash was computed */
+	private int registryVersion;
+
+	/** Names of the files used since this cache was created */
+	private final Set<String> used = new HashSet<String>();
+
+	/** Number of structures loaded from the cache and number compiled */
+	private int hits = 0, misses = 0;
+
+	public StructureCache(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Returns the structure compiled from a single blockArray; see below
+	 */
+	public final Structure getStructure(String name, int[][][][] blocks) {
+		return getStructure(name, Arrays.asList(new int[][][][][] {blocks}));
+	}
+
+	/**
+	 * Returns the structure compiled from the blockArrays given, from the bottom layer up,
+	 * loading it from the cache if it has been compiled before. The structure's facing and
+	 * offsets are the defaults and may be set on the returned structure as usual.
+	 */
+	public final Structure getStructure(String name, List<int[][][][]> blockArrays) {
+		String key = getKey(name, blockArrays);
+		File file = new File(dir, key + EXTENSION);
+		synchronized (this) {
+			used.add(file.getName());
+		}
+
+		if (file.isFile()) {
+			try {
+				Structure structure = StructureFile.read(file);
+				synchronized (this) {
+					++hits;
+				}
+				LogHelper.fine("Loaded structure " + name + " from cache file " + file.getName());
+				return structure;
+			} catch (IOException e) {
+				LogHelper.warning("Discarding unreadable structure cache file " + file.getName() + ": " + e.getMessage());
+				file.delete();
+			}
+		}
+
+		Structure structure = new Structure(name);
+		structure.addBlockArrayList(blockArrays);
+		synchronized (this) {
+			++misses;
+		}
+		save(structure, file);
+		LogHelper.fine("Compiled structure " + name + " into cache file " + file.getName());
+
+		return structure;
+	}
+
+	/**
+	 * Writes the structure to a temporary file first, so that a partly written file is never used
+	 */
+	private void save(Structure structure, File file) {
+		File temp = null;
+		try {
+			dir.mkdirs();
+			temp = File.createTempFile("structure", ".tmp", dir);
+			StructureFile.write(structure, temp);
+			if (!temp.renameTo(file) && !file.isFile()) {
+				throw new IOException("could not rename " + temp.getName());
+			}
+		} catch (IOException e) {
+			LogHelper.warning("Failed to write structure cache file " + file.getName() + ": " + e.getMessage());
+		} finally {
+			if (temp != null && temp.exists()) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of structures loaded from the cache so far
+	 */
+	public final synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of structures that had to be compiled so far
+	 */
+	public final synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Logs the number of structures loaded from the cache and the number compiled
+	 */
+	public final synchronized void logStatistics() {
+		LogHelper.info("Structure cache: " + hits + " structures loaded from cache, " + misses + " recompiled");
+	}
+
+	/**
+	 * Deletes every cached structure not requested since this cache was created
+	 * @return the number of files deleted
+	 */
+	public final synchronized int removeUnused() {
+		File[] files = dir.listFiles();
+		int removed = 0;
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(EXTENSION) && !used.contains(file.getName()) && file.delete()) {
+					++removed;
+				}
+			}
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Returns the hex SHA-1 of everything the compiled structure depends on
+	 */
+	private String getKey(String name, List<int[][][][]> blockArrays) {
+		long registry;
+		synchronized (this) {
+			int version = BlockRotationData.getFlagsVersion();
+			if (registryHash == null || registryVersion != version) {
+				registryHash = BlockRotationData.getRegistryHash();
+				registryVersion = version;
+			}
+			registry = registryHash;
+		}
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		Hasher hasher = new Hasher(digest);
+		hasher.putInt(CACHE_VERSION);
+		hasher.putInt((int)(registry >>> 32));
+		hasher.putInt((int) registry);
+		byte[] bytes = name.getBytes(UTF_8);
+		hasher.putInt(bytes.length);
+		for (byte b : bytes) {
+			hasher.putInt(b);
+		}
+
+		hasher.putInt(blockArrays.size());
+		for (int[][][][] blocks : blockArrays) {
+			hasher.putInt(blocks.length);
+			for (int[][][] y : blocks) {
+				hasher.putInt(y.length);
+				for (int[][] x : y) {
+					hasher.putInt(x.length);
+					for (int[] z : x) {
+						if (z == null) {
+							hasher.putInt(-1);
+							continue;
+						}
+						hasher.putInt(z.length);
+						for (int value : z) {
+							hasher.putInt(value);
+						}
+					}
+				}
+			}
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : hasher.finish()) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+
+		return hex.toString();
+	}
+
+	/**
+	 * Feeds ints to a digest through a buffer, rather than one call per value
+	 */
+	private static final class Hasher
+	{
+		private final MessageDigest digest;
+		private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+		private Hasher(MessageDigest digest) {
+			this.digest = digest;
+		}
+
+		private void putInt(int value) {
+			if (buffer.remaining() < 4) {
+				digest.update(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+			buffer.putInt(value);
+		}
+
+		private byte[] finish() {
+			digest.update(buffer.array(), 0, buffer.position());
+			return digest.digest();
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * Tool that converts the int[][][][] fields of every class annotated with StructureHolder into
+ * StructureFile resources, and writes an accessor class for each holder that loads those
+ * resources on first use. Large literals can then stay out of the mod's jar entirely: no huge
+ * static initializers, no 64KB method limit, and nothing loaded until needed.
+ *
+ * The convertStructures task in build.gradle runs it over the holders in src/structures/java
+ * before the mod is compiled, writing into build/generated/structures, which the main source set
+ * compiles and packages; the holder classes themselves are not part of the mod. It can also be
+ * run by hand, with the API and the holders' compiled classes on the classpath:
+ *
+ *	java structuregenapi.util.StructureCompiler <resource dir> <source dir> <holder class dir>...
+ *
+ * For a holder mod.HutArrays with a field blockArrayHut, this writes the resource
+ * structures/mod/HutArrays/blockArrayHut.sgas and the class mod.HutArraysResources, whose
+ * static method blockArrayHut() returns the Structure (with a single layer).
+ *
+ */
+public class StructureCompiler
+{
+	private final File resourceDir, sourceDir;
+
+	/** Total size of the holder class files and of the resources written */
+	private long classBytes = 0, resourceBytes = 0;
+
+	public StructureCompiler(File resourceDir, File sourceDir) {
+		this.resourceDir = resourceDir;
+		this.sourceDir = sourceDir;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: StructureCompiler <resource dir> <source dir> <holder class dir>...");
+			System.exit(1);
+		}
+
+		StructureCompiler compiler = new StructureCompiler(new File(args[0]), new File(args[1]));
+		int holders = 0;
+		for (int i = 2; i < args.length; ++i) {
+			File dir = new File(args[i]);
+			List<String> names = new ArrayList<String>();
+			findClasses(dir, "", names);
+			for (String name : names) {
+				Class<?> clazz = Class.forName(name, false, StructureCompiler.class.getClassLoader());
+				if (clazz.isAnnotationPresent(StructureHolder.class)) {
+					compiler.compile(clazz, new File(dir, name.replace('.', File.separatorChar) + ".class"));
+					++holders;
+				}
+			}
+		}
+
+		System.out.println("Converted " + holders + " structure holders: " + compiler.classBytes + " bytes of classes to " + compiler.resourceBytes + " bytes of resources");
+	}
+
+	private static void findClasses(File dir, String prefix, List<String> names) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			if (file.isDirectory()) {
+				findClasses(file, prefix + file.getName() + ".", names);
+			} else if (file.getName().endsWith(".class")) {
+				names.add(prefix + file.getName().substring(0, file.getName().length() - ".class".length()));
+			}
+		}
+	}
+
+	/**
+	 * Converts every static int[][][][] field of the holder class, which is initialized here
+	 */
+	public final void compile(Class<?> holder, File classFile) throws IOException, IllegalAccessException {
+		String packageName = (holder.getPackage() != null ? holder.getPackage().getName() : "");
+		String holderName = holder.getName().substring(packageName.isEmpty() ? 0 : packageName.length() + 1).replace('$', '_');
+		String accessor = holder.getAnnotation(StructureHolder.class).accessor();
+		if (accessor.isEmpty()) {
+			accessor = holderName + "Resources";
+		}
+
+		String resourcePath = "structures/" + (packageName.isEmpty() ? "" : packageName.replace('.', '/') + "/") + holderName + "/";
+		File dir = new File(resourceDir, resourcePath.replace('/', File.separatorChar));
+		dir.mkdirs();
+
+		List<String> fields = new ArrayList<String>();
+		for (Field field : holder.getDeclaredFields()) {
+			if (!Modifier.isStatic(field.getModifiers()) || field.getType() != int[][][][].class) {
+				continue;
+			}
+
+			field.setAccessible(true);
+			int[][][][] blocks = (int[][][][]) field.get(null);
+			if (blocks == null) {
+				LogHelper.warning("Skipping null blockArray " + holder.getName() + "." + field.getName());
+				continue;
+			}
+
+			Structure structure = new Structure(field.getName());
+			structure.addBlockArray(blocks);
+			File file = new File(dir, field.getName() + ".sgas");
+			StructureFile.write(structure, file);
+			resourceBytes += file.length();
+			fields.add(field.getName());
+		}
+
+		classBytes += classFile.length();
+		writeAccessor(packageName, accessor, holder.getName(), resourcePath, fields);
+	}
+
+	private void writeAccessor(String packageName, String accessor, String holder, String resourcePath, List<String> fields) throws IOException {
+		File dir = new File(sourceDir, packageName.replace('.', File.separatorChar));
+		dir.mkdirs();
+
+		StringBuilder out = new StringBuilder();
+		if (!packageName.isEmpty()) {
+			out.append("package ").append(packageName).append(";\n\n");
+		}
+		out.append("import structuregenapi.util.Structure;\n");
+		out.append("import structuregenapi.util.StructureResources;\n\n");
+		out.append("/**\n * Generated by StructureCompiler from ").append(holder).append("; do not edit.\n");
+		out.append(" * Each structure is loaded the first time it is requested.\n */\n");
+		out.append("public final class ").append(accessor).append("\n{\n");
+		out.append("\tprivate ").append(accessor).append("() {}\n");
+		for (String field : fields) {
+			out.append("\n\tprivate static volatile Structure ").append(field).append(";\n\n");
+			out.append("\t/**\n\t * Returns the structure converted from ").append(holder).append('.').append(field).append("\n\t */\n");
+			out.append("\tpublic static Structure ").append(field).append("() {\n");
+			out.append("\t\tStructure structure = ").append(field).append(";\n");
+			out.append("\t\tif (structure == null) {\n");
+			out.append("\t\t\tstructure = ").append(field).append(" = StructureResources.load(\"/").append(resourcePath).append(field).append(".sgas\");\n");
+			out.append("\t\t}\n");
+			out.append("\t\treturn structure;\n");
+			out.append("\t}\n");
+		}
+		out.append("}\n");
+
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, accessor + ".java")), "UTF-8");
+		try {
+			writer.write(out.toString());
+		} finally {
+			writer.close();
+		}
+	}
+}
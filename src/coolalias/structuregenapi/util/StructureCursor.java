@@ -0,0 +1,227 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * Walks a structure at a fixed world position one 16x16x16 chunk section at a time, returning
+ * a small PlacementPlan for each section instead of a single plan for the whole structure. Each
+ * world cell is mapped back to its layer cell by undoing the rotation, so cells are read straight
+ * from the compiled layers (which may be memory-mapped; see StructureFile) and only one section's
+ * worth of cells is held at any time.
+ *
+ * Chunk columns are visited in order along x, then z; the sections of each column are visited
+ * from the bottom up, or from the top down when removing, with cells in the same order within
+ * each section. Created with StructureGeneratorBase.createCursor.
+ *
+ * Fills and hollow boxes are clipped to each section and returned as fills; each copy of a
+ * repeated layer is walked like any other layer, without copying it.
+ *
+ */
+public class StructureCursor
+{
+	private final StructureGeneratorBase generator;
+	private final List<CompiledLayer> layers;
+	private final int rotations;
+	private final boolean removal;
+
+	/** Offsets, already adjusted for manual rotation, and the world position generated at */
+	private final int offsetX, offsetZ, posX, posY, posZ;
+
+	/** Relative y of the bottom of each layer */
+	private final int[] baseY;
+
+	/** Plan holding only the structure's fills, relative to the generation position */
+	private final PlacementPlan fills;
+
+	/** World bounds of the structure, inclusive */
+	private int minX, minY, minZ, maxX, maxY, maxZ;
+
+	/** Range of chunk columns and sections to visit */
+	private final int chunkX0, chunkX1, chunkZ0, chunkZ1, section0, section1;
+
+	/** Next chunk column and section to visit */
+	private int chunkX, chunkZ, section;
+
+	/** True if the last window returned was the first in its chunk column */
+	private boolean newColumn = false;
+
+	/**
+	 * @param layers Layers to walk, in generation order; the same layer may appear more than once
+	 * @param baseY Relative y of the bottom of each layer, offset included
+	 * @param fills Plan holding the structure's fills, already rotated and offset
+	 */
+	StructureCursor(StructureGeneratorBase generator, List<CompiledLayer> layers, List<Integer> baseY, PlacementPlan fills,
+			int rotations, boolean removal, int offsetX, int offsetZ, int posX, int posY, int posZ) {
+		this.generator = generator;
+		this.layers = new ArrayList<CompiledLayer>(layers);
+		this.fills = fills;
+		this.rotations = rotations;
+		this.removal = removal;
+		this.offsetX = offsetX;
+		this.offsetZ = offsetZ;
+		this.posX = posX;
+		this.posY = posY;
+		this.posZ = posZ;
+		this.baseY = new int[this.layers.size()];
+
+		boolean empty = fills.isEmpty();
+		if (!empty) {
+			minX = posX + fills.getMinX();
+			minY = posY + fills.getMinY();
+			minZ = posZ + fills.getMinZ();
+			maxX = posX + fills.getMaxX();
+			maxY = posY + fills.getMaxY();
+			maxZ = posZ + fills.getMaxZ();
+		}
+
+		for (int i = 0; i < this.layers.size(); ++i) {
+			CompiledLayer layer = this.layers.get(i);
+			this.baseY[i] = baseY.get(i);
+			if (layer.getHeight() == 0 || layer.getMaxX() == 0 || layer.getMaxZ() == 0) {
+				continue;
+			}
+
+			for (int corner = 0; corner < 4; ++corner) {
+				int x = ((corner & 1) == 0 ? 0 : layer.getMaxX() - 1);
+				int z = ((corner & 2) == 0 ? 0 : layer.getMaxZ() - 1);
+				int dx = x - layer.getWidthX() / 2 + offsetX, dz = z - layer.getWidthZ() / 2 + offsetZ;
+				int rx = (rotations == 0 ? dx : rotations == 1 ? -dz : rotations == 2 ? -dx : dz);
+				int rz = (rotations == 0 ? dz : rotations == 1 ? dx : rotations == 2 ? -dz : -dx);
+				if (empty) {
+					minX = maxX = posX + rx;
+					minZ = maxZ = posZ + rz;
+					minY = posY + this.baseY[i];
+					maxY = minY + layer.getHeight() - 1;
+					empty = false;
+				}
+				minX = Math.min(minX, posX + rx);
+				maxX = Math.max(maxX, posX + rx);
+				minZ = Math.min(minZ, posZ + rz);
+				maxZ = Math.max(maxZ, posZ + rz);
+				minY = Math.min(minY, posY + this.baseY[i]);
+				maxY = Math.max(maxY, posY + this.baseY[i] + layer.getHeight() - 1);
+			}
+		}
+
+		chunkX0 = minX >> 4;
+		chunkX1 = (empty ? chunkX0 - 1 : maxX >> 4);
+		chunkZ0 = minZ >> 4;
+		chunkZ1 = maxZ >> 4;
+		section0 = minY >> 4;
+		section1 = maxY >> 4;
+		chunkX = chunkX0;
+		chunkZ = chunkZ0;
+		section = (removal ? section1 : section0);
+	}
+
+	/**
+	 * Returns the plan for the next section holding any cells, with positions relative to the
+	 * generation position, or null once every section has been visited
+	 */
+	public final PlacementPlan nextWindow() {
+		boolean first = false;
+		while (chunkX <= chunkX1) {
+			first |= (section == (removal ? section1 : section0));
+			PlacementPlan plan = planSection(chunkX, chunkZ, section);
+
+			if (removal ? --section < section0 : ++section > section1) {
+				section = (removal ? section1 : section0);
+				if (++chunkZ > chunkZ1) {
+					chunkZ = chunkZ0;
+					++chunkX;
+				}
+			}
+
+			if (!plan.isEmpty()) {
+				newColumn = first;
+				return plan;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns true if the last window returned by nextWindow was the first one in its chunk column
+	 */
+	public final boolean startedNewColumn() {
+		return newColumn;
+	}
+
+	/**
+	 * Returns the world bounds of the structure as {minX, minY, minZ, maxX, maxY, maxZ}
+	 */
+	public final int[] getBounds() {
+		return new int[] {minX, minY, minZ, maxX, maxY, maxZ};
+	}
+
+	private PlacementPlan planSection(int cx, int cz, int sy) {
+		PlacementPlan plan = new PlacementPlan(rotations, removal, 256);
+		int wx0 = Math.max(minX, cx << 4), wx1 = Math.min(maxX, (cx << 4) + 15);
+		int wz0 = Math.max(minZ, cz << 4), wz1 = Math.min(maxZ, (cz << 4) + 15);
+		int wy0 = sy << 4, wy1 = wy0 + 15;
+
+		for (int f = 0; f < fills.getFillCount(); ++f) {
+			int x1 = Math.max(wx0, posX + fills.getFill(f, PlacementPlan.FILL_MIN_X)), x2 = Math.min(wx1, posX + fills.getFill(f, PlacementPlan.FILL_MAX_X));
+			int y1 = Math.max(wy0, posY + fills.getFill(f, PlacementPlan.FILL_MIN_Y)), y2 = Math.min(wy1, posY + fills.getFill(f, PlacementPlan.FILL_MAX_Y));
+			int z1 = Math.max(wz0, posZ + fills.getFill(f, PlacementPlan.FILL_MIN_Z)), z2 = Math.min(wz1, posZ + fills.getFill(f, PlacementPlan.FILL_MAX_Z));
+			if (x1 <= x2 && y1 <= y2 && z1 <= z2) {
+				plan.addFill(x1 - posX, y1 - posY, z1 - posZ, x2 - posX, y2 - posY, z2 - posZ,
+						fills.getFill(f, PlacementPlan.FILL_REAL_ID), fills.getFill(f, PlacementPlan.FILL_FAKE_ID),
+						fills.getFill(f, PlacementPlan.FILL_META), fills.getFill(f, PlacementPlan.FILL_DATA1),
+						fills.getFill(f, PlacementPlan.FILL_DATA2), fills.getFill(f, PlacementPlan.FILL_FLAGS));
+			}
+		}
+
+		for (int n = 0; n < layers.size(); ++n) {
+			int i = (removal ? layers.size() - 1 - n : n);
+			CompiledLayer layer = layers.get(i);
+			int y0 = Math.max(0, wy0 - posY - baseY[i]), y1 = Math.min(layer.getHeight() - 1, wy1 - posY - baseY[i]);
+			if (y0 > y1) {
+				continue;
+			}
+
+			BlockPalette palette = generator.getPlanningPalette(layer);
+			int centerX = layer.getWidthX() / 2, centerZ = layer.getWidthZ() / 2;
+			for (int y = (removal ? y1 : y0); (removal ? y >= y0 : y <= y1); y = (removal ? --y : ++y)) {
+				for (int wx = wx0; wx <= wx1; ++wx) {
+					for (int wz = wz0; wz <= wz1; ++wz) {
+						int rx = wx - posX, rz = wz - posZ;
+						int dx = (rotations == 0 ? rx : rotations == 1 ? rz : rotations == 2 ? -rx : -rz);
+						int dz = (rotations == 0 ? rz : rotations == 1 ? -rx : rotations == 2 ? -rz : rx);
+						int x = dx + centerX - offsetX, z = dz + centerZ - offsetZ;
+						if (x < 0 || x >= layer.getLengthX(y) || z < 0 || z >= layer.getLengthZ(y, x)) {
+							continue;
+						}
+
+						int index = layer.getPaletteIndex(y, x, z);
+						if (!palette.isSkipped(index)) {
+							generator.planCell(plan, palette, index, rx, y + baseY[i], rz);
+						}
+					}
+				}
+			}
+		}
+
+		return plan;
+	}
+}
@@ -0,0 +1,163 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ *
+ * A sparse set of cell changes to apply to a base structure, so that variants of the same
+ * building (a different door, a ruined version) need only store the cells that differ.
+ * Cells are addressed exactly as in the blockArray: layer index, then [y][x][z].
+ *
+ * Use Structure.createVariant to apply a diff; the variant shares the base structure's data
+ * and generation reads the changed cells straight from the diff, so no combined copy is made.
+ * StructureDiff.compute finds the smallest diff that turns one structure into another.
+ *
+ * A diff can only change cells, not the shape of a layer.
+ *
+ */
+public class StructureDiff
+{
+	/** Largest layer index or y, x or z coordinate that can be stored */
+	private static final int MAX_COORD = 0xFFFF;
+
+	/** Changed tuple for each cell, keyed by layer << 48 | y << 32 | x << 16 | z so that cells are in blockArray order */
+	private final Map<Long, int[]> cells = new TreeMap<Long, int[]>();
+
+	public StructureDiff() {}
+
+	/**
+	 * Sets the tuple for blockArray[y][x][z] of the layer given, as it would appear in the
+	 * blockArray; a null tuple is treated the same as the empty tuple {}
+	 */
+	public final void setBlock(int layer, int y, int x, int z, int[] tuple) {
+		if ((layer | y | x | z) < 0 || Math.max(Math.max(layer, y), Math.max(x, z)) > MAX_COORD) {
+			throw new IllegalArgumentException("Cell out of range: layer " + layer + " at " + y + "/" + x + "/" + z);
+		}
+
+		cells.put((long) layer << 48 | (long) y << 32 | (long) x << 16 | z, (tuple != null ? tuple.clone() : new int[0]));
+	}
+
+	/**
+	 * Returns the number of changed cells
+	 */
+	public final int size() {
+		return cells.size();
+	}
+
+	/**
+	 * Returns an approximation of the memory used by this diff
+	 */
+	public final long getSizeInBytes() {
+		long bytes = 64L;
+		for (int[] tuple : cells.values()) {
+			bytes += 80L + 4L * tuple.length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the layers given with this diff applied; unchanged layers are returned as is,
+	 * changed layers share the original's data and palettes are copied once per palette
+	 */
+	final List<CompiledLayer> apply(List<CompiledLayer> layers) {
+		List<CompiledLayer> result = new ArrayList<CompiledLayer>(layers);
+		Map<BlockPalette, BlockPalette> palettes = new IdentityHashMap<BlockPalette, BlockPalette>();
+		List<Map.Entry<Long, int[]>> entries = new ArrayList<Map.Entry<Long, int[]>>(cells.entrySet());
+
+		for (int start = 0, end; start < entries.size(); start = end) {
+			int index = (int)(entries.get(start).getKey() >>> 48);
+			end = start;
+			while (end < entries.size() && (int)(entries.get(end).getKey() >>> 48) == index) {
+				++end;
+			}
+
+			if (index >= layers.size()) {
+				throw new IllegalArgumentException("Diff changes layer " + index + " but the structure only has " + layers.size());
+			}
+
+			CompiledLayer layer = layers.get(index);
+			int[] flat = new int[end - start];
+			int[][] tuples = new int[end - start][];
+			for (int i = start; i < end; ++i) {
+				long key = entries.get(i).getKey();
+				int y = (int)(key >>> 32) & MAX_COORD, x = (int)(key >>> 16) & MAX_COORD, z = (int) key & MAX_COORD;
+				if (y >= layer.getHeight() || x >= layer.getLengthX(y) || z >= layer.getLengthZ(y, x)) {
+					throw new IllegalArgumentException("Diff cell " + y + "/" + x + "/" + z + " is outside of layer " + index);
+				}
+				flat[i - start] = (y * layer.getMaxX() + x) * layer.getMaxZ() + z;
+				tuples[i - start] = entries.get(i).getValue();
+			}
+
+			BlockPalette palette = palettes.get(layer.getPalette());
+			if (palette == null) {
+				palette = layer.getPalette().copy();
+				palettes.put(layer.getPalette(), palette);
+			}
+			result.set(index, layer.withOverlay(palette, flat, tuples));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the smallest diff that turns the base structure into the variant, i.e. one entry
+	 * for each cell whose tuple differs. Both structures must have the same number of layers
+	 * and each pair of layers the same shape, otherwise IllegalArgumentException is thrown.
+	 */
+	public static StructureDiff compute(Structure base, Structure variant) {
+		List<CompiledLayer> from = base.getLayers(), to = variant.getLayers();
+		if (from.size() != to.size()) {
+			throw new IllegalArgumentException("Structures have " + from.size() + " and " + to.size() + " layers");
+		}
+
+		StructureDiff diff = new StructureDiff();
+		for (int i = 0; i < from.size(); ++i) {
+			CompiledLayer a = from.get(i), b = to.get(i);
+			BlockPalette pa = a.getPalette(), pb = b.getPalette();
+			if (a.getHeight() != b.getHeight()) {
+				throw new IllegalArgumentException("Layer " + i + " differs in height");
+			}
+
+			for (int y = 0; y < a.getHeight(); ++y) {
+				if (a.getLengthX(y) != b.getLengthX(y)) {
+					throw new IllegalArgumentException("Layer " + i + " differs in shape at y = " + y);
+				}
+				for (int x = 0; x < a.getLengthX(y); ++x) {
+					if (a.getLengthZ(y, x) != b.getLengthZ(y, x)) {
+						throw new IllegalArgumentException("Layer " + i + " differs in shape at y = " + y + ", x = " + x);
+					}
+					for (int z = 0; z < a.getLengthZ(y, x); ++z) {
+						int ia = a.getPaletteIndex(y, x, z), ib = b.getPaletteIndex(y, x, z);
+						if (pa == pb ? ia != ib : !Arrays.equals(pa.getEntry(ia), pb.getEntry(ib))) {
+							diff.setBlock(i, y, x, z, pb.getEntry(ib));
+						}
+					}
+				}
+			}
+		}
+
+		return diff;
+	}
+}
@@ -0,0 +1,387 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * Reads and writes Structures in a compact binary format, so that they can be shipped as data
+ * files instead of int[][][][] literals. Files are loaded through a read-only memory mapping and
+ * the packed cells of each layer are used straight from the mapping, without a copy on the heap.
+ *
+ * Format, all values big-endian:
+ *
+ *	int		MAGIC, int VERSION
+ *	int		name length in bytes, followed by the name in UTF-8
+ *	int		facing, offsetX, offsetY, offsetZ
+ *	int		number of palettes, then for each: int number of entries, then for each entry
+ *			int tuple length followed by the tuple's values
+ *	int		number of layers, then for each: int palette, height, maxX, maxZ, bits per cell,
+ *			number of occupied cells, flags (1: x lengths follow, 2: z lengths follow);
+ *			the jagged x and z lengths, if any; padding to a multiple of 8 bytes; the packed
+ *			cells and the occupancy bitset as longs (see CompiledLayer)
+ *	int		number of primitives (version 2 on), then for each: int type; for a repeat, int y,
+ *			count and stride followed by its layer as above; otherwise int minX, minY, minZ,
+ *			maxX, maxY, maxZ, the tuple as in a palette, and the interior tuple or -1 if none
+ *	int		number of tile entities (version 3 on), then for each: int x, y, z and the number
+ *			of bytes of its NBT, followed by the NBT (see TileEntityData)
+ *
+ */
+public class StructureFile
+{
+	/** Identifies a structure file: "SGAS" */
+	public static final int MAGIC = 0x53474153;
+
+	/** Current version of the format; older files, without primitives or tile entities, can still be read */
+	public static final int VERSION = 3;
+
+	/** Flags for the jagged length arrays stored with a layer */
+	private static final int FLAG_LENGTH_X = 1, FLAG_LENGTH_Z = 2;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private StructureFile() {}
+
+	/**
+	 * Writes the structure to the file given, replacing any existing file
+	 */
+	public static void write(Structure structure, File file) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			write(structure, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the structure to the stream given; the stream is not closed
+	 */
+	public static void write(Structure structure, OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		byte[] name = structure.name.getBytes(UTF_8);
+		out.writeInt(name.length);
+		out.write(name);
+		out.writeInt(structure.getFacing());
+		out.writeInt(structure.getOffsetX());
+		out.writeInt(structure.getOffsetY());
+		out.writeInt(structure.getOffsetZ());
+
+		List<CompiledLayer> layers = new ArrayList<CompiledLayer>();
+		for (CompiledLayer layer : structure.getLayers()) {
+			layers.add(layer.flatten()); // variants are saved in full
+		}
+
+		List<CompiledLayer> all = new ArrayList<CompiledLayer>(layers);
+		for (StructurePrimitive primitive : structure.getPrimitives()) {
+			if (primitive.getLayer() != null) {
+				all.add(primitive.getLayer());
+			}
+		}
+
+		Map<BlockPalette, Integer> palettes = new IdentityHashMap<BlockPalette, Integer>();
+		List<BlockPalette> order = new ArrayList<BlockPalette>();
+		for (CompiledLayer layer : all) {
+			if (!palettes.containsKey(layer.getPalette())) {
+				palettes.put(layer.getPalette(), order.size());
+				order.add(layer.getPalette());
+			}
+		}
+
+		out.writeInt(order.size());
+		for (BlockPalette palette : order) {
+			out.writeInt(palette.size());
+			for (int i = 0; i < palette.size(); ++i) {
+				int[] tuple = palette.getEntry(i);
+				out.writeInt(tuple.length);
+				for (int value : tuple) {
+					out.writeInt(value);
+				}
+			}
+		}
+
+		out.writeInt(layers.size());
+		for (CompiledLayer layer : layers) {
+			writeLayer(out, layer, palettes);
+		}
+
+		out.writeInt(structure.getPrimitives().size());
+		for (StructurePrimitive primitive : structure.getPrimitives()) {
+			out.writeInt(primitive.getType().ordinal());
+			if (primitive.getLayer() != null) {
+				out.writeInt(primitive.getMinY());
+				out.writeInt(primitive.getCount());
+				out.writeInt(primitive.getStrideY());
+				writeLayer(out, primitive.getLayer().flatten(), palettes);
+				continue;
+			}
+
+			out.writeInt(primitive.getMinX());
+			out.writeInt(primitive.getMinY());
+			out.writeInt(primitive.getMinZ());
+			out.writeInt(primitive.getMaxX());
+			out.writeInt(primitive.getMaxY());
+			out.writeInt(primitive.getMaxZ());
+			writeTuple(out, primitive.getPalette().getEntry(primitive.getTupleIndex()));
+			if (primitive.getInteriorIndex() >= 0) {
+				writeTuple(out, primitive.getPalette().getEntry(primitive.getInteriorIndex()));
+			} else {
+				out.writeInt(-1);
+			}
+		}
+
+		out.writeInt(structure.getTileEntities().size());
+		for (TileEntityData data : structure.getTileEntities()) {
+			out.writeInt(data.getPosX());
+			out.writeInt(data.getPosY());
+			out.writeInt(data.getPosZ());
+			out.writeInt(data.getNBT().length);
+			out.write(data.getNBT());
+		}
+
+		out.flush();
+	}
+
+	private static void writeTuple(DataOutputStream out, int[] tuple) throws IOException {
+		out.writeInt(tuple.length);
+		writeInts(out, tuple);
+	}
+
+	private static void writeLayer(DataOutputStream out, CompiledLayer layer, Map<BlockPalette, Integer> palettes) throws IOException {
+		int[] lengthX = layer.getLengthXArray(), lengthZ = layer.getLengthZArray();
+		out.writeInt(palettes.get(layer.getPalette()));
+		out.writeInt(layer.getHeight());
+		out.writeInt(layer.getMaxX());
+		out.writeInt(layer.getMaxZ());
+		out.writeInt(layer.getBits());
+		out.writeInt(layer.getOccupiedCount());
+		out.writeInt((lengthX != null ? FLAG_LENGTH_X : 0) | (lengthZ != null ? FLAG_LENGTH_Z : 0));
+		writeInts(out, lengthX);
+		writeInts(out, lengthZ);
+		while (out.size() % 8 != 0) {
+			out.writeByte(0);
+		}
+		writeLongs(out, layer.getData());
+		writeLongs(out, layer.getOccupied());
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		if (values != null) {
+			for (int value : values) {
+				out.writeInt(value);
+			}
+		}
+	}
+
+	private static void writeLongs(DataOutputStream out, LongBuffer values) throws IOException {
+		for (int i = 0; i < values.limit(); ++i) {
+			out.writeLong(values.get(i));
+		}
+	}
+
+	/**
+	 * Loads a structure by mapping the file given into memory. The file should not be
+	 * modified while the structure is in use.
+	 */
+	public static Structure read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Loads a structure from a stream, such as a resource inside a jar; the data is read
+	 * onto the heap, since a stream cannot be mapped. The stream is not closed.
+	 */
+	public static Structure read(InputStream stream) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = stream.read(buffer)) != -1) {
+			bytes.write(buffer, 0, n);
+		}
+		return read(ByteBuffer.wrap(bytes.toByteArray()));
+	}
+
+	/**
+	 * Loads a structure from the buffer given, starting at its current position. The
+	 * structure's layers use the buffer's contents directly, so it must not be modified.
+	 */
+	public static Structure read(ByteBuffer buffer) throws IOException {
+		ByteBuffer in = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+		try {
+			if (in.getInt() != MAGIC) {
+				throw new IOException("Not a structure file");
+			}
+			int version = in.getInt();
+			if (version < 1 || version > VERSION) {
+				throw new IOException("Unsupported structure file version " + version);
+			}
+
+			byte[] name = new byte[checkCount(in.getInt(), in.remaining())];
+			in.get(name);
+			Structure structure = new Structure(new String(name, UTF_8));
+			structure.setFacing(in.getInt());
+			int offsetX = in.getInt(), offsetY = in.getInt(), offsetZ = in.getInt();
+			structure.setStructureOffset(offsetX, offsetY, offsetZ);
+
+			BlockPalette[] palettes = new BlockPalette[checkCount(in.getInt(), in.remaining())];
+			for (int p = 0; p < palettes.length; ++p) {
+				palettes[p] = readPalette(in);
+			}
+
+			int layers = checkCount(in.getInt(), in.remaining());
+			for (int l = 0; l < layers; ++l) {
+				structure.addLayer(readLayer(in, palettes));
+			}
+
+			int primitives = (version > 1 ? checkCount(in.getInt(), in.remaining()) : 0);
+			for (int p = 0; p < primitives; ++p) {
+				structure.addPrimitive(readPrimitive(in, palettes));
+			}
+
+			int tileEntities = (version > 2 ? checkCount(in.getInt(), in.remaining()) : 0);
+			for (int t = 0; t < tileEntities; ++t) {
+				int x = in.getInt(), y = in.getInt(), z = in.getInt();
+				byte[] nbt = new byte[checkCount(in.getInt(), in.remaining())];
+				in.get(nbt);
+				structure.addTileEntity(x, y, z, nbt);
+			}
+
+			return structure;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Structure file is truncated");
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Structure file is corrupt: " + e.getMessage());
+		}
+	}
+
+	private static BlockPalette readPalette(ByteBuffer in) throws IOException {
+		BlockPalette palette = new BlockPalette();
+		int size = checkCount(in.getInt(), in.remaining());
+		for (int i = 0; i < size; ++i) {
+			int[] tuple = new int[checkCount(in.getInt(), in.remaining())];
+			for (int j = 0; j < tuple.length; ++j) {
+				tuple[j] = in.getInt();
+			}
+			if (palette.getIndex(tuple) != i) {
+				throw new IOException("Structure file palette entry " + i + " is out of place");
+			}
+		}
+		return palette;
+	}
+
+	private static StructurePrimitive readPrimitive(ByteBuffer in, BlockPalette[] palettes) throws IOException {
+		int type = in.getInt();
+		if (type < 0 || type >= StructurePrimitive.Type.values().length) {
+			throw new IOException("Structure file primitive has unknown type " + type);
+		}
+
+		if (StructurePrimitive.Type.values()[type] == StructurePrimitive.Type.REPEAT) {
+			int y = in.getInt(), count = in.getInt(), strideY = in.getInt();
+			return new StructurePrimitive(readLayer(in, palettes), y, count, strideY);
+		}
+
+		int x1 = in.getInt(), y1 = in.getInt(), z1 = in.getInt(), x2 = in.getInt(), y2 = in.getInt(), z2 = in.getInt();
+		int[] tuple = readInts(in, in.getInt());
+		int length = in.getInt();
+		int[] interior = (length >= 0 ? readInts(in, length) : null);
+		return new StructurePrimitive(StructurePrimitive.Type.values()[type], x1, y1, z1, x2, y2, z2, tuple, interior);
+	}
+
+	private static CompiledLayer readLayer(ByteBuffer in, BlockPalette[] palettes) throws IOException {
+		int p = in.getInt();
+		if (p < 0 || p >= palettes.length) {
+			throw new IOException("Structure file layer uses missing palette " + p);
+		}
+
+		int height = in.getInt(), maxX = in.getInt(), maxZ = in.getInt();
+		int bits = in.getInt(), occupiedCount = in.getInt(), flags = in.getInt();
+		long cells = (long) height * maxX * maxZ;
+		if (height < 0 || maxX < 0 || maxZ < 0 || (long) height * maxX > Integer.MAX_VALUE || cells > Integer.MAX_VALUE
+				|| bits < 1 || bits > 32 || occupiedCount < 0 || occupiedCount > cells) {
+			throw new IOException("Structure file layer header is corrupt");
+		}
+
+		int[] lengthX = ((flags & FLAG_LENGTH_X) != 0 ? readInts(in, height) : null);
+		int[] lengthZ = ((flags & FLAG_LENGTH_Z) != 0 ? readInts(in, height * maxX) : null);
+		in.position((in.position() + 7) & ~7);
+
+		LongBuffer data = mapLongs(in, CompiledLayer.getDataLength((int) cells, bits));
+		LongBuffer occupied = mapLongs(in, CompiledLayer.getOccupiedLength((int) cells));
+
+		return new CompiledLayer(palettes[p], height, maxX, maxZ, lengthX, lengthZ, bits, data, occupied, occupiedCount);
+	}
+
+	private static int[] readInts(ByteBuffer in, int count) {
+		int[] values = new int[checkCount(count, in.remaining() / 4)];
+		for (int i = 0; i < count; ++i) {
+			values[i] = in.getInt();
+		}
+		return values;
+	}
+
+	/**
+	 * Returns a view of the next 'count' longs in the buffer, without copying them
+	 */
+	private static LongBuffer mapLongs(ByteBuffer in, int count) {
+		if ((long) count * 8 > in.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		ByteBuffer slice = in.slice().order(ByteOrder.BIG_ENDIAN);
+		slice.limit(count * 8);
+		in.position(in.position() + count * 8);
+		return slice.asLongBuffer();
+	}
+
+	/**
+	 * Guards against corrupt counts causing huge allocations
+	 */
+	private static int checkCount(int count, int remaining) {
+		if (count < 0 || count > remaining) {
+			throw new IllegalArgumentException("invalid count " + count);
+		}
+		return count;
+	}
+}
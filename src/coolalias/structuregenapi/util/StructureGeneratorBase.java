@@ -17,15 +17,27 @@
 
 package structuregenapi.util;
 
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 import net.minecraft.block.Block;
 import net.minecraft.entity.Entity;
-import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.init.Blocks;
+import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.Direction;
 import net.minecraft.util.MathHelper;
+import net.minecraft.world.ChunkCoordIntPair;
 import net.minecraft.world.World;
 import net.minecraft.world.gen.feature.WorldGenerator;
 import structuregenapi.util.BlockRotationData.Rotation;
@@ -36,6 +48,9 @@ public abstract class StructureGeneratorBase extends WorldGenerator
 	/** Use this value to skip setting a block at an x,y,z coordinate for whatever reason. */
 	public static final int SET_NO_BLOCK = Integer.MAX_VALUE;
 
+	/** Separates the class name from the facing and rotations in the names of pending block generators */
+	static final char PENDING_STATE_SEPARATOR = '#';
+
 	/** The directional values associated with player facing: */
 	public static final int SOUTH = 0, WEST = 1, NORTH = 2, EAST = 3;
 
@@ -52,14 +67,113 @@ public abstract class StructureGeneratorBase extends WorldGenerator
 	private boolean removeStructure = false;
 
 	/** Stores the data for current layer. See StructureArray.java for information on how create a blockArray. */
-	private int[][][][] blockArray;
+	private CompiledLayer blockArray;
+
+	/** Stores a list of the structure to build, in 'layers' compiled from individual blockArrays. */
+	private final List<CompiledLayer> blockArrayList = new LinkedList();
+
+	/** Structure set with setStructure, or null if the blockArrays were set directly */
+	private Structure structure;
+
+	/** Plans made for the current Structure are looked up here first, if not null */
+	private PlacementPlanCache planCache;
 
-	/** Stores a list of the structure to build, in 'layers' made up of individual blockArrays. */
-	private final List<int[][][][]> blockArrayList = new LinkedList();
+	/** Block substitutions applied to every palette when planning, if not null */
+	private PaletteRemap paletteRemap;
+
+	/** Palette used to compile blockArrays that are added directly rather than from a Structure */
+	private BlockPalette palette = new BlockPalette();
 
 	/** Stores blocks that need to be set post-generation, such as torches */
 	private final List<BlockData> postGenBlocks = new LinkedList();
 
+	/** When true, blocks are written directly into chunk sections instead of using World.setBlock */
+	private boolean batchPlacement = false;
+
+	/** Collects blocks to be written directly into chunk sections when batchPlacement is enabled */
+	private final ChunkBatchPlacer batchPlacer = new ChunkBatchPlacer();
+
+	/** Blocks that still need World.setBlock while batching, set right after the batch is written */
+	private final List<BlockData> updateBlocks = new LinkedList();
+
+	/** When true, batched blocks are not relit individually; the whole area is relit once afterwards */
+	private boolean deferredLighting = false;
+
+	/** Relights the structure's area when deferredLighting is enabled */
+	private final StructureLighter lighter = new StructureLighter();
+
+	/** When true, blocks in chunks that are not loaded and populated are stored until they are */
+	private boolean chunkClipping = false;
+
+	/** Whether each chunk reached during the current call to continueGeneration is written to now (true) or later */
+	private final Map<Long, Boolean> chunkStates = new HashMap<Long, Boolean>();
+
+	/** Unloaded chunks blocks were deferred to during the generation in progress */
+	private final Set<Long> unloadedChunks = new HashSet<Long>();
+
+	/** Last chunk looked up in chunkStates, and its state */
+	private long lastChunk;
+	private boolean lastChunkReady, hasLastChunk;
+
+	/** Store for the region blocks were last deferred to */
+	private PendingBlockStore pendingStore;
+	private int pendingRegionX, pendingRegionZ;
+
+	/** Number of blocks deferred during the generation in progress */
+	private int deferredBlocks;
+
+	/** Number of unloaded chunks that were not loaded or generated thanks to chunkClipping */
+	private long cascadesAvoided = 0;
+
+	/** When true, blocks that the world already holds with the same metadata are not set again */
+	private boolean skipUnchanged = false;
+
+	/** Number of blocks not set during the current or last generation because they were unchanged */
+	private int skippedWrites = 0;
+
+	/** Blocks relit one at a time by batch placement during the current or last generation */
+	private int blocksRelit = 0;
+
+	/** Cells relit and light updates made by deferred lighting during the current or last generation */
+	private long cellsRelit = 0, lightUpdates = 0;
+
+	/** Deadline value meaning generation should run to completion */
+	public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	/** True while a generation started with startGeneration has not yet finished */
+	private boolean generating = false;
+
+	/** False once generation has failed; result of the last generation once finished */
+	private boolean generated = false;
+
+	/** World and position for the generation in progress */
+	private World genWorld;
+	private int genX, genY, genZ;
+
+	/** Plan for the generation in progress */
+	private PlacementPlan plan;
+
+	/** Index of the next cell in the plan to generate */
+	private int cursor;
+
+	/** Next fill in the plan to generate, current run of cells and copy of that run */
+	private int fillCursor, run, copy;
+
+	/** Source of further plans when generating one section at a time, otherwise null */
+	private StructureCursor stream;
+
+	/**
+	 * Copy of the world within the structure's bounds, read instead of the World while generating;
+	 * only made once a check needs to read the world (see getSnapshot), otherwise null
+	 */
+	private WorldSnapshot snapshot;
+
+	/** Bounds of the snapshot, should one be needed, as {minX, minY, minZ, maxX, maxY, maxZ} */
+	private int[] snapshotBounds;
+
+	/** Blocks cleared while removing the structure, whose leftover entities have yet to be removed */
+	private final EntitySweep entitySweep = new EntitySweep();
+
 	/**
 	 * Basic constructor. Sets generator to notify other blocks of blocks it changes.
 	 */
@@ -170,9 +284,11 @@ public abstract class StructureGeneratorBase extends WorldGenerator
 	public final void addBlockArray(int blocks[][][][])
 	{
 		if (FMLCommonHandler.instance().getEffectiveSide().isServer()) {
-			blockArrayList.add(blocks);
+			CompiledLayer layer = CompiledLayer.compile(blocks, getCompilePalette());
+			blockArrayList.add(layer);
+			structure = null;
 			if (blockArray == null)
-				blockArray = blocks;
+				blockArray = layer;
 		}
 	}
 
@@ -184,8 +300,9 @@ public abstract class StructureGeneratorBase extends WorldGenerator
 		if (FMLCommonHandler.instance().getEffectiveSide().isServer())
 		{
 			blockArrayList.clear();
-			blockArrayList.add(blocks);
-			blockArray = blocks;
+			structure = null;
+			blockArray = CompiledLayer.compile(blocks, getCompilePalette());
+			blockArrayList.add(blockArray);
 		}
 	}
 
@@ -194,19 +311,33 @@ public abstract class StructureGeneratorBase extends WorldGenerator
 	 */
 	public final void addBlockArrayList(List<int[][][][]> list)
 	{
-		blockArrayList.addAll(list);
+		for (int[][][][] blocks : list) {
+			blockArrayList.add(CompiledLayer.compile(blocks, getCompilePalette()));
+		}
+		structure = null;
 
-		if (blockArray == null && list.size() > 0)
-			blockArray = list.get(0);
+		if (blockArray == null && blockArrayList.size() > 0)
+			blockArray = blockArrayList.get(0);
 	}
 
 	/**
 	 * Overwrites current blockArrayList with list provided
 	 */
 	public final void setBlockArrayList(List<int[][][][]> list)
+	{
+		blockArrayList.clear();
+		blockArray = null;
+		addBlockArrayList(list);
+	}
+
+	/**
+	 * Overwrites current blockArrayList with the already compiled layers provided
+	 */
+	public final void setLayerList(List<CompiledLayer> list)
 	{
 		blockArrayList.clear();
 		blockArrayList.addAll(list);
+		structure = null;
 		blockArray = (list.size() > 0 ? list.get(0) : null);
 	}
 
@@ -218,8 +349,9 @@ public abstract class StructureGeneratorBase extends WorldGenerator
 	public final void setStructure(Structure structure) {
 		if (structure != null) {
 			reset();
-			setBlockArrayList(structure.blockArrayList());
+			setLayerList(structure.getLayers());
 			setStructureFacing(structure.getFacing());
+			this.structure = structure;
 		} else {
 			LogHelper.severe("NULL Structure cannot be set!");
 		}
@@ -240,21 +372,21 @@ public abstract class StructureGeneratorBase extends WorldGenerator
 	 * Returns lowest structure layer's width along the x axis or 0 if no structure has been added
 	 */
 	public final int getWidthX() {
-		return blockArray != null ? blockArray[0].length : 0;
+		return blockArray != null ? blockArray.getWidthX() : 0;
 	}
 
 	/**
 	 * Returns lowest structure layer's width along the z axis or 0 if no structure has been set
 	 */
 	public final int getWidthZ() {
-		return blockArray != null ? blockArray[0][0].length : 0;
+		return blockArray != null ? blockArray.getWidthZ() : 0;
 	}
 
 	/**
 	 * Returns current structure layer's height or 0 if no structure has been set
 	 */
 	public final int getHeight() {
-		return blockArray != null ? blockArray.length : 0;
+		return blockArray != null ? blockArray.getHeight() : 0;
 	}
 
 	/**
@@ -354,11 +486,212 @@ public abstract class StructureGeneratorBase extends WorldGenerator
 		removeStructure = value;
 	}
 
+	/**
+	 * Sets whether blocks are collected and written directly into each chunk section,
+	 * fixing up height maps, tile entities and lighting once per chunk afterwards.
+	 * Much faster for large structures, but onBlockAdded is not called for those blocks.
+	 * Blocks with custom hooks, whose metadata must be reset after placement (rails,
+	 * furnaces, etc.) or flagged FLAG_NEEDS_SET_BLOCK (redstone, fluids, etc.; see
+	 * BlockRotationData.registerPlacementUpdate) still use World.setBlock, once all other
+	 * blocks have been written.
+	 */
+	public final void setBatchPlacement(boolean value) {
+		batchPlacement = value;
+	}
+
+	/**
+	 * Sets whether lighting is recomputed once for the entire structure, rather than for each
+	 * block as it is placed. The structure's bounding box is relit column by column, expanded
+	 * by StructureLighter.DEFAULT_MARGIN so that light from removed sources is cleared as well.
+	 * Requires batch placement, which is enabled along with this setting.
+	 */
+	public final void setDeferredLighting(boolean value) {
+		deferredLighting = value;
+		if (value) {
+			batchPlacement = true;
+		}
+	}
+
+	/**
+	 * Sets whether blocks are only placed in chunks that are loaded and already populated, for
+	 * use from an IWorldGenerator. Blocks that fall in any other chunk, post-gen blocks included,
+	 * are kept in a PendingBlockStore, saved with the world, and placed by PendingBlockHandler
+	 * once that chunk is populated, so that generating a structure never causes neighboring chunks
+	 * to be generated. Has no effect when removing a structure.
+	 * 
+	 * Custom hooks for pending blocks run on a new instance of the generator's class, with the
+	 * player facing, structure facing and manual rotations it had when the block was deferred;
+	 * anything else the hook reads from the generator (structure, offsets, fields of its own)
+	 * has the values given to it by the constructor.
+	 * @throws IllegalStateException if the generator's class is not public with a public
+	 * constructor that takes no arguments, so that hooks could not run for pending blocks
+	 */
+	public final void setChunkClipping(boolean value) {
+		if (value && !canRecreate(getClass())) {
+			throw new IllegalStateException(getClass().getName() + " needs to be public with a public no-argument constructor for chunk clipping");
+		}
+		chunkClipping = value;
+	}
+
+	/**
+	 * Returns true if PendingBlockHandler can create an instance of the generator class given
+	 */
+	static boolean canRecreate(Class<?> clazz) {
+		if (!Modifier.isPublic(clazz.getModifiers()) || Modifier.isAbstract(clazz.getModifiers())) {
+			return false;
+		}
+		try {
+			clazz.getConstructor();
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the name under which blocks deferred by this generator are stored: the class name,
+	 * followed by the facing and rotations that custom hooks see when the blocks are placed
+	 */
+	final String getPendingName() {
+		return getClass().getName() + PENDING_STATE_SEPARATOR + ((facing & 0xFF) | (structureFacing & 0xFF) << 8 | (manualRotations & 0xFF) << 16);
+	}
+
+	/**
+	 * Restores the facing and rotations stored by getPendingName before a pending block's hook runs
+	 */
+	final void restorePendingState(int state) {
+		facing = (byte) state;
+		structureFacing = (byte) (state >> 8);
+		manualRotations = (byte) (state >> 16);
+	}
+
+	/**
+	 * Returns the number of chunks that would have been loaded or generated just to place part of
+	 * a structure, had chunk clipping not been enabled, since this generator was created
+	 */
+	public final long getCascadesAvoided() {
+		return cascadesAvoided;
+	}
+
+	/**
+	 * Sets whether blocks that are already in the world, with the same metadata, are left alone
+	 * rather than set again, e.g. when regenerating or repairing a structure that is mostly intact.
+	 * Unchanged blocks then cause no neighbor updates, relighting or client updates. Blocks with
+	 * custom hooks are always set, so that their hooks still run. See getSkippedWrites.
+	 */
+	public final void setSkipUnchanged(boolean value) {
+		skipUnchanged = value;
+		batchPlacer.setSkipUnchanged(value);
+	}
+
+	/**
+	 * Returns the number of blocks left alone during the current or last generation because
+	 * the world already held them; always 0 unless setSkipUnchanged is enabled
+	 */
+	public final int getSkippedWrites() {
+		return skippedWrites;
+	}
+
+	/**
+	 * Returns the number of blocks batch placement relit one at a time, through the world,
+	 * during the current or last generation; always 0 with deferred lighting. Blocks placed
+	 * with World.setBlock are relit by the world itself and are not counted.
+	 */
+	public final int getBlocksRelit() {
+		return blocksRelit;
+	}
+
+	/**
+	 * Returns the number of cells deferred lighting relit during the current or last generation
+	 */
+	public final long getCellsRelit() {
+		return cellsRelit;
+	}
+
+	/**
+	 * Returns the number of times deferred lighting spread light from one cell to another
+	 * during the current or last generation
+	 */
+	public final long getLightUpdates() {
+		return lightUpdates;
+	}
+
+	/**
+	 * Sets the cache in which plans made for Structures are kept, or null to not cache them.
+	 * See PlacementPlanCache for when a cache should not be used.
+	 */
+	public final void setPlanCache(PlacementPlanCache cache) {
+		planCache = cache;
+	}
+
+	/**
+	 * Sets the block substitutions applied when planning, e.g. for a desert version of a
+	 * structure, or null to place blocks as they are in the blockArrays; see PaletteRemap
+	 */
+	public final void setPaletteRemap(PaletteRemap remap) {
+		paletteRemap = remap;
+	}
+
+	/**
+	 * Returns the block substitutions applied when planning, or null if none
+	 */
+	public final PaletteRemap getPaletteRemap() {
+		return paletteRemap;
+	}
+
+	/**
+	 * Returns the palette to plan the layer with: its own, or the remapped copy if a remap is set
+	 */
+	final BlockPalette getPlanningPalette(CompiledLayer layer) {
+		return getPlanningPalette(layer.getPalette());
+	}
+
+	private final BlockPalette getPlanningPalette(BlockPalette palette) {
+		PaletteRemap remap = paletteRemap;
+		return remap != null ? remap.apply(palette) : palette;
+	}
+
+	/**
+	 * Returns the palette to compile directly added blockArrays with, starting a new one if the
+	 * current palette was frozen when the generator was last scheduled
+	 */
+	private final BlockPalette getCompilePalette() {
+		if (palette.isFrozen()) {
+			palette = new BlockPalette();
+		}
+		return palette;
+	}
+
+	/**
+	 * Freezes the palettes of every layer and primitive that will be planned, so that planner
+	 * threads can read them while the server thread carries on; see BlockPalette
+	 */
+	final void freezePalettes() {
+		palette.freeze();
+		for (CompiledLayer layer : blockArrayList) {
+			layer.getPalette().freeze();
+		}
+		for (StructurePrimitive primitive : getPrimitives()) {
+			if (primitive.getLayer() != null) {
+				primitive.getLayer().getPalette().freeze();
+			} else {
+				primitive.getPalette().freeze();
+			}
+		}
+	}
+
+	/**
+	 * Returns the fills, hollow boxes and repeats of the current Structure, if any
+	 */
+	private final List<StructurePrimitive> getPrimitives() {
+		return structure != null ? structure.getPrimitives() : Collections.<StructurePrimitive>emptyList();
+	}
+
 	/**
 	 * Returns true if the generator has enough information to generate a structure
 	 */
 	public final boolean canGenerate() {
-		return blockArrayList.size() > 0 || blockArray != null;
+		return blockArrayList.size() > 0 || blockArray != null || !getPrimitives().isEmpty();
 	}
 
 	/**
@@ -367,83 +700,602 @@ public abstract class StructureGeneratorBase extends WorldGenerator
 	 */
 	@Override
 	public final boolean generate(World world, Random random, int posX, int posY, int posZ) {
-		if (world.isRemote || !canGenerate()) {
+		return generate(world, random, posX, posY, posZ, null);
+	}
+
+	/**
+	 * Generates the structure at posX/posY/posZ from a plan previously returned by createPlan,
+	 * or from a new plan if the one given is null
+	 */
+	public final boolean generate(World world, Random random, int posX, int posY, int posZ, PlacementPlan plan) {
+		if (!startGeneration(world, random, posX, posY, posZ, plan)) {
 			return false;
 		}
 
-		boolean generated = true;
+		continueGeneration(NO_DEADLINE);
+
+		return generated;
+	}
+
+	/**
+	 * Works out where every block of the current structure will go, relative to the generation
+	 * position, using the current facing, rotation, offsets and remove setting. The World is not
+	 * accessed, so this may be called from another thread provided that the generator is not
+	 * modified meanwhile and that getRealBlockID is safe to call from that thread.
+	 * @throws CancellationException if the calling thread is interrupted while planning
+	 */
+	public final PlacementPlan createPlan() {
 		int rotations = ((isOppositeAxis() ? structureFacing + 2 : structureFacing) + facing) % 4;
+		PlacementPlanCache cache = planCache;
+		PlacementPlanCache.Key key = null;
+
+		if (cache != null && structure != null) {
+			key = new PlacementPlanCache.Key(structure, getClass(), paletteRemap, rotations, manualRotations, offsetX, offsetY, offsetZ, removeStructure);
+			PlacementPlan plan = cache.get(key);
+			if (plan != null) {
+				return plan;
+			}
+		}
 
-		setOffsetFromRotation();
+		int[] offsets = getRotatedOffsets();
+		int offX = offsets[0], offY = offsets[1], offZ = offsets[2];
+		List<StructurePrimitive> primitives = getPrimitives();
+		int capacity = 0;
+		for (CompiledLayer layer : blockArrayList) {
+			capacity += layer.getOccupiedCount();
+		}
+		for (StructurePrimitive primitive : primitives) {
+			capacity += (primitive.getLayer() != null ? primitive.getLayer().getOccupiedCount() : 0);
+		}
 
-		for (int[][][][] blocks : blockArrayList) {
-			if (!generated) { break; }
-			this.blockArray = blocks;
-			generated = generateLayer(world, random, posX, posY, posZ, rotations);
-			offsetY += blocks.length;
+		PlacementPlan plan = new PlacementPlan(rotations, removeStructure, capacity);
+		if (!removeStructure) {
+			planPrimitives(plan, primitives, rotations, offX, offY, offZ);
 		}
 
-		if (generated)
-			doPostGenProcessing(world);
+		if (removeStructure) {
+			// removed from the top layer down, as StructureCursor does, so that blocks such as torches
+			// and ladders never lose their support first, even when StructurePool cut a layer into slices
+			for (CompiledLayer layer : blockArrayList) {
+				offY += layer.getHeight();
+			}
+			for (ListIterator<CompiledLayer> iterator = blockArrayList.listIterator(blockArrayList.size()); iterator.hasPrevious();) {
+				CompiledLayer layer = iterator.previous();
+				offY -= layer.getHeight();
+				planLayer(plan, layer, rotations, offX, offY, offZ);
+			}
+		} else {
+			for (CompiledLayer layer : blockArrayList) {
+				planLayer(plan, layer, rotations, offX, offY, offZ);
+				offY += layer.getHeight();
+			}
+		}
 
-		reset();
+		if (removeStructure) {
+			plan.endRun(1, 0);
+			List<StructurePrimitive> reversed = new ArrayList<StructurePrimitive>(primitives);
+			Collections.reverse(reversed);
+			planPrimitives(plan, reversed, rotations, offX, offsets[1], offZ);
+		}
+
+		plan.trim();
+		if (key != null) {
+			cache.put(key, plan);
+		}
+
+		return plan;
+	}
+
+	/**
+	 * Returns the offsets adjusted to compensate for manual rotation, as {x, y, z}
+	 */
+	private final int[] getRotatedOffsets() {
+		int offX = offsetX, offZ = offsetZ;
+		for (int i = 0; i < manualRotations; ++i) {
+			int x = -offZ;
+			offZ = offX;
+			offX = x;
+		}
+
+		return new int[] {offX, offsetY, offZ};
+	}
+
+	/**
+	 * Returns a cursor that plans the current structure at posX/posY/posZ one chunk section at
+	 * a time; see StructureCursor. The generator must not be modified while it is in use.
+	 */
+	public final StructureCursor createCursor(int posX, int posY, int posZ) {
+		int rotations = ((isOppositeAxis() ? structureFacing + 2 : structureFacing) + facing) % 4;
+		int[] offsets = getRotatedOffsets();
+		List<StructurePrimitive> primitives = getPrimitives();
+		List<CompiledLayer> layers = new ArrayList<CompiledLayer>();
+		List<Integer> baseY = new ArrayList<Integer>();
+
+		// fills are planned once, as boxes; repeats become one entry per copy, sharing the layer
+		PlacementPlan fills = new PlacementPlan(rotations, removeStructure, 0);
+		for (StructurePrimitive primitive : primitives) {
+			if (primitive.getType() != StructurePrimitive.Type.REPEAT) {
+				planBox(fills, primitive, rotations, offsets[0], offsets[1], offsets[2]);
+				continue;
+			}
+			for (int i = 0; i < primitive.getCount(); ++i) {
+				layers.add(primitive.getLayer());
+				baseY.add(offsets[1] + primitive.getMinY() + i * primitive.getStrideY());
+			}
+		}
+
+		int y = offsets[1];
+		for (CompiledLayer layer : blockArrayList) {
+			layers.add(layer);
+			baseY.add(y);
+			y += layer.getHeight();
+		}
+
+		return new StructureCursor(this, layers, baseY, fills, rotations, removeStructure, offsets[0], offsets[2], posX, posY, posZ);
+	}
+
+	/**
+	 * Generates the structure exactly as generate does, but plans and places it one chunk section
+	 * at a time, so that memory use stays small no matter how large the structure is. When batch
+	 * placement is enabled, each chunk column is written as soon as it is finished. Post-gen blocks
+	 * are still placed once every other block has been placed.
+	 */
+	public final boolean generateStreaming(World world, Random random, int posX, int posY, int posZ) {
+		if (!startStreamingGeneration(world, random, posX, posY, posZ)) {
+			return false;
+		}
+
+		continueGeneration(NO_DEADLINE);
 
 		return generated;
 	}
 
 	/**
-	 * Custom 'generate' method that generates a single 'layer' from the list of blockArrays
+	 * As startGeneration, but the structure will be planned and placed one chunk section at a time
 	 */
-	private final boolean generateLayer(World world, Random random, int posX, int posY, int posZ, int rotations) {
-		int centerX = blockArray[0].length / 2, centerZ = blockArray[0][0].length / 2;
+	public final boolean startStreamingGeneration(World world, Random random, int posX, int posY, int posZ) {
+		if (world.isRemote || !canGenerate() || generating) {
+			return false;
+		}
 
-		for (int y = (removeStructure ? blockArray.length - 1 : 0); (removeStructure ? y >= 0 : y < blockArray.length); y = (removeStructure ? --y : ++y)) {
-			for (int x = 0; x < blockArray[y].length; ++x) {
-				for (int z = 0; z < blockArray[y][x].length; ++z) {
-					if (blockArray[y][x][z].length == 0 || blockArray[y][x][z][0] == SET_NO_BLOCK) {
-						continue;
-					}
+		stream = createCursor(posX, posY, posZ);
+		plan = null;
+		snapshotBounds = stream.getBounds();
+		genWorld = world;
+		genX = posX;
+		genY = posY;
+		genZ = posZ;
+		cursor = fillCursor = run = copy = 0;
+		skippedWrites = blocksRelit = 0;
+		cellsRelit = lightUpdates = 0;
+		generating = true;
+		generated = true;
+
+		return true;
+	}
+
+	/**
+	 * Prepares to generate the structure at posX/posY/posZ without placing any blocks yet;
+	 * call continueGeneration until it returns true to place it. The generator must not be
+	 * modified until generation has finished or been cancelled.
+	 * @return false if the structure cannot be generated
+	 */
+	public final boolean startGeneration(World world, Random random, int posX, int posY, int posZ) {
+		return startGeneration(world, random, posX, posY, posZ, null);
+	}
+
+	/**
+	 * As above, using a plan previously returned by createPlan, or a new plan if null
+	 */
+	public final boolean startGeneration(World world, Random random, int posX, int posY, int posZ, PlacementPlan plan) {
+		if (world.isRemote || (plan == null && !canGenerate()) || generating) {
+			return false;
+		}
+
+		this.plan = (plan != null ? plan : createPlan());
+		stream = null;
+		snapshotBounds = new int[] {posX + this.plan.getMinX(), posY + this.plan.getMinY(), posZ + this.plan.getMinZ(),
+				posX + this.plan.getMaxX(), posY + this.plan.getMaxY(), posZ + this.plan.getMaxZ()};
+		genWorld = world;
+		genX = posX;
+		genY = posY;
+		genZ = posZ;
+		cursor = fillCursor = run = copy = 0;
+		skippedWrites = blocksRelit = 0;
+		cellsRelit = lightUpdates = 0;
+		generating = true;
+		generated = true;
+
+		return true;
+	}
+
+	/**
+	 * Continues the generation started by startGeneration until it is finished or System.nanoTime()
+	 * passes the deadline given. Post-gen blocks and batched blocks are always placed together in
+	 * the final call, once every other block has been processed.
+	 * @param deadline value of System.nanoTime() at which to pause, or NO_DEADLINE
+	 * @return true if generation has finished, or if there was none in progress
+	 */
+	public final boolean continueGeneration(long deadline) {
+		if (!generating) {
+			return true;
+		}
 
-					int rotX = posX, rotZ = posZ, rotY = posY + y + offsetY;
-					switch(rotations) {
-					case 0: // Player is looking at the front of the default structure
-						rotX += x - centerX + offsetX;
-						rotZ += z - centerZ + offsetZ;
-						break;
-					case 1: // Rotate structure 90 degrees clockwise
-						rotX += -(z - centerZ + offsetZ);
-						rotZ += x - centerX + offsetX;
-						break;
-					case 2: // Rotate structure 180 degrees
-						rotX += -(x - centerX + offsetX);
-						rotZ += -(z - centerZ + offsetZ);
-						break;
-					case 3: // Rotate structure 270 degrees clockwise
-						rotX += z - centerZ + offsetZ;
-						rotZ += -(x - centerX + offsetX);
-						break;
-					default:
-						LogHelper.warning("Error computing number of rotations.");
-						break;
+		// chunks may have been populated, and their pending blocks placed, since the last call
+		chunkStates.clear();
+		hasLastChunk = false;
+		// and anything may have changed in the world
+		if (snapshot != null) {
+			snapshot.clear();
+		}
+		while (generated) {
+			// fills are placed before the cells, or after them when removing
+			boolean removal = (plan != null && plan.isRemoval());
+			if (plan != null && !removal && fillCursor < plan.getFillCount()) {
+				if (deadline != NO_DEADLINE && System.nanoTime() - deadline > 0) {
+					sweepEntities();
+					return false;
+				}
+				generated = applyFill(genWorld, plan, fillCursor++, genX, genY, genZ);
+			} else if (plan != null && run < plan.getRunCount()) {
+				if (cursor >= plan.getRunEnd(run)) {
+					if (++copy >= plan.getRunRepeats(run)) {
+						++run;
+						copy = 0;
 					}
+					cursor = plan.getRunStart(run);
+					continue;
+				}
 
-					int customData1 = (blockArray[y][x][z].length > 2 ? blockArray[y][x][z][2] : 0);
-					int fakeID = blockArray[y][x][z][0];
-					int realID = (Math.abs(fakeID) > 4095 ? getRealBlockID(fakeID, customData1) : fakeID);
-
-					if (removeStructure) {
-						if (!removeBlockAt(world, fakeID, realID, rotX, rotY, rotZ, rotations))
-							return false;
-					} else {
-						if (Math.abs(realID) > 4095) {
-							LogHelper.warning("Invalid block ID. Initial ID: " + fakeID + ", returned id from getRealID: " + realID);
-							continue;
-						}
+				if (deadline != NO_DEADLINE && (cursor & 63) == 0 && System.nanoTime() - deadline > 0) {
+					sweepEntities();
+					return false;
+				}
+
+				// copies of a repeated run are placed bottom up, or top down when removing
+				int repeat = (removal ? plan.getRunRepeats(run) - 1 - copy : copy);
+				generated = applyCell(genWorld, plan, cursor++, genX, genY + repeat * plan.getRunStrideY(run), genZ);
+			} else if (removal && fillCursor < plan.getFillCount()) {
+				if (deadline != NO_DEADLINE && System.nanoTime() - deadline > 0) {
+					sweepEntities();
+					return false;
+				}
+				generated = applyFill(genWorld, plan, fillCursor++, genX, genY, genZ);
+			} else if (!nextWindow()) {
+				break;
+			}
+		}
+
+		sweepEntities();
+
+		if (generated && batchPlacement)
+			doBatchPlacement(genWorld);
+
+		if (generated)
+			doPostGenProcessing(genWorld);
+
+		if (generated && !removeStructure)
+			restoreTileEntities(genWorld);
+
+		if (skippedWrites > 0) {
+			LogHelper.fine("Skipped " + skippedWrites + " blocks that were already in place");
+		}
+
+		if (deferredBlocks > 0) {
+			LogHelper.fine("Deferred " + deferredBlocks + " blocks to chunks that are not yet populated");
+		}
+
+		finishGeneration();
+
+		return true;
+	}
+
+	/**
+	 * Stops the generation in progress, if any. Blocks already placed remain in the world,
+	 * but batched and post-gen blocks not yet placed are discarded.
+	 */
+	public final void cancelGeneration() {
+		if (generating) {
+			postGenBlocks.clear();
+			generated = false;
+			finishGeneration();
+		}
+	}
+
+	/**
+	 * Returns true while a generation started with startGeneration has not finished
+	 */
+	public final boolean isGenerating() {
+		return generating;
+	}
+
+	/**
+	 * Returns true if the last generation finished successfully
+	 */
+	public final boolean wasGenerated() {
+		return !generating && generated;
+	}
+
+	/**
+	 * Moves on to the next section when generating one section at a time, first writing any
+	 * batched blocks once a chunk column is finished
+	 * @return false if there are no more sections
+	 */
+	private final boolean nextWindow() {
+		PlacementPlan next = (stream != null ? stream.nextWindow() : null);
+		if (next == null) {
+			return false;
+		}
+
+		if (batchPlacement && stream.startedNewColumn() && (batchPlacer.size() > 0 || !updateBlocks.isEmpty())) {
+			doBatchPlacement(genWorld);
+		}
+
+		sweepEntities();
+		plan = next;
+		cursor = fillCursor = run = copy = 0;
+		if (snapshot != null) {
+			snapshot.clear();
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the entities left around the blocks cleared since the last sweep, if any
+	 */
+	private final void sweepEntities() {
+		if (entitySweep.size() > 0) {
+			int cleared = entitySweep.size(), removed = entitySweep.sweep(genWorld);
+			LogHelper.finer("Removed " + removed + " entities around " + cleared + " cleared blocks");
+		}
+	}
+
+	private final void finishGeneration() {
+		generating = false;
+		genWorld = null;
+		plan = null;
+		stream = null;
+		snapshot = null;
+		snapshotBounds = null;
+		entitySweep.clear();
+		chunkStates.clear();
+		unloadedChunks.clear();
+		hasLastChunk = false;
+		pendingStore = null;
+		deferredBlocks = 0;
+		reset();
+	}
+
+	/**
+	 * Adds the primitives to the plan in the order given: fills and hollow boxes as boxes,
+	 * and each repeated layer as a run of cells placed once for each copy
+	 */
+	private final void planPrimitives(PlacementPlan plan, List<StructurePrimitive> primitives, int rotations, int offsetX, int offsetY, int offsetZ) {
+		for (StructurePrimitive primitive : primitives) {
+			checkInterrupted();
+			if (primitive.getType() == StructurePrimitive.Type.REPEAT) {
+				plan.endRun(1, 0);
+				planLayer(plan, primitive.getLayer(), rotations, offsetX, offsetY + primitive.getMinY(), offsetZ);
+				plan.endRun(primitive.getCount(), primitive.getStrideY());
+			} else {
+				planBox(plan, primitive, rotations, offsetX, offsetY, offsetZ);
+			}
+		}
+	}
+
+	/**
+	 * Adds a fill, or the faces and interior of a hollow box, to the plan as boxes
+	 */
+	private final void planBox(PlacementPlan plan, StructurePrimitive box, int rotations, int offsetX, int offsetY, int offsetZ) {
+		BlockPalette palette = getPlanningPalette(box.getPalette());
+		int tuple = box.getTupleIndex(), interior = box.getInteriorIndex();
+		int x1 = box.getMinX(), y1 = box.getMinY(), z1 = box.getMinZ(), x2 = box.getMaxX(), y2 = box.getMaxY(), z2 = box.getMaxZ();
+
+		if (box.getType() == StructurePrimitive.Type.FILL) {
+			planFill(plan, palette, tuple, x1, y1, z1, x2, y2, z2, rotations, offsetX, offsetY, offsetZ);
+			return;
+		}
+
+		if (interior >= 0 && x2 - x1 > 1 && y2 - y1 > 1 && z2 - z1 > 1) {
+			planFill(plan, palette, interior, x1 + 1, y1 + 1, z1 + 1, x2 - 1, y2 - 1, z2 - 1, rotations, offsetX, offsetY, offsetZ);
+		}
+
+		planFill(plan, palette, tuple, x1, y1, z1, x2, y1, z2, rotations, offsetX, offsetY, offsetZ);
+		if (y2 > y1) {
+			planFill(plan, palette, tuple, x1, y2, z1, x2, y2, z2, rotations, offsetX, offsetY, offsetZ);
+		}
+		if (y2 - y1 > 1) {
+			planFill(plan, palette, tuple, x1, y1 + 1, z1, x1, y2 - 1, z2, rotations, offsetX, offsetY, offsetZ);
+			if (x2 > x1) {
+				planFill(plan, palette, tuple, x2, y1 + 1, z1, x2, y2 - 1, z2, rotations, offsetX, offsetY, offsetZ);
+			}
+			if (x2 - x1 > 1) {
+				planFill(plan, palette, tuple, x1 + 1, y1 + 1, z1, x2 - 1, y2 - 1, z1, rotations, offsetX, offsetY, offsetZ);
+				if (z2 > z1) {
+					planFill(plan, palette, tuple, x1 + 1, y1 + 1, z2, x2 - 1, y2 - 1, z2, rotations, offsetX, offsetY, offsetZ);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a single box, given in blockArray coordinates, to the plan; the block id, flags and
+	 * metadata are resolved once for the whole box, exactly as planCell does for a single cell
+	 */
+	private final void planFill(PlacementPlan plan, BlockPalette palette, int index, int x1, int y1, int z1, int x2, int y2, int z2,
+			int rotations, int offsetX, int offsetY, int offsetZ) {
+		if (palette.isSkipped(index)) {
+			return;
+		}
+
+		PlacementPlan cell = new PlacementPlan(rotations, plan.isRemoval(), 1);
+		planCell(cell, palette, index, 0, 0, 0);
+		if (cell.size() == 0) {
+			return;
+		}
+
+		// boxes are placed relative to the first layer's center, as if they were part of it
+		int centerX = getWidthX() / 2, centerZ = getWidthZ() / 2;
+		int dx1 = x1 - centerX + offsetX, dz1 = z1 - centerZ + offsetZ, dx2 = x2 - centerX + offsetX, dz2 = z2 - centerZ + offsetZ;
+		int rx1 = (rotations == 0 ? dx1 : rotations == 1 ? -dz1 : rotations == 2 ? -dx1 : dz1);
+		int rz1 = (rotations == 0 ? dz1 : rotations == 1 ? dx1 : rotations == 2 ? -dz1 : -dx1);
+		int rx2 = (rotations == 0 ? dx2 : rotations == 1 ? -dz2 : rotations == 2 ? -dx2 : dz2);
+		int rz2 = (rotations == 0 ? dz2 : rotations == 1 ? dx2 : rotations == 2 ? -dz2 : -dx2);
+
+		plan.addFill(rx1, y1 + offsetY, rz1, rx2, y2 + offsetY, rz2, cell.getRealID(0), cell.getFakeID(0),
+				cell.getMetadata(0), cell.getCustomData1(0), cell.getCustomData2(0), cell.getFlags(0));
+	}
+
+	/**
+	 * Adds every cell of a single 'layer' from the list of blockArrays to the plan.
+	 * Only cells marked in the layer's occupancy bitset are visited.
+	 */
+	private final void planLayer(PlacementPlan plan, CompiledLayer layer, int rotations, int offsetX, int offsetY, int offsetZ) {
+		BlockPalette palette = getPlanningPalette(layer);
+		boolean removeStructure = plan.isRemoval();
+		int centerX = layer.getWidthX() / 2, centerZ = layer.getWidthZ() / 2;
+		int maxX = layer.getMaxX(), maxZ = layer.getMaxZ(), area = maxX * maxZ;
+
+		for (int y = (removeStructure ? layer.getHeight() - 1 : 0); (removeStructure ? y >= 0 : y < layer.getHeight()); y = (removeStructure ? --y : ++y)) {
+			checkInterrupted();
+			int end = (y + 1) * area;
+			for (int cell = layer.nextOccupied(y * area, end); cell >= 0; cell = layer.nextOccupied(cell + 1, end)) {
+				int x = (cell / maxZ) % maxX, z = cell % maxZ;
+				int index = layer.getPaletteIndex(y, x, z);
+
+				int rotX = 0, rotZ = 0, rotY = y + offsetY;
+				switch(rotations) {
+				case 0: // Player is looking at the front of the default structure
+					rotX += x - centerX + offsetX;
+					rotZ += z - centerZ + offsetZ;
+					break;
+				case 1: // Rotate structure 90 degrees clockwise
+					rotX += -(z - centerZ + offsetZ);
+					rotZ += x - centerX + offsetX;
+					break;
+				case 2: // Rotate structure 180 degrees
+					rotX += -(x - centerX + offsetX);
+					rotZ += -(z - centerZ + offsetZ);
+					break;
+				case 3: // Rotate structure 270 degrees clockwise
+					rotX += z - centerZ + offsetZ;
+					rotZ += -(x - centerX + offsetX);
+					break;
+				default:
+					LogHelper.warning("Error computing number of rotations.");
+					break;
+				}
+
+				planCell(plan, palette, index, rotX, rotY, rotZ);
+			}
+		}
+	}
+
+	/**
+	 * Stops planning once the planner thread has been interrupted, i.e. its job was cancelled
+	 */
+	private static void checkInterrupted() {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("Planning interrupted");
+		}
+	}
+
+	/**
+	 * Resolves the real block id, flags and rotated metadata for the palette entry given and
+	 * adds it to the plan at rotX/rotY/rotZ, relative to the generation position
+	 */
+	final void planCell(PlacementPlan plan, BlockPalette palette, int index, int rotX, int rotY, int rotZ) {
+		int customData1 = palette.getCustomData1(index);
+		int fakeID = palette.getBlockID(index);
+		int realID = (Math.abs(fakeID) > 4095 ? getRealBlockID(fakeID, customData1) : fakeID);
+		int customData2 = palette.getCustomData2(index);
+		int meta = palette.getMetadata(index);
+		int flags = 0;
+
+		if (!plan.isRemoval()) {
+			if (Math.abs(realID) > 4095) {
+				LogHelper.warning("Invalid block ID. Initial ID: " + fakeID + ", returned id from getRealID: " + realID);
+				return;
+			}
+
+			flags = BlockRotationData.getBlockFlags(realID);
+			int rotation = palette.getRotationFlags(index);
+			if (rotation >= 0) {
+				flags = (flags & ~BlockRotationData.FLAG_ROTATION_MASK) | rotation;
+			}
+			Rotation type = BlockRotationData.getRotationType(flags);
+			if (type != null) {
+				meta = GenHelper.getMetadata(plan.getRotations(), type, meta);
+			}
+		}
+
+		plan.add(rotX, rotY, rotZ, realID, fakeID, meta, customData1, customData2, flags);
+	}
+
+	/**
+	 * Places or removes the block for cell i of the plan, relative to posX/posY/posZ
+	 * @return false if removal was aborted
+	 */
+	private final boolean applyCell(World world, PlacementPlan plan, int i, int posX, int posY, int posZ) {
+		int x = posX + plan.getX(i), y = posY + plan.getY(i), z = posZ + plan.getZ(i);
+
+		if (plan.isRemoval()) {
+			return removeBlockAt(world, plan.getFakeID(i), plan.getRealID(i), x, y, z, plan.getRotations());
+		}
+
+		setBlockAt(world, plan.getFakeID(i), plan.getRealID(i), plan.getMetadata(i), plan.getFlags(i), plan.getCustomData1(i), plan.getCustomData2(i), x, y, z);
+		return true;
+	}
 
-						int customData2 = (blockArray[y][x][z].length > 3 ? blockArray[y][x][z][3] : 0);
-						int meta = (blockArray[y][x][z].length > 1 ? blockArray[y][x][z][1] : 0);
+	/**
+	 * Places or removes every block in fill i of the plan, relative to posX/posY/posZ. Plain
+	 * blocks are queued as a single box when batch placement is enabled; anything else
+	 * (custom hooks, blocks placed only if free, post-gen blocks) is handled block by block.
+	 * @return false if removal was aborted
+	 */
+	private final boolean applyFill(World world, PlacementPlan plan, int i, int posX, int posY, int posZ) {
+		int x1 = posX + plan.getFill(i, PlacementPlan.FILL_MIN_X), x2 = posX + plan.getFill(i, PlacementPlan.FILL_MAX_X);
+		int y1 = posY + plan.getFill(i, PlacementPlan.FILL_MIN_Y), y2 = posY + plan.getFill(i, PlacementPlan.FILL_MAX_Y);
+		int z1 = posZ + plan.getFill(i, PlacementPlan.FILL_MIN_Z), z2 = posZ + plan.getFill(i, PlacementPlan.FILL_MAX_Z);
+		int realID = plan.getFill(i, PlacementPlan.FILL_REAL_ID), fakeID = plan.getFill(i, PlacementPlan.FILL_FAKE_ID);
+		int meta = plan.getFill(i, PlacementPlan.FILL_META), flags = plan.getFill(i, PlacementPlan.FILL_FLAGS);
+		int customData1 = plan.getFill(i, PlacementPlan.FILL_DATA1), customData2 = plan.getFill(i, PlacementPlan.FILL_DATA2);
+
+		if (!plan.isRemoval() && batchPlacement && realID >= 0 && Math.abs(fakeID) <= 4095
+				&& (flags & (BlockRotationData.FLAG_POST_GEN | BlockRotationData.FLAG_SET_METADATA | BlockRotationData.FLAG_NEEDS_SET_BLOCK)) == 0) {
+			if (!chunkClipping) {
+				batchPlacer.fill(x1, y1, z1, x2, y2, z2, Block.getBlockById(realID), meta);
+				return true;
+			}
 
-						setBlockAt(world, fakeID, realID, meta, customData1, customData2, rotX, rotY, rotZ);
+			// with chunk clipping, the box is split along chunk borders and each part placed or deferred
+			for (int cx = x1 >> 4; cx <= x2 >> 4; ++cx) {
+				for (int cz = z1 >> 4; cz <= z2 >> 4; ++cz) {
+					int bx1 = Math.max(x1, cx << 4), bx2 = Math.min(x2, (cx << 4) + 15);
+					int bz1 = Math.max(z1, cz << 4), bz2 = Math.min(z2, (cz << 4) + 15);
+					if (isChunkReady(world, cx, cz)) {
+						batchPlacer.fill(bx1, y1, bz1, bx2, y2, bz2, Block.getBlockById(realID), meta);
+						continue;
+					}
+					for (int y = y1; y <= y2; ++y) {
+						for (int x = bx1; x <= bx2; ++x) {
+							for (int z = bz1; z <= bz2; ++z) {
+								deferBlock(world, fakeID, realID, meta, flags, customData1, customData2, x, y, z);
+							}
+						}
+					}
+				}
+			}
+			return true;
+		}
+
+		for (int y = (plan.isRemoval() ? y2 : y1); (plan.isRemoval() ? y >= y1 : y <= y2); y = (plan.isRemoval() ? y - 1 : y + 1)) {
+			for (int x = x1; x <= x2; ++x) {
+				for (int z = z1; z <= z2; ++z) {
+					if (!plan.isRemoval()) {
+						setBlockAt(world, fakeID, realID, meta, flags, customData1, customData2, x, y, z);
+					} else if (!removeBlockAt(world, fakeID, realID, x, y, z, plan.getRotations())) {
+						return false;
 					}
 				}
 			}
@@ -454,53 +1306,176 @@ public abstract class StructureGeneratorBase extends WorldGenerator
 
 	/**
 	 * Handles setting block with fakeID at x/y/z in world.
-	 * Arguments should be those retrieved from blockArray
+	 * Arguments should be those retrieved from the plan, with metadata already rotated
 	 */
-	private final void setBlockAt(World world, int fakeID, int realID, int meta, int customData1, int customData2, int x, int y, int z) {
-		Block block = Block.getBlockById(realID);
-		if (realID >= 0 || world.isAirBlock(x, y, z) || !world.getBlock(x, y, z).getMaterial().blocksMovement()) {
-			if (BlockRotationData.getBlockRotationType(block) != null) {
-				int rotations = ((isOppositeAxis() ? structureFacing + 2 : structureFacing) + facing) % 4;
-				meta = GenHelper.getMetadata(rotations, block, meta);
-			}
+	private final void setBlockAt(World world, int fakeID, int realID, int meta, int flags, int customData1, int customData2, int x, int y, int z) {
+		if (chunkClipping && !isChunkReady(world, x >> 4, z >> 4)) {
+			deferBlock(world, fakeID, realID, meta, flags, customData1, customData2, x, y, z);
+			return;
+		}
 
-			if (BlockRotationData.getBlockRotationType(block) != null &&
-					(BlockRotationData.getBlockRotationType(block) == Rotation.WALL_MOUNTED ||
-					BlockRotationData.getBlockRotationType(block) == Rotation.LEVER))
-			{
+		Block block = Block.getBlockById(realID);
+		if (realID >= 0 || !getSnapshot().blocksMovement(x, y, z)) {
+			if ((flags & BlockRotationData.FLAG_POST_GEN) != 0) {
 				LogHelper.fine("Block " + block + " requires post-processing. Adding to list. Meta = " + meta);
 				postGenBlocks.add(new BlockData(x, y, z, fakeID, meta, customData1, customData2));
+			} else if (!batchPlacement) {
+				placeBlock(world, block, flags, meta, fakeID, customData1, customData2, x, y, z);
+			} else if ((flags & (BlockRotationData.FLAG_SET_METADATA | BlockRotationData.FLAG_NEEDS_SET_BLOCK)) == 0 && Math.abs(fakeID) <= 4095) {
+				batchPlacer.add(x, y, z, block, meta);
 			} else {
-				world.setBlock(x, y, z, block, meta, 2);
-				if (BlockRotationData.getBlockRotationType(block) != null) {
-					GenHelper.setMetadata(world, x, y, z, meta);
-				}
+				updateBlocks.add(new BlockData(x, y, z, fakeID, meta, customData1, customData2));
+			}
+		}
+	}
 
-				if (Math.abs(fakeID) > 4095) {
-					onCustomBlockAdded(world, x, y, z, fakeID, customData1, customData2);
-				}
+	/**
+	 * Returns true if blocks may be placed in the chunk now: it is loaded and already populated.
+	 * A chunk only becomes ready between calls to continueGeneration, once its pending blocks
+	 * have been placed, so blocks are always placed in the order planned.
+	 */
+	private final boolean isChunkReady(World world, int chunkX, int chunkZ) {
+		long key = ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ);
+		if (hasLastChunk && key == lastChunk) {
+			return lastChunkReady;
+		}
+
+		Boolean state = chunkStates.get(key);
+		if (state == null) {
+			boolean loaded = world.blockExists(chunkX << 4, 0, chunkZ << 4);
+			state = (loaded && world.getChunkFromChunkCoords(chunkX, chunkZ).isTerrainPopulated);
+			chunkStates.put(key, state);
+			if (!loaded && unloadedChunks.add(key)) {
+				++cascadesAvoided;
+			}
+		}
+
+		lastChunk = key;
+		lastChunkReady = state;
+		hasLastChunk = true;
+
+		return lastChunkReady;
+	}
+
+	/**
+	 * Stores the block at x/y/z to be placed once its chunk has been populated
+	 */
+	private final void deferBlock(World world, int fakeID, int realID, int meta, int flags, int customData1, int customData2, int x, int y, int z) {
+		int regionX = (x >> 4) & -PendingBlockStore.REGION_SIZE, regionZ = (z >> 4) & -PendingBlockStore.REGION_SIZE;
+		if (pendingStore == null || regionX != pendingRegionX || regionZ != pendingRegionZ) {
+			pendingStore = PendingBlockStore.get(world, x >> 4, z >> 4, true);
+			pendingRegionX = regionX;
+			pendingRegionZ = regionZ;
+		}
+
+		pendingStore.add(x, y, z, realID, fakeID, meta, flags, customData1, customData2, getPendingName());
+		++deferredBlocks;
+	}
+
+	/**
+	 * Sets the block at x/y/z using World.setBlock, fixes its metadata if needed and
+	 * triggers onCustomBlockAdded for custom hooks
+	 */
+	private final void placeBlock(World world, Block block, int flags, int meta, int fakeID, int customData1, int customData2, int x, int y, int z) {
+		if (isUnchanged(fakeID, block, meta, x, y, z)) {
+			return;
+		}
+
+		world.setBlock(x, y, z, block, meta, 2);
+		if (snapshot != null) {
+			snapshot.setBlock(x, y, z, block, meta);
+		}
+		if ((flags & BlockRotationData.FLAG_SET_METADATA) != 0) {
+			GenHelper.setMetadata(world, x, y, z, meta);
+		}
+
+		if (Math.abs(fakeID) > 4095) {
+			onCustomBlockAdded(world, x, y, z, fakeID, customData1, customData2);
+			if (snapshot != null) {
+				snapshot.invalidate(x, y, z);
+			}
+		}
+	}
+
+	/**
+	 * Returns the snapshot of the structure's bounds, making it the first time it is needed:
+	 * only negative ids, removal and skipUnchanged, in placement or post-gen, read the world
+	 */
+	private final WorldSnapshot getSnapshot() {
+		if (snapshot == null) {
+			int[] b = snapshotBounds;
+			snapshot = new WorldSnapshot(genWorld, b[0], b[1], b[2], b[3], b[4], b[5]);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Returns true, counting the block as skipped, if skipping unchanged blocks and the world
+	 * already holds the block given with the same metadata; blocks with custom hooks never are
+	 */
+	private final boolean isUnchanged(int fakeID, Block block, int meta, int x, int y, int z) {
+		if (skipUnchanged && Math.abs(fakeID) <= 4095 && getSnapshot().getBlock(x, y, z) == block && snapshot.getMetadata(x, y, z) == meta) {
+			++skippedWrites;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Writes all batched blocks into the world, then sets the blocks that required World.setBlock
+	 */
+	private final void doBatchPlacement(World world) {
+		int chunks = batchPlacer.getChunkCount();
+		int[] bounds = batchPlacer.getBounds();
+		long flushStart = System.nanoTime();
+		int written = batchPlacer.flush(world, !deferredLighting);
+		skippedWrites += batchPlacer.getSkippedCount();
+		if (!deferredLighting) {
+			blocksRelit += batchPlacer.getRelitCount();
+		}
+		if (snapshot != null) {
+			snapshot.clear();
+		}
+		LogHelper.fine("Batch placed " + written + " blocks in " + chunks + " chunks in " + ((System.nanoTime() - flushStart) / 1000000) + "ms" +
+				(deferredLighting ? "" : " (relit block by block)") + "; " + updateBlocks.size() + " blocks require updates");
+
+		if (deferredLighting && bounds != null) {
+			long start = System.nanoTime();
+			lighter.relight(world, bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5], StructureLighter.DEFAULT_MARGIN);
+			cellsRelit += lighter.getCellsRelit();
+			lightUpdates += lighter.getLightUpdates();
+			LogHelper.fine("Relit " + lighter.getCellsRelit() + " cells with " + lighter.getLightUpdates() + " light updates in " + ((System.nanoTime() - start) / 1000000) + "ms");
+		}
+
+		for (BlockData data : updateBlocks) {
+			int fakeID = data.getBlockID();
+			int realID = (Math.abs(fakeID) > 4095 ? getRealBlockID(fakeID, data.getCustomData1()) : fakeID);
+			if (Math.abs(realID) > 4095) {
+				LogHelper.warning("Invalid block ID. Initial ID: " + fakeID + ", returned id from getRealID: " + realID);
+				continue;
 			}
+
+			placeBlock(world, Block.getBlockById(realID), BlockRotationData.getBlockFlags(realID), data.getMetaData(),
+					fakeID, data.getCustomData1(), data.getCustomData2(), data.getPosX(), data.getPosY(), data.getPosZ());
 		}
+
+		updateBlocks.clear();
 	}
 
 	/**
-	 * Removes block at x/y/z and cleans up any items/entities that may be left behind
-	 * Returns false if realID is mismatched with world's blockID at x/y/z
+	 * Removes block at x/y/z; any items/entities that may be left behind are cleaned up by the
+	 * next entity sweep. Returns false if realID is mismatched with world's blockID at x/y/z
 	 */
 	private final boolean removeBlockAt(World world, int fakeID, int realID, int x, int y, int z, int rotations) {
 		Block realBlock = Block.getBlockById(Math.abs(realID));
-		Block worldBlock = world.getBlock(x, y, z);
+		Block worldBlock = getSnapshot().getBlock(x, y, z);
 
 		if (realBlock == null || worldBlock == null || (realID < 0 && worldBlock != realBlock)) {
 			return true;
 		} else if (realBlock == worldBlock || GenHelper.materialsMatch(realBlock, worldBlock)) {
 			world.setBlockToAir(x, y, z);
-			List <Entity> list = world.getEntitiesWithinAABB(Entity.class, GenHelper.getHangingEntityAxisAligned(x, y, z, Direction.directionToFacing[rotations]).expand(1.0F, 1.0F, 1.0F));
-			for (Entity entity : list) {
-				if (!(entity instanceof EntityPlayer)) {
-					entity.setDead();
-				}
-			}
+			snapshot.setBlock(x, y, z, Blocks.air, 0);
+			entitySweep.add(x, y, z, Direction.directionToFacing[rotations]);
 		} else {
 			LogHelper.info("Incorrect location for structure removal, aborting. Last block id checked: world " + worldBlock + ", real " + realID + ", fake " + fakeID);
 			return false;
@@ -525,17 +1500,26 @@ public abstract class StructureGeneratorBase extends WorldGenerator
 
 			LogHelper.fine("Post-gen processing for initial ID: " + fakeID + ", returned id from getRealID: " + realID);
 			Block realBlock = Block.getBlockById(Math.abs(realID));
-			if (realID >= 0 || world.isAirBlock(block.getPosX(), block.getPosY(), block.getPosZ())
-					|| !world.getBlock(block.getPosX(), block.getPosY(), block.getPosZ()).getMaterial().blocksMovement())
+			int x = block.getPosX(), y = block.getPosY(), z = block.getPosZ();
+			if ((realID >= 0 || !getSnapshot().blocksMovement(x, y, z)) && !isUnchanged(fakeID, realBlock, block.getMetaData(), x, y, z))
 			{
-				world.setBlock(block.getPosX(), block.getPosY(), block.getPosZ(), realBlock, block.getMetaData(), 3);
+				// neighbors are not notified with chunk clipping, as they may be in chunks not yet generated
+				world.setBlock(x, y, z, realBlock, block.getMetaData(), chunkClipping ? 2 : 3);
 
-				if (world.getBlockMetadata(block.getPosX(), block.getPosY(), block.getPosZ()) != block.getMetaData()) {
-					LogHelper.warning("Mismatched metadata. Meta from world: " + world.getBlockMetadata(block.getPosX(), block.getPosY(), block.getPosZ()) + ", original: " + block.getMetaData());
+				// blocks such as torches may adjust their own metadata when placed
+				int meta = world.getBlockMetadata(x, y, z);
+				if (snapshot != null) {
+					snapshot.setBlock(x, y, z, realBlock, meta);
+				}
+				if (meta != block.getMetaData()) {
+					LogHelper.warning("Mismatched metadata. Meta from world: " + meta + ", original: " + block.getMetaData());
 				}
 
 				if (Math.abs(fakeID) > 4095) {
-					onCustomBlockAdded(world, block.getPosX(), block.getPosY(), block.getPosZ(), fakeID, block.getCustomData1(), block.getCustomData2());
+					onCustomBlockAdded(world, x, y, z, fakeID, block.getCustomData1(), block.getCustomData2());
+					if (snapshot != null) {
+						snapshot.invalidate(x, y, z);
+					}
 				}
 			}
 		}
@@ -544,16 +1528,53 @@ public abstract class StructureGeneratorBase extends WorldGenerator
 	}
 
 	/**
-	 * Adjusts offsetX and offsetZ amounts to compensate for manual rotation
+	 * Reads the structure's saved tile entity contents (see Structure.addTileEntity) into the
+	 * tile entities now at their rotated positions. Positions in chunks that are not loaded,
+	 * or where no tile entity was placed, are skipped.
 	 */
-	private final void setOffsetFromRotation() {
-		int x, z;
-		for (int i = 0; i < manualRotations; ++i) {
-			x = -offsetZ;
-			z = offsetX;
-			offsetX = x;
-			offsetZ = z;
+	private final void restoreTileEntities(World world) {
+		if (structure == null || structure.getTileEntities().isEmpty()) {
+			return;
+		}
+
+		int rotations = ((isOppositeAxis() ? structureFacing + 2 : structureFacing) + facing) % 4;
+		int[] offsets = getRotatedOffsets();
+		int restored = 0;
+		for (TileEntityData data : structure.getTileEntities()) {
+			CompiledLayer layer = null;
+			int layerY = data.getPosY();
+			for (CompiledLayer l : blockArrayList) {
+				if (layerY < l.getHeight()) {
+					layer = l;
+					break;
+				}
+				layerY -= l.getHeight();
+			}
+			if (layer == null || layerY < 0) {
+				continue;
+			}
+
+			int dx = data.getPosX() - layer.getWidthX() / 2 + offsets[0], dz = data.getPosZ() - layer.getWidthZ() / 2 + offsets[2];
+			int x = genX + (rotations == 0 ? dx : rotations == 1 ? -dz : rotations == 2 ? -dx : dz);
+			int y = genY + data.getPosY() + offsets[1];
+			int z = genZ + (rotations == 0 ? dz : rotations == 1 ? dx : rotations == 2 ? -dz : -dx);
+			TileEntity tile = (world.blockExists(x, y, z) ? world.getTileEntity(x, y, z) : null);
+			if (tile == null) {
+				continue;
+			}
+
+			try {
+				tile.readFromNBT(data.getTagAt(x, y, z));
+			} catch (IOException e) {
+				LogHelper.warning("Could not read tile entity data for " + x + "/" + y + "/" + z + ": " + e.getMessage());
+				continue;
+			}
+			tile.markDirty();
+			world.markBlockForUpdate(x, y, z);
+			++restored;
 		}
+
+		LogHelper.fine("Restored " + restored + " of " + structure.getTileEntities().size() + " tile entities");
 	}
 
 	/**
@@ -561,7 +1582,11 @@ public abstract class StructureGeneratorBase extends WorldGenerator
 	 */
 	private final void reset() {
 		blockArrayList.clear();
+		structure = null;
 		blockArray = null;
+		palette = new BlockPalette();
+		batchPlacer.clear();
+		updateBlocks.clear();
 		offsetX = offsetY = offsetZ = 0;
 	}
 }
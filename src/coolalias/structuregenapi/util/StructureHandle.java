@@ -0,0 +1,54 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.io.IOException;
+
+/**
+ * 
+ * Refers to a structure registered with a StructureRegistry by name. Keep handles rather than
+ * Structures, so that the registry may drop structures that have not been used for a while.
+ *
+ */
+public final class StructureHandle
+{
+	private final StructureRegistry registry;
+	private final String name;
+
+	StructureHandle(StructureRegistry registry, String name) {
+		this.registry = registry;
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the structure, loading it if it is not currently in memory. Don't keep the
+	 * result for longer than needed.
+	 */
+	public Structure get() throws IOException {
+		return registry.get(name);
+	}
+
+	@Override
+	public String toString() {
+		return "StructureHandle[" + name + "]";
+	}
+}
@@ -0,0 +1,392 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.Arrays;
+
+import net.minecraft.block.Block;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+/**
+ *
+ * Recomputes sky and block light from scratch over a box of the world in a single pass,
+ * rather than once for every block changed inside of it. Block data is read and light is
+ * written section by section directly from the chunk storage; light entering the box from
+ * outside is taken from the blocks bordering it.
+ *
+ * Light travels at most 15 blocks, so with a margin of 15 around the changed area the result
+ * is the same as relighting every block individually; a smaller margin is faster, but may
+ * leave stale light around the edges where light sources were removed. Direct sky light is
+ * the exception, as it reaches straight down any distance: when the box covers a column that
+ * was open to the sky, the box is extended down past the full-strength sky light left below
+ * it, so that anything built over it is darkened as well.
+ *
+ * All reads and writes of the world go through a handful of package-private methods, which
+ * tests override to light a stand-in world.
+ *
+ */
+public class StructureLighter
+{
+	/** Margin at which relighting the box is exact */
+	public static final int DEFAULT_MARGIN = 15;
+
+	/** Box being relit, inclusive */
+	private int minX, minY, minZ, maxX, maxY, maxZ;
+
+	/** Size of the box along each axis */
+	private int sizeX, sizeY, sizeZ;
+
+	/** Light opacity and light value of each block in the box, indexed (y * sizeZ + z) * sizeX + x */
+	private byte[] opacity, emission;
+
+	/** Computed sky and block light for each block in the box */
+	private byte[] skyLight, blockLight;
+
+	/** Indices of cells whose light needs to be spread to their neighbors */
+	private int[] queue = new int[4096];
+
+	/** Number of cells relit and number of times light was spread during the last relight */
+	private long cellsRelit, lightUpdates;
+
+	public StructureLighter() {}
+
+	/**
+	 * Returns the number of cells relit during the last call to relight
+	 */
+	public final long getCellsRelit() {
+		return cellsRelit;
+	}
+
+	/**
+	 * Returns the number of times light spread from one cell to another during the last call to relight
+	 */
+	public final long getLightUpdates() {
+		return lightUpdates;
+	}
+
+	/**
+	 * Recomputes all light within the box given, expanded by margin in every direction and,
+	 * in worlds with sky light, down past any direct sky light the box now covers
+	 */
+	public final void relight(World world, int x1, int y1, int z1, int x2, int y2, int z2, int margin) {
+		minX = Math.min(x1, x2) - margin;
+		minY = Math.max(0, Math.min(y1, y2) - margin);
+		minZ = Math.min(z1, z2) - margin;
+		maxX = Math.max(x1, x2) + margin;
+		maxY = Math.min(255, Math.max(y1, y2) + margin);
+		maxZ = Math.max(z1, z2) + margin;
+		boolean hasSky = hasSky(world);
+		if (hasSky) {
+			minY = Math.max(0, Math.min(minY, findStaleSkyLight(world) - margin));
+		}
+		sizeX = maxX - minX + 1;
+		sizeY = maxY - minY + 1;
+		sizeZ = maxZ - minZ + 1;
+		cellsRelit = lightUpdates = 0;
+		if (sizeY <= 0) {
+			return;
+		}
+
+		int cells = sizeX * sizeY * sizeZ;
+		opacity = new byte[cells];
+		emission = new byte[cells];
+		blockLight = new byte[cells];
+		skyLight = new byte[cells];
+
+		readBlocks(world);
+
+		if (hasSky) {
+			seedSkyLight(world);
+			seedBorder(world, EnumSkyBlock.Sky, skyLight);
+			spreadLight(skyLight);
+		}
+
+		for (int i = 0; i < cells; ++i) {
+			blockLight[i] = emission[i];
+		}
+		seedBorder(world, EnumSkyBlock.Block, blockLight);
+		spreadLight(blockLight);
+
+		writeLight(world, hasSky);
+		markForRenderUpdate(world);
+		cellsRelit = cells;
+		opacity = emission = skyLight = blockLight = null;
+	}
+
+	private int index(int x, int y, int z) {
+		return (y * sizeZ + z) * sizeX + x;
+	}
+
+	/**
+	 * Returns the lowest y of the direct sky light left below the box in columns that something
+	 * now covers: light 15 under the height map, which only relighting the column can darken
+	 */
+	private int findStaleSkyLight(World world) {
+		int lowest = minY;
+		for (int x = minX; x <= maxX; ++x) {
+			for (int z = minZ; z <= maxZ; ++z) {
+				if (!isLoaded(world, x, z)) {
+					continue;
+				}
+				int height = getHeight(world, x, z);
+				for (int y = Math.min(minY, height) - 1; y >= 0 && getSavedLight(world, EnumSkyBlock.Sky, x, y, z) == 15; --y) {
+					lowest = y;
+				}
+			}
+		}
+		return lowest;
+	}
+
+	/**
+	 * Reads the opacity and light value of every block in the box, one chunk at a time.
+	 * Blocks in chunks that are not loaded are treated as opaque so no light passes through them.
+	 */
+	private void readBlocks(World world) {
+		Arrays.fill(opacity, (byte) 15);
+		for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+			for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+				if (isLoaded(world, cx << 4, cz << 4)) {
+					readChunk(world, cx, cz);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets direct sky light straight down each column, starting from the light above the box
+	 */
+	private void seedSkyLight(World world) {
+		for (int z = 0; z < sizeZ; ++z) {
+			for (int x = 0; x < sizeX; ++x) {
+				int light = (maxY < 255 ? getWorldLight(world, EnumSkyBlock.Sky, minX + x, maxY + 1, minZ + z) : 15);
+				for (int y = sizeY - 1; y >= 0 && light > 0; --y) {
+					int i = index(x, y, z);
+					if (light < 15 || opacity[i] > 0) {
+						light = Math.max(0, light - Math.max(1, opacity[i]));
+					}
+					skyLight[i] = (byte) light;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lets light from the blocks surrounding the box into the cells along each of its faces
+	 */
+	private void seedBorder(World world, EnumSkyBlock type, byte[] light) {
+		for (int y = 0; y < sizeY; ++y) {
+			for (int z = 0; z < sizeZ; ++z) {
+				seedFrom(world, type, light, index(0, y, z), minX - 1, minY + y, minZ + z);
+				seedFrom(world, type, light, index(sizeX - 1, y, z), maxX + 1, minY + y, minZ + z);
+			}
+			for (int x = 0; x < sizeX; ++x) {
+				seedFrom(world, type, light, index(x, y, 0), minX + x, minY + y, minZ - 1);
+				seedFrom(world, type, light, index(x, y, sizeZ - 1), minX + x, minY + y, maxZ + 1);
+			}
+		}
+		for (int z = 0; z < sizeZ; ++z) {
+			for (int x = 0; x < sizeX; ++x) {
+				seedFrom(world, type, light, index(x, 0, z), minX + x, minY - 1, minZ + z);
+				seedFrom(world, type, light, index(x, sizeY - 1, z), minX + x, maxY + 1, minZ + z);
+			}
+		}
+	}
+
+	private void seedFrom(World world, EnumSkyBlock type, byte[] light, int i, int x, int y, int z) {
+		if (y < 0 || y > 255) {
+			return;
+		}
+		int value = getWorldLight(world, type, x, y, z) - Math.max(1, opacity[i]);
+		if (value > light[i]) {
+			light[i] = (byte) value;
+		}
+	}
+
+	private int getWorldLight(World world, EnumSkyBlock type, int x, int y, int z) {
+		return isLoaded(world, x, z) ? getSavedLight(world, type, x, y, z) : 0;
+	}
+
+	/**
+	 * Spreads light from every lit cell to its neighbors until no cell can get any brighter
+	 */
+	private void spreadLight(byte[] light) {
+		int head = 0, tail = 0;
+		for (int i = 0; i < light.length; ++i) {
+			if (light[i] > 1) {
+				if (tail == queue.length) {
+					queue = Arrays.copyOf(queue, queue.length * 2);
+				}
+				queue[tail++] = i;
+			}
+		}
+
+		int strideY = sizeX * sizeZ;
+		while (head < tail) {
+			int i = queue[head++];
+			int value = light[i];
+			int x = i % sizeX, z = (i / sizeX) % sizeZ, y = i / strideY;
+
+			for (int side = 0; side < 6; ++side) {
+				int n;
+				switch(side) {
+				case 0: if (x == 0) continue; n = i - 1; break;
+				case 1: if (x == sizeX - 1) continue; n = i + 1; break;
+				case 2: if (z == 0) continue; n = i - sizeX; break;
+				case 3: if (z == sizeZ - 1) continue; n = i + sizeX; break;
+				case 4: if (y == 0) continue; n = i - strideY; break;
+				default: if (y == sizeY - 1) continue; n = i + strideY; break;
+				}
+
+				int spread = value - Math.max(1, opacity[n]);
+				if (spread > light[n]) {
+					light[n] = (byte) spread;
+					++lightUpdates;
+					if (spread > 1) {
+						if (tail == queue.length) {
+							if (head > 0) {
+								System.arraycopy(queue, head, queue, 0, tail - head);
+								tail -= head;
+								head = 0;
+							}
+							if (tail == queue.length) {
+								queue = Arrays.copyOf(queue, queue.length * 2);
+							}
+						}
+						queue[tail++] = n;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the computed light back into each loaded chunk
+	 */
+	private void writeLight(World world, boolean hasSky) {
+		for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+			for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+				if (isLoaded(world, cx << 4, cz << 4)) {
+					writeChunk(world, cx, cz, hasSky);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the box contains the given position
+	 */
+	final boolean contains(int x, int y, int z) {
+		return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+	}
+
+	/**
+	 * Sets the opacity and light value of a block inside the box; called while reading a chunk
+	 */
+	final void setBlock(int x, int y, int z, int lightOpacity, int lightValue) {
+		int i = index(x - minX, y - minY, z - minZ);
+		opacity[i] = (byte) Math.min(15, lightOpacity);
+		emission[i] = (byte) Math.min(15, lightValue);
+	}
+
+	/**
+	 * Returns the light computed for a block inside the box; called while writing a chunk
+	 */
+	final int getLight(EnumSkyBlock type, int x, int y, int z) {
+		int i = index(x - minX, y - minY, z - minZ);
+		return (type == EnumSkyBlock.Sky ? skyLight[i] : blockLight[i]);
+	}
+
+	boolean hasSky(World world) {
+		return !world.provider.hasNoSky;
+	}
+
+	boolean isLoaded(World world, int x, int z) {
+		return world.blockExists(x, 0, z);
+	}
+
+	int getHeight(World world, int x, int z) {
+		return world.getHeightValue(x, z);
+	}
+
+	int getSavedLight(World world, EnumSkyBlock type, int x, int y, int z) {
+		return world.getSavedLightValue(type, x, y, z);
+	}
+
+	/**
+	 * Reads every block of the box within the given chunk, one section at a time
+	 */
+	void readChunk(World world, int cx, int cz) {
+		ExtendedBlockStorage[] storage = world.getChunkFromChunkCoords(cx, cz).getBlockStorageArray();
+		for (int s = minY >> 4; s <= maxY >> 4; ++s) {
+			ExtendedBlockStorage section = storage[s];
+			int y0 = Math.max(minY, s << 4), y1 = Math.min(maxY, (s << 4) + 15);
+			int x0 = Math.max(minX, cx << 4), x1 = Math.min(maxX, (cx << 4) + 15);
+			int z0 = Math.max(minZ, cz << 4), z1 = Math.min(maxZ, (cz << 4) + 15);
+			for (int y = y0; y <= y1; ++y) {
+				for (int z = z0; z <= z1; ++z) {
+					for (int x = x0; x <= x1; ++x) {
+						if (section == null) {
+							setBlock(x, y, z, 0, 0);
+						} else {
+							Block block = section.getBlockByExtId(x & 15, y & 15, z & 15);
+							setBlock(x, y, z, block.getLightOpacity(), block.getLightValue());
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the light computed for the box within the given chunk into its sections
+	 * and marks the chunk as modified
+	 */
+	void writeChunk(World world, int cx, int cz, boolean hasSky) {
+		Chunk chunk = world.getChunkFromChunkCoords(cx, cz);
+		ExtendedBlockStorage[] storage = chunk.getBlockStorageArray();
+		for (int s = minY >> 4; s <= maxY >> 4; ++s) {
+			ExtendedBlockStorage section = storage[s];
+			if (section == null) {
+				continue; // empty sections use the default light values
+			}
+
+			int y0 = Math.max(minY, s << 4), y1 = Math.min(maxY, (s << 4) + 15);
+			int x0 = Math.max(minX, cx << 4), x1 = Math.min(maxX, (cx << 4) + 15);
+			int z0 = Math.max(minZ, cz << 4), z1 = Math.min(maxZ, (cz << 4) + 15);
+			for (int y = y0; y <= y1; ++y) {
+				for (int z = z0; z <= z1; ++z) {
+					for (int x = x0; x <= x1; ++x) {
+						int i = index(x - minX, y - minY, z - minZ);
+						if (hasSky) {
+							section.setExtSkylightValue(x & 15, y & 15, z & 15, skyLight[i]);
+						}
+						section.setExtBlocklightValue(x & 15, y & 15, z & 15, blockLight[i]);
+					}
+				}
+			}
+		}
+		chunk.setChunkModified();
+	}
+
+	void markForRenderUpdate(World world) {
+		world.markBlockRangeForRenderUpdate(minX, minY, minZ, maxX, maxY, maxZ);
+	}
+}
@@ -0,0 +1,147 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * Shares a single copy of each distinct layer between every structure passed through it,
+ * so foundations, floors and roofs used by many structures are only kept in memory once.
+ * Layers are matched by content (see CompiledLayer.equals), whatever palette they use; the
+ * shared copy has a small palette of its own and is never modified.
+ *
+ * When splitting is enabled, rectangular layers are first cut into slices of SECTION_HEIGHT
+ * rows, so that identical floors within larger layers are shared as well. This changes the
+ * number of layers, so StructureDiffs must be computed against the pooled structure. Blocks
+ * are still placed and removed in the same order, as removal goes from the top layer down.
+ *
+ * All methods may be called from any thread.
+ *
+ */
+public class StructurePool
+{
+	/** Height of the slices layers are cut into when splitting is enabled */
+	public static final int SECTION_HEIGHT = 16;
+
+	/** Shared copy of each distinct layer */
+	private final Map<CompiledLayer, CompiledLayer> layers = new HashMap<CompiledLayer, CompiledLayer>();
+
+	/** Whether rectangular layers are cut into slices of SECTION_HEIGHT rows */
+	private final boolean splitLayers;
+
+	/** Number of layers interned and the number of those that were already in the pool */
+	private int interned = 0, shared = 0;
+
+	/** Estimated size of every layer interned, and of the distinct layers kept including their palettes */
+	private long requestedBytes = 0, storedBytes = 0;
+
+	public StructurePool() {
+		this(false);
+	}
+
+	/**
+	 * @param splitLayers True to cut rectangular layers into slices of SECTION_HEIGHT rows
+	 */
+	public StructurePool(boolean splitLayers) {
+		this.splitLayers = splitLayers;
+	}
+
+	/**
+	 * Returns the shared copy of the layer given, adding a copy to the pool if it has none
+	 */
+	public final synchronized CompiledLayer intern(CompiledLayer layer) {
+		CompiledLayer pooled = layers.get(layer);
+		++interned;
+		if (pooled == null) {
+			pooled = layer.copyRows(0, layer.getHeight());
+			layers.put(pooled, pooled);
+			storedBytes += getSize(pooled);
+		} else {
+			++shared;
+		}
+
+		requestedBytes += layer.getSizeInBytes() + layer.getMappedSizeInBytes();
+		return pooled;
+	}
+
+	/**
+	 * Returns a new structure with the same name, facing, offsets and primitives as the one given,
+	 * made of shared layers; use it in place of the original so the original may be freed
+	 */
+	public final Structure intern(Structure structure) {
+		Structure result = new Structure(structure.name);
+		result.setFacing(structure.getFacing());
+		result.setStructureOffset(structure.getOffsetX(), structure.getOffsetY(), structure.getOffsetZ());
+		for (CompiledLayer layer : structure.getLayers()) {
+			if (splitLayers && layer.isRectangular() && layer.getHeight() > SECTION_HEIGHT) {
+				for (int y = 0; y < layer.getHeight(); y += SECTION_HEIGHT) {
+					result.addLayer(intern(layer.copyRows(y, Math.min(layer.getHeight(), y + SECTION_HEIGHT))));
+				}
+			} else {
+				result.addLayer(intern(layer));
+			}
+		}
+		for (StructurePrimitive primitive : structure.getPrimitives()) {
+			result.addPrimitive(primitive.getLayer() != null ? primitive.withLayer(intern(primitive.getLayer())) : primitive);
+		}
+
+		return result;
+	}
+
+	private static long getSize(CompiledLayer layer) {
+		return layer.getSizeInBytes() + layer.getPalette().getSizeInBytes();
+	}
+
+	/**
+	 * Returns the number of distinct layers in the pool
+	 */
+	public final synchronized int size() {
+		return layers.size();
+	}
+
+	/**
+	 * Returns the number of layers interned so far
+	 */
+	public final synchronized int getInternedCount() {
+		return interned;
+	}
+
+	/**
+	 * Returns the number of layers interned that were already in the pool
+	 */
+	public final synchronized int getSharedCount() {
+		return shared;
+	}
+
+	/**
+	 * Returns the estimated memory saved by sharing layers, in bytes, compared to keeping
+	 * every layer interned; the palettes of the original structures are not counted
+	 */
+	public final synchronized long getBytesSaved() {
+		return requestedBytes - storedBytes;
+	}
+
+	/**
+	 * Logs the number of layers shared and the memory saved
+	 */
+	public final synchronized void logStatistics() {
+		LogHelper.info("Structure pool: " + layers.size() + " distinct layers kept for " + interned + " interned, " + shared + " shared, about " + (getBytesSaved() / 1024L) + "KB saved");
+	}
+}
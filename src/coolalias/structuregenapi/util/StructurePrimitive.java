@@ -0,0 +1,224 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.Arrays;
+
+/**
+ *
+ * A bulk operation stored in a Structure instead of being spelled out cell by cell:
+ * a box filled with one block, a hollow box, or a layer repeated several times up the y axis.
+ * Coordinates are blockArray indices, [y][x][z], with y counted from the bottom of the
+ * structure's first layer; see Structure.addFill, addHollowBox and addRepeatedBlockArray.
+ *
+ * Primitives are generated in the order they were added, before the structure's layers,
+ * and removed after them. Fills are planned as a single box each rather than per cell.
+ * Primitives are never modified once created.
+ *
+ */
+public class StructurePrimitive
+{
+	public static enum Type {
+		/** Every cell of the box is set to the tuple */
+		FILL,
+		/** The faces of the box are set to the tuple, and the inside to the interior tuple if given */
+		HOLLOW_BOX,
+		/** The layer is placed 'count' times, starting at minY and moving up by strideY each time */
+		REPEAT
+	}
+
+	private final Type type;
+
+	/** Box covered by a fill or hollow box, inclusive; for a repeat, minY is the y of the first copy */
+	private final int minX, minY, minZ, maxX, maxY, maxZ;
+
+	/** Palette holding the tuple and interior tuple of a fill or hollow box; null for a repeat */
+	private final BlockPalette palette;
+
+	/** Palette index of the tuple, and of the interior tuple or -1 if the inside is left alone */
+	private final int tuple, interior;
+
+	/** Layer placed by a repeat, or null */
+	private final CompiledLayer layer;
+
+	/** Number of times and distance along y at which a repeat places its layer */
+	private final int count, strideY;
+
+	/**
+	 * Creates a fill or hollow box; the corners may be given in any order
+	 */
+	StructurePrimitive(Type type, int x1, int y1, int z1, int x2, int y2, int z2, int[] tuple, int[] interior) {
+		if (Math.min(x1, x2) < 0 || Math.min(y1, y2) < 0 || Math.min(z1, z2) < 0) {
+			throw new IllegalArgumentException("Primitive coordinates must not be negative");
+		}
+		this.type = type;
+		this.minX = Math.min(x1, x2);
+		this.minY = Math.min(y1, y2);
+		this.minZ = Math.min(z1, z2);
+		this.maxX = Math.max(x1, x2);
+		this.maxY = Math.max(y1, y2);
+		this.maxZ = Math.max(z1, z2);
+		this.palette = new BlockPalette();
+		this.tuple = palette.getIndex(tuple);
+		this.interior = (interior != null ? palette.getIndex(interior) : -1);
+		this.layer = null;
+		this.count = 1;
+		this.strideY = 0;
+	}
+
+	/**
+	 * Creates a repeat of the layer given
+	 */
+	StructurePrimitive(CompiledLayer layer, int y, int count, int strideY) {
+		if (y < 0 || count < 1 || strideY < 1) {
+			throw new IllegalArgumentException("Invalid repeat: y = " + y + ", count = " + count + ", stride = " + strideY);
+		}
+		this.type = Type.REPEAT;
+		this.minX = this.minZ = 0;
+		this.maxX = Math.max(0, layer.getMaxX() - 1);
+		this.maxZ = Math.max(0, layer.getMaxZ() - 1);
+		this.minY = y;
+		this.maxY = y + (count - 1) * strideY + layer.getHeight() - 1;
+		this.palette = null;
+		this.tuple = this.interior = -1;
+		this.layer = layer;
+		this.count = count;
+		this.strideY = strideY;
+	}
+
+	/**
+	 * Returns a repeat like this one with the layer given in place of its own
+	 */
+	final StructurePrimitive withLayer(CompiledLayer layer) {
+		return new StructurePrimitive(layer, minY, count, strideY);
+	}
+
+	public final Type getType() {
+		return type;
+	}
+
+	public final int getMinX() {
+		return minX;
+	}
+
+	public final int getMinY() {
+		return minY;
+	}
+
+	public final int getMinZ() {
+		return minZ;
+	}
+
+	public final int getMaxX() {
+		return maxX;
+	}
+
+	/**
+	 * Returns the top of the box, or of the highest copy of a repeated layer
+	 */
+	public final int getMaxY() {
+		return maxY;
+	}
+
+	public final int getMaxZ() {
+		return maxZ;
+	}
+
+	/**
+	 * Returns the palette of a fill or hollow box, or null for a repeat
+	 */
+	public final BlockPalette getPalette() {
+		return palette;
+	}
+
+	/**
+	 * Returns the palette index of the tuple set by a fill or hollow box
+	 */
+	public final int getTupleIndex() {
+		return tuple;
+	}
+
+	/**
+	 * Returns the palette index of a hollow box's interior tuple, or -1 if the inside is left alone
+	 */
+	public final int getInteriorIndex() {
+		return interior;
+	}
+
+	/**
+	 * Returns the layer placed by a repeat, or null
+	 */
+	public final CompiledLayer getLayer() {
+		return layer;
+	}
+
+	public final int getCount() {
+		return count;
+	}
+
+	public final int getStrideY() {
+		return strideY;
+	}
+
+	/**
+	 * Returns an approximation of the heap memory used by this primitive
+	 */
+	public final long getSizeInBytes() {
+		return 64L + (palette != null ? palette.getSizeInBytes() : 0) + (layer != null ? layer.getSizeInBytes() : 0);
+	}
+
+	/**
+	 * Returns the number of bytes of this primitive's layer used straight from a memory-mapped file
+	 */
+	public final long getMappedSizeInBytes() {
+		return (layer != null ? layer.getMappedSizeInBytes() : 0);
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = type.ordinal();
+		hash = 31 * hash + Arrays.hashCode(new int[] {minX, minY, minZ, maxX, maxY, maxZ, count, strideY});
+		if (palette != null) {
+			hash = 31 * hash + Arrays.hashCode(palette.getEntry(tuple));
+			hash = 31 * hash + (interior >= 0 ? Arrays.hashCode(palette.getEntry(interior)) : -1);
+		}
+		return 31 * hash + (layer != null ? layer.hashCode() : 0);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof StructurePrimitive)) {
+			return false;
+		}
+
+		StructurePrimitive p = (StructurePrimitive) obj;
+		if (type != p.type || minX != p.minX || minY != p.minY || minZ != p.minZ || maxX != p.maxX
+				|| maxY != p.maxY || maxZ != p.maxZ || count != p.count || strideY != p.strideY) {
+			return false;
+		}
+		if (layer != null) {
+			return layer.equals(p.layer);
+		}
+
+		return Arrays.equals(palette.getEntry(tuple), p.palette.getEntry(p.tuple))
+				&& (interior < 0 ? p.interior < 0 : p.interior >= 0 && Arrays.equals(palette.getEntry(interior), p.palette.getEntry(p.interior)));
+	}
+}
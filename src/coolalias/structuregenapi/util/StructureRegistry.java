@@ -0,0 +1,295 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ * Hands out StructureHandles by name and loads each structure only when it is first used,
+ * keeping loaded structures in memory up to a budget in bytes (see Structure.getSizeInBytes).
+ * Once the budget is exceeded, the least recently used structures are dropped and will be
+ * loaded again from their source the next time they are needed. The most recently used
+ * structure is always kept, even if it alone exceeds the budget.
+ *
+ * Only heap memory counts towards the budget: the layers of structures loaded from a file are
+ * memory-mapped, and are paged in and out by the operating system rather than held on the heap.
+ * The mapped bytes of loaded structures are reported separately by getMappedBytes.
+ *
+ * Structures may be registered from a file, an archive or any IStructureSource. A dropped
+ * structure is freed once nothing else refers to it; PlacementPlanCaches only hold structures
+ * weakly and drop their plans for it once it has been collected.
+ * All methods may be called from any thread.
+ *
+ */
+public class StructureRegistry
+{
+	/** Default budget for loaded structures: 64MB */
+	public static final long DEFAULT_BUDGET = 64L * 1024L * 1024L;
+
+	/** Source for each registered name */
+	private final Map<String, IStructureSource> sources = new HashMap<String, IStructureSource>();
+
+	/** Handle for each registered name */
+	private final Map<String, StructureHandle> handles = new HashMap<String, StructureHandle>();
+
+	/** Loaded structures, in access order */
+	private final LinkedHashMap<String, Resident> resident = new LinkedHashMap<String, Resident>(16, 0.75F, true);
+
+	/** Maximum and current estimated heap size of loaded structures, in bytes */
+	private long budget, residentBytes = 0;
+
+	/** Bytes of loaded structures used straight from memory-mapped files, not counted in residentBytes */
+	private long mappedBytes = 0;
+
+	/** Number of requests for structures already loaded, requests that had to load, and structures dropped */
+	private long hits = 0, misses = 0, evictions = 0;
+
+	public StructureRegistry() {
+		this(DEFAULT_BUDGET);
+	}
+
+	/**
+	 * @param budget Estimated size in bytes that loaded structures may use before being dropped
+	 */
+	public StructureRegistry(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Registers a source under the name given, replacing any structure already registered
+	 * with that name
+	 * @return the handle for the name
+	 */
+	public final synchronized StructureHandle register(String name, IStructureSource source) {
+		sources.put(name, source);
+		Resident old = resident.remove(name);
+		if (old != null) {
+			residentBytes -= old.bytes;
+			mappedBytes -= old.mappedBytes;
+		}
+
+		StructureHandle handle = handles.get(name);
+		if (handle == null) {
+			handle = new StructureHandle(this, name);
+			handles.put(name, handle);
+		}
+
+		return handle;
+	}
+
+	/**
+	 * Registers a structure file (see StructureFile) under the name given
+	 */
+	public final StructureHandle register(String name, final File file) {
+		return register(name, new IStructureSource() {
+			@Override
+			public Structure load() throws IOException {
+				return StructureFile.read(file);
+			}
+		});
+	}
+
+	/**
+	 * Registers a variant of the structure registered as 'base', built with Structure.createVariant
+	 * when first used. The variant keeps the base structure's data in memory while it is loaded.
+	 */
+	public final StructureHandle registerVariant(final String name, final String base, final StructureDiff diff) {
+		return register(name, new IStructureSource() {
+			@Override
+			public Structure load() throws IOException {
+				Structure structure = get(base);
+				if (structure == null) {
+					throw new IOException("No structure registered as " + base + " for variant " + name);
+				}
+				return structure.createVariant(name, diff);
+			}
+		});
+	}
+
+	/**
+	 * Registers every entry of the archive under its name in the archive
+	 */
+	public final void registerAll(final StructureArchive archive) {
+		for (final String name : archive.getNames()) {
+			register(name, new IStructureSource() {
+				@Override
+				public Structure load() throws IOException {
+					return archive.read(name);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns the handle for the name given, or null if nothing is registered under it
+	 */
+	public final synchronized StructureHandle getHandle(String name) {
+		return handles.get(name);
+	}
+
+	/**
+	 * Returns the names of all registered structures
+	 */
+	public final synchronized Set<String> getNames() {
+		return Collections.unmodifiableSet(new HashSet<String>(sources.keySet()));
+	}
+
+	/**
+	 * Returns the structure registered under the name given, loading it if necessary,
+	 * or null if nothing is registered under it
+	 */
+	public final Structure get(String name) throws IOException {
+		IStructureSource source;
+		synchronized (this) {
+			Resident entry = resident.get(name);
+			if (entry != null) {
+				++hits;
+				return entry.structure;
+			}
+			source = sources.get(name);
+			if (source == null) {
+				return null;
+			}
+			++misses;
+		}
+
+		// load outside of the lock so other structures can still be fetched meanwhile
+		Structure structure = source.load();
+		if (structure == null) {
+			return null;
+		}
+
+		synchronized (this) {
+			Resident entry = resident.get(name);
+			if (entry != null) {
+				return entry.structure; // loaded by another thread meanwhile
+			}
+			if (sources.get(name) == source) {
+				entry = new Resident(structure);
+				resident.put(name, entry);
+				residentBytes += entry.bytes;
+				mappedBytes += entry.mappedBytes;
+				evict();
+			}
+		}
+
+		return structure;
+	}
+
+	/**
+	 * Drops the least recently used structures until the budget is met, always keeping the last one
+	 */
+	private void evict() {
+		Iterator<Resident> iterator = resident.values().iterator();
+		while (residentBytes > budget && resident.size() > 1 && iterator.hasNext()) {
+			Resident entry = iterator.next();
+			iterator.remove();
+			residentBytes -= entry.bytes;
+			mappedBytes -= entry.mappedBytes;
+			++evictions;
+		}
+	}
+
+	/**
+	 * Sets the estimated size in bytes that loaded structures may use, dropping structures if needed
+	 */
+	public final synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	public final synchronized long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Drops all loaded structures; they will be loaded again when next used
+	 */
+	public final synchronized void clear() {
+		resident.clear();
+		residentBytes = 0;
+		mappedBytes = 0;
+	}
+
+	/**
+	 * Returns the number of requests for structures that were already loaded
+	 */
+	public final synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of requests that had to load the structure
+	 */
+	public final synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of structures dropped to stay within the budget
+	 */
+	public final synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the estimated heap size in bytes of all structures currently loaded
+	 */
+	public final synchronized long getResidentBytes() {
+		return residentBytes;
+	}
+
+	/**
+	 * Returns the number of bytes of the structures currently loaded that are used straight from
+	 * memory-mapped files; these are not counted towards the budget
+	 */
+	public final synchronized long getMappedBytes() {
+		return mappedBytes;
+	}
+
+	/**
+	 * Returns the number of structures currently loaded
+	 */
+	public final synchronized int getResidentCount() {
+		return resident.size();
+	}
+
+	/**
+	 * A loaded structure and its heap and mapped sizes, which are computed once
+	 */
+	private static final class Resident
+	{
+		private final Structure structure;
+		private final long bytes, mappedBytes;
+
+		private Resident(Structure structure) {
+			this.structure = structure;
+			this.bytes = structure.getSizeInBytes();
+			this.mappedBytes = structure.getMappedSizeInBytes();
+		}
+	}
+}
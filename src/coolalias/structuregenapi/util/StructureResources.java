@@ -0,0 +1,55 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 
+ * Loads structures converted by StructureCompiler from the classpath; used by the generated
+ * accessor classes
+ *
+ */
+public final class StructureResources
+{
+	private StructureResources() {}
+
+	/**
+	 * Loads the structure file at the classpath location given, e.g. "/structures/mod/Hut/door.sgas",
+	 * or returns null if it is missing or cannot be read
+	 */
+	public static Structure load(String path) {
+		InputStream in = StructureResources.class.getResourceAsStream(path);
+		if (in == null) {
+			LogHelper.severe("Missing structure resource " + path);
+			return null;
+		}
+
+		try {
+			return StructureFile.read(in);
+		} catch (IOException e) {
+			LogHelper.severe("Failed to load structure resource " + path + ": " + e.getMessage());
+			return null;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {}
+		}
+	}
+}
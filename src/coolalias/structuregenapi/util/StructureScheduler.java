@@ -0,0 +1,258 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.World;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+
+/**
+ * 
+ * Spreads the generation of large structures over several server ticks, spending at most a
+ * fixed amount of time each tick. When the server's average tick time rises above the
+ * threshold, the time allowed is halved each tick until the server recovers, after which it
+ * slowly grows back to the configured budget.
+ * 
+ * Register an instance to the FML event bus, e.g. FMLCommonHandler.instance().bus().register(scheduler),
+ * or call tick() once per server tick yourself. Jobs are processed in the order scheduled.
+ * All methods other than GenerationJob.cancel must be called from the server thread.
+ * 
+ * While one job is being placed, the plans for the next few (see PlacementPlan) are made on
+ * background planner threads, so that only the world itself is touched on the server thread;
+ * plans are never made on the server thread. While the plan for the job at the front of the
+ * queue is not ready yet, no other job is run that tick rather than starting later jobs out of
+ * order. Note that this means getRealBlockID will be called from a planner thread.
+ * 
+ * Cancelling a job interrupts its planner thread, which then stops planning at the next layer
+ * slice; the job finishes once that thread has let go of the generator.
+ *
+ */
+public class StructureScheduler
+{
+	/** Default time to spend generating each tick, in milliseconds */
+	public static final float DEFAULT_BUDGET = 10.0F;
+
+	/** Default average tick time above which the budget is reduced, in milliseconds */
+	public static final float DEFAULT_THRESHOLD = 45.0F;
+
+	/** Smallest budget ever used, so that jobs still make progress on an overloaded server */
+	public static final float MIN_BUDGET = 0.5F;
+
+	/** Number of jobs at the front of the queue whose plans are made ahead of time */
+	public static final int PLAN_AHEAD = 2;
+
+	/** Jobs waiting to be finished, in order */
+	private final List<GenerationJob> jobs = new LinkedList<GenerationJob>();
+
+	/** Configured and current time to spend generating each tick, in milliseconds */
+	private float maxBudget, budget;
+
+	/** Average tick time above which the budget is reduced, in milliseconds */
+	private float threshold;
+
+	/** Threads on which placement plans are made */
+	private final ExecutorService planner;
+
+	/** Mod that chunk tickets are requested for when preloading chunks, or null to not preload */
+	private Object preloadMod = null;
+
+	public StructureScheduler() {
+		this(DEFAULT_BUDGET, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * @param budget		Time to spend generating each tick, in milliseconds
+	 * @param threshold		Average tick time above which the budget is reduced, in milliseconds
+	 */
+	public StructureScheduler(float budget, float threshold) {
+		this(budget, threshold, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+	}
+
+	/**
+	 * @param budget		Time to spend generating each tick, in milliseconds
+	 * @param threshold		Average tick time above which the budget is reduced, in milliseconds
+	 * @param plannerThreads	Number of background threads used to make placement plans
+	 */
+	public StructureScheduler(float budget, float threshold, int plannerThreads) {
+		setBudget(budget);
+		this.threshold = threshold;
+		this.planner = Executors.newFixedThreadPool(Math.max(1, plannerThreads), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "StructureGenAPI Planner");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Sets the time to spend generating each tick, in milliseconds
+	 */
+	public final void setBudget(float budget) {
+		this.maxBudget = Math.max(MIN_BUDGET, budget);
+		this.budget = this.maxBudget;
+	}
+
+	/**
+	 * Sets the average tick time, in milliseconds, above which the budget is reduced
+	 */
+	public final void setThreshold(float threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Sets whether jobs scheduled from now on load every chunk their structure touches, over as
+	 * many ticks as needed, before placing any blocks; see ChunkPreloader. The chunks are held with
+	 * tickets requested for the mod given until the job finishes. Null to place right away.
+	 */
+	public final void setChunkPreloading(Object mod) {
+		preloadMod = mod;
+	}
+
+	/**
+	 * Returns the time that will be spent generating next tick, in milliseconds
+	 */
+	public final float getCurrentBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the number of jobs not yet finished
+	 */
+	public final int getJobCount() {
+		return jobs.size();
+	}
+
+	/**
+	 * Schedules a fully set up generator to generate its structure at x/y/z. The palettes of
+	 * the structure's layers are frozen, since they are read from a planner thread, so the
+	 * structure cannot be given new block tuples afterwards; see BlockPalette.
+	 * @param callback may be null
+	 * @return the job, which may be used to cancel it
+	 */
+	public final GenerationJob schedule(StructureGeneratorBase generator, World world, int x, int y, int z, IGenerationCallback callback) {
+		generator.freezePalettes();
+		GenerationJob job = new GenerationJob(generator, world, world.rand, x, y, z, callback);
+		job.setPreloadMod(preloadMod);
+		jobs.add(job);
+		return job;
+	}
+
+	/**
+	 * Cancels all jobs that have not yet finished
+	 */
+	public final void cancelAll() {
+		for (GenerationJob job : jobs) {
+			job.cancel();
+		}
+	}
+
+	/**
+	 * Cancels all jobs and stops the planner threads; the scheduler should not be used afterwards
+	 */
+	public final void shutdown() {
+		cancelAll();
+		tick();
+		planner.shutdownNow();
+	}
+
+	@SubscribeEvent
+	public void onServerTick(TickEvent.ServerTickEvent event) {
+		if (event.phase == TickEvent.Phase.END) {
+			tick();
+		}
+	}
+
+	/**
+	 * Spends up to the current budget working through the scheduled jobs, in order; the
+	 * next job is only started once the one before it has finished
+	 */
+	public final void tick() {
+		if (jobs.isEmpty()) {
+			return;
+		}
+
+		updateBudget();
+		long deadline = System.nanoTime() + (long)(budget * 1000000.0F);
+		startPlanning();
+		Iterator<GenerationJob> iterator = jobs.iterator();
+
+		while (iterator.hasNext()) {
+			GenerationJob job = iterator.next();
+			if (!job.isReady() || !job.run(deadline)) {
+				break;
+			}
+			iterator.remove();
+			LogHelper.fine("Structure generation job finished after " + job.getElapsedMillis() + "ms");
+			if (System.nanoTime() - deadline > 0) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Hands the first few jobs that have not been started to the planner threads
+	 */
+	private void startPlanning() {
+		int count = 0;
+		for (GenerationJob job : jobs) {
+			if (count++ >= PLAN_AHEAD) {
+				break;
+			}
+			if (!job.isPlanning()) {
+				job.startPlanning(planner);
+			}
+		}
+	}
+
+	/**
+	 * Halves the budget while the server is running behind, otherwise grows it back by 10%
+	 */
+	private void updateBudget() {
+		float tickTime = getAverageTickTime();
+		if (tickTime > threshold) {
+			budget = Math.max(MIN_BUDGET, budget / 2.0F);
+		} else if (budget < maxBudget) {
+			budget = Math.min(maxBudget, budget * 1.1F);
+		}
+	}
+
+	/**
+	 * Returns the server's average time per tick over the last 100 ticks, in milliseconds
+	 */
+	private static float getAverageTickTime() {
+		MinecraftServer server = MinecraftServer.getServer();
+		if (server == null) {
+			return 0.0F;
+		}
+		long sum = 0;
+		for (long time : server.tickTimeArray) {
+			sum += time;
+		}
+		return (sum / (float) server.tickTimeArray.length) / 1000000.0F;
+	}
+}
@@ -0,0 +1,94 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+
+/**
+ * Stores the saved contents of a tile entity within a Structure, as uncompressed NBT
+ */
+public class TileEntityData
+{
+	private final int x, y, z;
+
+	/** Named root compound tag, as read by CompressedStreamTools.read */
+	private final byte[] nbt;
+
+	/**
+	 * @param x blockArray x index within the layer holding y
+	 * @param y height above the bottom of the structure's first layer
+	 * @param z blockArray z index within the layer holding y
+	 * @param nbt the tile entity's compound tag, as written by CompressedStreamTools.write
+	 */
+	public TileEntityData(int x, int y, int z, byte[] nbt) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.nbt = nbt;
+	}
+
+	public final int getPosX() {
+		return this.x;
+	}
+
+	public final int getPosY() {
+		return this.y;
+	}
+
+	public final int getPosZ() {
+		return this.z;
+	}
+
+	/**
+	 * Returns the tile entity's compound tag; do not modify the array
+	 */
+	public final byte[] getNBT() {
+		return this.nbt;
+	}
+
+	/**
+	 * Decodes the compound tag, with its x, y and z set to the world position given
+	 */
+	public final NBTTagCompound getTagAt(int x, int y, int z) throws IOException {
+		NBTTagCompound tag = CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(nbt)));
+		tag.setInteger("x", x);
+		tag.setInteger("y", y);
+		tag.setInteger("z", z);
+		return tag;
+	}
+
+	@Override
+	public int hashCode() {
+		return ((31 * x + y) * 31 + z) * 31 + Arrays.hashCode(nbt);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof TileEntityData)) {
+			return false;
+		}
+		TileEntityData data = (TileEntityData) obj;
+		return x == data.x && y == data.y && z == data.z && Arrays.equals(nbt, data.nbt);
+	}
+}
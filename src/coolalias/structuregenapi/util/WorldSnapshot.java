@@ -0,0 +1,239 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.Arrays;
+
+import net.minecraft.block.Block;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+/**
+ *
+ * Copy of the block ids, metadata and whether each block blocks movement within a box of the
+ * world, so that the checks made while placing or removing a structure don't have to query the
+ * World block by block. Each 16x16x16 chunk section is copied straight out of its storage arrays
+ * the first time a block inside it is asked for; positions outside the box are read from the World.
+ *
+ * The copy is only as current as the writes recorded with setBlock. Anything else that changes
+ * the world, such as another mod or a custom hook, requires invalidate or clear to be called.
+ *
+ */
+public class WorldSnapshot
+{
+	private final World world;
+
+	/** Box covered, inclusive, in chunk section coordinates */
+	private final int minChunkX, minChunkZ, minSection, sizeX, sizeZ, sizeY;
+
+	/** Copied sections, indexed ((chunkX * sizeZ) + chunkZ) * sizeY + section relative to the box */
+	private final Section[] sections;
+
+	/** Indices of the copied sections, so that clear only visits those */
+	private int[] copied = new int[16];
+	private int copiedCount = 0;
+
+	/** For each block id: 0 if not yet looked up, 1 if it does not block movement, 2 if it does */
+	private final byte[] movement = new byte[4096];
+
+	/** Total number of sections copied from the world */
+	private int sectionsRead = 0;
+
+	public WorldSnapshot(World world, int x1, int y1, int z1, int x2, int y2, int z2) {
+		this.world = world;
+		minChunkX = Math.min(x1, x2) >> 4;
+		minChunkZ = Math.min(z1, z2) >> 4;
+		minSection = Math.max(0, Math.min(y1, y2)) >> 4;
+		sizeX = (Math.max(x1, x2) >> 4) - minChunkX + 1;
+		sizeZ = (Math.max(z1, z2) >> 4) - minChunkZ + 1;
+		sizeY = Math.max(0, (Math.min(255, Math.max(y1, y2)) >> 4) - minSection + 1);
+		sections = new Section[sizeX * sizeZ * sizeY];
+	}
+
+	/**
+	 * Returns the id of the block at x/y/z; 0 (air) outside of y 0-255
+	 */
+	public final int getBlockID(int x, int y, int z) {
+		Section section = getSection(x, y, z);
+		if (section == null) {
+			return (y < 0 || y > 255 ? 0 : Block.getIdFromBlock(world.getBlock(x, y, z)));
+		}
+		return section.getBlockID(index(x, y, z));
+	}
+
+	public final Block getBlock(int x, int y, int z) {
+		return Block.getBlockById(getBlockID(x, y, z));
+	}
+
+	public final int getMetadata(int x, int y, int z) {
+		Section section = getSection(x, y, z);
+		if (section == null) {
+			return (y < 0 || y > 255 ? 0 : world.getBlockMetadata(x, y, z));
+		}
+		return getNibble(section.metas, index(x, y, z));
+	}
+
+	/**
+	 * Returns true if the block at x/y/z is solid enough to block movement; false for air
+	 */
+	public final boolean blocksMovement(int x, int y, int z) {
+		Section section = getSection(x, y, z);
+		if (section == null) {
+			return (y >= 0 && y <= 255 && blocksMovement(Block.getIdFromBlock(world.getBlock(x, y, z))));
+		}
+		int i = index(x, y, z);
+		return (section.solid[i >> 6] & (1L << i)) != 0;
+	}
+
+	/**
+	 * Records a block just set in the world at x/y/z, so that the snapshot stays the same as the world
+	 */
+	public final void setBlock(int x, int y, int z, Block block, int meta) {
+		Section section = getSection(x, y, z);
+		if (section != null) {
+			int i = index(x, y, z), id = Block.getIdFromBlock(block) & 4095;
+			section.lsb[i] = (byte) id;
+			if (section.msb == null && id > 255) {
+				section.msb = new byte[2048];
+			}
+			if (section.msb != null) {
+				setNibble(section.msb, i, id >> 8);
+			}
+			setNibble(section.metas, i, meta);
+			if (blocksMovement(id)) {
+				section.solid[i >> 6] |= (1L << i);
+			} else {
+				section.solid[i >> 6] &= ~(1L << i);
+			}
+		}
+	}
+
+	/**
+	 * Discards the copy of the section containing x/y/z; it will be copied again when next needed
+	 */
+	public final void invalidate(int x, int y, int z) {
+		int slot = getSlot(x, y, z);
+		if (slot >= 0) {
+			sections[slot] = null;
+		}
+	}
+
+	/**
+	 * Discards every copied section
+	 */
+	public final void clear() {
+		for (int i = 0; i < copiedCount; ++i) {
+			sections[copied[i]] = null;
+		}
+		copiedCount = 0;
+	}
+
+	/**
+	 * Returns the number of sections copied from the world since the snapshot was created
+	 */
+	public final int getSectionsRead() {
+		return sectionsRead;
+	}
+
+	private static int index(int x, int y, int z) {
+		return (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+	}
+
+	private int getSlot(int x, int y, int z) {
+		int cx = (x >> 4) - minChunkX, cz = (z >> 4) - minChunkZ, sy = (y >> 4) - minSection;
+		if (y < 0 || cx < 0 || cx >= sizeX || cz < 0 || cz >= sizeZ || sy < 0 || sy >= sizeY) {
+			return -1;
+		}
+		return (cx * sizeZ + cz) * sizeY + sy;
+	}
+
+	/**
+	 * Returns the copy of the section containing x/y/z, copying it first if needed, or null if outside of the box
+	 */
+	private Section getSection(int x, int y, int z) {
+		int slot = getSlot(x, y, z);
+		if (slot < 0) {
+			return null;
+		}
+
+		Section section = sections[slot];
+		if (section == null) {
+			ExtendedBlockStorage storage = world.getChunkFromChunkCoords(x >> 4, z >> 4).getBlockStorageArray()[y >> 4];
+			section = sections[slot] = new Section(storage);
+			if (copiedCount == copied.length) {
+				copied = Arrays.copyOf(copied, copied.length * 2);
+			}
+			copied[copiedCount++] = slot;
+			++sectionsRead;
+		}
+
+		return section;
+	}
+
+	private boolean blocksMovement(int id) {
+		if (movement[id] == 0) {
+			Block block = Block.getBlockById(id);
+			movement[id] = (byte) (block != null && block.getMaterial().blocksMovement() ? 2 : 1);
+		}
+		return movement[id] == 2;
+	}
+
+	private static int getNibble(byte[] nibbles, int i) {
+		return (nibbles[i >> 1] >> ((i & 1) << 2)) & 15;
+	}
+
+	private static void setNibble(byte[] nibbles, int i, int value) {
+		int shift = (i & 1) << 2;
+		nibbles[i >> 1] = (byte) ((nibbles[i >> 1] & ~(15 << shift)) | (value & 15) << shift);
+	}
+
+	/**
+	 * A copied chunk section: block id low bits, high bits (null if all zero) and metadata in the
+	 * same layout as ExtendedBlockStorage, plus one bit per block set if it blocks movement
+	 */
+	private final class Section
+	{
+		private final byte[] lsb = new byte[4096], metas = new byte[2048];
+		private byte[] msb;
+		private final long[] solid = new long[64];
+
+		private Section(ExtendedBlockStorage storage) {
+			if (storage == null) {
+				return; // empty sections are all air
+			}
+
+			System.arraycopy(storage.getBlockLSBArray(), 0, lsb, 0, 4096);
+			System.arraycopy(storage.getMetadataArray().data, 0, metas, 0, 2048);
+			NibbleArray high = storage.getBlockMSBArray();
+			if (high != null) {
+				msb = high.data.clone();
+			}
+
+			for (int i = 0; i < 4096; ++i) {
+				if (blocksMovement(getBlockID(i))) {
+					solid[i >> 6] |= (1L << i);
+				}
+			}
+		}
+
+		private int getBlockID(int i) {
+			return (lsb[i] & 255) | (msb != null ? getNibble(msb, i) << 8 : 0);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import structuregenapi.util.BlockRotationData.Rotation;
+
+/**
+ *
+ * Checks that the precomputed metadata rotation tables give exactly the same results as
+ * applying each rotation in turn.
+ *
+ */
+public class GenHelperTest
+{
+	@Test
+	public void tableMatchesComputedMetadata() {
+		for (Rotation type : Rotation.values()) {
+			for (int rotations = 0; rotations < 4; ++rotations) {
+				for (int meta = 0; meta < 16; ++meta) {
+					assertEquals(type + ", " + rotations + " rotations, meta " + meta,
+							GenHelper.computeMetadata(rotations, type, meta), GenHelper.getMetadata(rotations, type, meta));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void valuesOutsideTableAreComputed() {
+		for (Rotation type : Rotation.values()) {
+			for (int rotations = -2; rotations < 9; ++rotations) {
+				for (int meta = -16; meta < 48; ++meta) {
+					assertEquals(type + ", " + rotations + " rotations, meta " + meta,
+							GenHelper.computeMetadata(rotations, type, meta), GenHelper.getMetadata(rotations, type, meta));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void noRotationDataKeepsMetadata() {
+		for (int meta = 0; meta < 16; ++meta) {
+			assertEquals(meta, GenHelper.getMetadata(1, (Rotation) null, meta));
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.Random;
+
+import net.minecraft.init.Blocks;
+import net.minecraft.world.World;
+
+/**
+ *
+ * Times placing a 48x48x24 structure of stone, glass and glowstone with batch placement, once
+ * relighting each block as it is written and once with setDeferredLighting. Needs a real world,
+ * so call run from a command or item in a development server, over loaded chunks with room for
+ * the structure; the area is cleared before each run and the best of several runs is logged
+ * for each mode, along with the work done relighting. The world does not count the cells its
+ * own relighting visits, so per-block relighting reports only the number of blocks relit.
+ *
+ */
+public class LightingBenchmark
+{
+	private static final int SIZE_XZ = 48, SIZE_Y = 24, RUNS = 5;
+
+	/** Blocks the structure is made of: stone, glass and, more rarely, glowstone */
+	private static final int[] BLOCK_IDS = {1, 1, 1, 20, 20, 20, 89};
+
+	public static void run(World world, int posX, int posY, int posZ) {
+		Random random = new Random(2);
+		int[][][][] blocks = new int[SIZE_Y][SIZE_XZ][SIZE_XZ][];
+		for (int y = 0; y < SIZE_Y; ++y) {
+			for (int x = 0; x < SIZE_XZ; ++x) {
+				for (int z = 0; z < SIZE_XZ; ++z) {
+					blocks[y][x][z] = new int[] {BLOCK_IDS[random.nextInt(BLOCK_IDS.length)]};
+				}
+			}
+		}
+		Structure structure = new Structure("lighting_benchmark");
+		structure.addBlockArray(blocks);
+
+		for (boolean deferred : new boolean[] {false, true}) {
+			long best = Long.MAX_VALUE;
+			StructureGeneratorBase generator = null;
+			for (int run = 0; run < RUNS; ++run) {
+				clear(world, posX, posY, posZ);
+				generator = createGenerator(structure, deferred);
+				long start = System.nanoTime();
+				generator.generate(world, random, posX, posY, posZ);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			LogHelper.info((deferred ? "Deferred lighting: " : "Per-block lighting: ") + (best / 1000L) / 1000.0F + "ms, " +
+					generator.getBlocksRelit() + " blocks relit one by one, " + generator.getCellsRelit() + " cells relit, " +
+					generator.getLightUpdates() + " light updates");
+		}
+	}
+
+	/**
+	 * Sets the structure's area back to air, relighting as usual
+	 */
+	private static void clear(World world, int posX, int posY, int posZ) {
+		for (int y = posY + SIZE_Y - 1; y >= posY; --y) {
+			for (int x = posX - SIZE_XZ / 2; x < posX + SIZE_XZ / 2; ++x) {
+				for (int z = posZ - SIZE_XZ / 2; z < posZ + SIZE_XZ / 2; ++z) {
+					world.setBlock(x, y, z, Blocks.air, 0, 2);
+				}
+			}
+		}
+	}
+
+	private static StructureGeneratorBase createGenerator(Structure structure, boolean deferred) {
+		StructureGeneratorBase generator = new StructureGeneratorBase() {
+			@Override
+			public int getRealBlockID(int fakeID, int customData1) {
+				return fakeID;
+			}
+
+			@Override
+			public void onCustomBlockAdded(World world, int x, int y, int z, int fakeID, int customData1, int customData2) {}
+		};
+		generator.setStructure(structure);
+		generator.setBatchPlacement(true);
+		generator.setDeferredLighting(deferred);
+		return generator;
+	}
+}
@@ -0,0 +1,97 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.Random;
+
+/**
+ *
+ * Times planning a 64x64x64 layer by scanning every cell, as before the occupancy bitset,
+ * and by visiting only the occupied cells, at 10%, 50% and 90% empty cells. Run the main
+ * method; the best of 60 runs is printed for each.
+ *
+ */
+public class OccupancyBenchmark
+{
+	private static final int SIZE = 64, RUNS = 60;
+
+	public static void main(String[] args) {
+		Random random = new Random(2);
+		for (double empty : new double[] {0.1D, 0.5D, 0.9D}) {
+			int[][][][] blocks = new int[SIZE][SIZE][SIZE][];
+			for (int y = 0; y < SIZE; ++y) {
+				for (int x = 0; x < SIZE; ++x) {
+					for (int z = 0; z < SIZE; ++z) {
+						blocks[y][x][z] = (random.nextDouble() < empty ? new int[] {StructureGeneratorBase.SET_NO_BLOCK} : new int[] {1 + random.nextInt(20)});
+					}
+				}
+			}
+
+			CompiledLayer layer = CompiledLayer.compile(blocks, new BlockPalette());
+			long scan = Long.MAX_VALUE, bitset = Long.MAX_VALUE, scanSum = 0, bitsetSum = 0;
+			for (int run = 0; run < RUNS; ++run) {
+				long start = System.nanoTime();
+				scanSum = scanAll(layer);
+				scan = Math.min(scan, System.nanoTime() - start);
+				start = System.nanoTime();
+				bitsetSum = scanOccupied(layer);
+				bitset = Math.min(bitset, System.nanoTime() - start);
+			}
+
+			if (scanSum != bitsetSum) {
+				throw new IllegalStateException("Occupied cells differ from a full scan");
+			}
+			System.out.printf("%.0f%% empty: full scan %.2fms, bitset %.2fms%n", empty * 100.0D, scan / 1.0E6D, bitset / 1.0E6D);
+		}
+	}
+
+	/**
+	 * Visits every cell and skips the empty ones, returning the sum of the block ids written
+	 */
+	private static long scanAll(CompiledLayer layer) {
+		BlockPalette palette = layer.getPalette();
+		long sum = 0;
+		for (int y = 0; y < layer.getHeight(); ++y) {
+			for (int x = 0; x < layer.getMaxX(); ++x) {
+				for (int z = 0; z < layer.getMaxZ(); ++z) {
+					int index = layer.getPaletteIndex(y, x, z);
+					if (!palette.isSkipped(index)) {
+						sum += palette.getBlockID(index);
+					}
+				}
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Visits only the occupied cells, as planning does, returning the sum of the block ids written
+	 */
+	private static long scanOccupied(CompiledLayer layer) {
+		BlockPalette palette = layer.getPalette();
+		int maxX = layer.getMaxX(), maxZ = layer.getMaxZ(), area = maxX * maxZ;
+		long sum = 0;
+		for (int y = 0; y < layer.getHeight(); ++y) {
+			int end = (y + 1) * area;
+			for (int cell = layer.nextOccupied(y * area, end); cell >= 0; cell = layer.nextOccupied(cell + 1, end)) {
+				sum += palette.getBlockID(layer.getPaletteIndex(y, (cell / maxZ) % maxX, cell % maxZ));
+			}
+		}
+		return sum;
+	}
+}
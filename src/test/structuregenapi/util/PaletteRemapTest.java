@@ -0,0 +1,53 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ *
+ * Checks that the remapped copy of a palette keeps up with tuples added to it after the
+ * remap was first applied.
+ *
+ */
+public class PaletteRemapTest
+{
+	@Test
+	public void remapsTuplesAddedAfterFirstUse() {
+		PaletteRemap remap = new PaletteRemap();
+		remap.setBlock(4, 24);
+		remap.setRotation(24, null);
+		Structure structure = new Structure("remap");
+		structure.addBlockArray(new int[][][][] {{{{4}, {1}}}});
+		BlockPalette first = remap.apply(structure.getPalette());
+		assertSame(first, remap.apply(structure.getPalette()));
+
+		structure.addBlockArray(new int[][][][] {{{{5}, {4, 2}}}});
+		BlockPalette palette = structure.getPalette(), remapped = remap.apply(palette);
+		assertEquals(palette.size(), remapped.size());
+		int index = palette.getIndex(new int[] {4, 2});
+		assertEquals(24, remapped.getBlockID(index));
+		assertEquals(2, remapped.getMetadata(index));
+		assertEquals(0, remapped.getRotationFlags(index));
+		assertEquals(5, remapped.getBlockID(palette.getIndex(new int[] {5})));
+		assertSame(remapped, remap.apply(palette));
+	}
+}
@@ -0,0 +1,112 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ *
+ * Writes structures as schematics and reads them back, checking that tile entities keep their
+ * contents and are moved to the same cell of the single layer a schematic is read into.
+ *
+ */
+public class SchematicFileTest
+{
+	@Test
+	public void tileEntitiesFollowTheirCells() throws IOException {
+		Structure structure = new Structure("chests");
+		int[][][][] bottom = new int[1][5][5][];
+		for (int x = 0; x < 5; ++x) {
+			for (int z = 0; z < 5; ++z) {
+				bottom[0][x][z] = new int[] {1};
+			}
+		}
+		structure.addBlockArray(bottom);
+		structure.addBlockArray(new int[][][][] {{{{54, 2}, {0}, {0}}, {{0}, {0}, {0}}, {{0}, {0}, {54, 3}}}});
+		structure.addTileEntity(2, 0, 2, createTag(2, 0, 2));
+		structure.addTileEntity(0, 1, 0, createTag(0, 1, 0));
+		structure.addTileEntity(2, 1, 2, createTag(2, 1, 2));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		SchematicFile.write(structure, bytes);
+		Structure read = SchematicFile.read(new ByteArrayInputStream(bytes.toByteArray()), "chests", false);
+
+		// the top layer is centered on the bottom one, so its cells move one block along x and z
+		List<TileEntityData> tileEntities = read.getTileEntities();
+		assertEquals(3, tileEntities.size());
+		assertTileEntity(tileEntities.get(0), 2, 0, 2);
+		assertTileEntity(tileEntities.get(1), 1, 1, 1);
+		assertTileEntity(tileEntities.get(2), 3, 1, 3);
+		assertEquals(54, read.blockArrayList().get(0)[1][1][1][0]);
+		assertEquals(54, read.blockArrayList().get(0)[1][3][3][0]);
+	}
+
+	private static void assertTileEntity(TileEntityData data, int x, int y, int z) throws IOException {
+		assertEquals(x, data.getPosX());
+		assertEquals(y, data.getPosY());
+		assertEquals(z, data.getPosZ());
+		assertArrayEquals(createTag(x, y, z), data.getNBT());
+	}
+
+	/**
+	 * Returns a chest's compound tag at x/y/z holding a stack of 3 diamonds in slot 5
+	 */
+	private static byte[] createTag(int x, int y, int z) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(10);
+		out.writeUTF("");
+		out.writeByte(8);
+		out.writeUTF("id");
+		out.writeUTF("Chest");
+		out.writeByte(3);
+		out.writeUTF("x");
+		out.writeInt(x);
+		out.writeByte(3);
+		out.writeUTF("y");
+		out.writeInt(y);
+		out.writeByte(3);
+		out.writeUTF("z");
+		out.writeInt(z);
+		out.writeByte(9);
+		out.writeUTF("Items");
+		out.writeByte(10);
+		out.writeInt(1);
+		out.writeByte(1);
+		out.writeUTF("Slot");
+		out.writeByte(5);
+		out.writeByte(2);
+		out.writeUTF("id");
+		out.writeShort(264);
+		out.writeByte(1);
+		out.writeUTF("Count");
+		out.writeByte(3);
+		out.writeByte(0);
+		out.writeByte(0);
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,96 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.util.Random;
+
+import net.minecraft.init.Blocks;
+import net.minecraft.world.World;
+
+/**
+ *
+ * Times regenerating a 48x48x24 structure of which 5% has been knocked out, with and without
+ * setSkipUnchanged, using World.setBlock and batch placement. Needs a real world, so call run
+ * from a command or item in a development server, over loaded chunks with room for the structure;
+ * the best of several runs is logged for each mode.
+ *
+ */
+public class SkipUnchangedBenchmark
+{
+	private static final int SIZE_XZ = 48, SIZE_Y = 24, RUNS = 5;
+
+	/** Blocks the structure is made of: stone, dirt, cobblestone, planks and sandstone */
+	private static final int[] BLOCK_IDS = {1, 3, 4, 5, 24};
+
+	public static void run(World world, int posX, int posY, int posZ) {
+		Random random = new Random(2);
+		int[][][][] blocks = new int[SIZE_Y][SIZE_XZ][SIZE_XZ][];
+		for (int y = 0; y < SIZE_Y; ++y) {
+			for (int x = 0; x < SIZE_XZ; ++x) {
+				for (int z = 0; z < SIZE_XZ; ++z) {
+					blocks[y][x][z] = new int[] {BLOCK_IDS[random.nextInt(BLOCK_IDS.length)]};
+				}
+			}
+		}
+		Structure structure = new Structure("skip_unchanged_benchmark");
+		structure.addBlockArray(blocks);
+		createGenerator(structure, false, false).generate(world, random, posX, posY, posZ);
+
+		for (boolean batch : new boolean[] {false, true}) {
+			for (boolean skip : new boolean[] {false, true}) {
+				long best = Long.MAX_VALUE;
+				int skipped = 0;
+				for (int run = 0; run < RUNS; ++run) {
+					knockOut(world, posX, posY, posZ);
+					StructureGeneratorBase generator = createGenerator(structure, batch, skip);
+					long start = System.nanoTime();
+					generator.generate(world, random, posX, posY, posZ);
+					best = Math.min(best, System.nanoTime() - start);
+					skipped = generator.getSkippedWrites();
+				}
+				LogHelper.info("Batch placement " + batch + ", skip unchanged " + skip + ": " + (best / 1000L) / 1000.0F + "ms, " + skipped + " writes skipped");
+			}
+		}
+	}
+
+	/**
+	 * Sets the same 5% of the structure's blocks to air on each run
+	 */
+	private static void knockOut(World world, int posX, int posY, int posZ) {
+		Random random = new Random(3);
+		for (int i = 0; i < SIZE_XZ * SIZE_XZ * SIZE_Y / 20; ++i) {
+			world.setBlock(posX - SIZE_XZ / 2 + random.nextInt(SIZE_XZ), posY + random.nextInt(SIZE_Y), posZ - SIZE_XZ / 2 + random.nextInt(SIZE_XZ), Blocks.air, 0, 2);
+		}
+	}
+
+	private static StructureGeneratorBase createGenerator(Structure structure, boolean batch, boolean skip) {
+		StructureGeneratorBase generator = new StructureGeneratorBase() {
+			@Override
+			public int getRealBlockID(int fakeID, int customData1) {
+				return fakeID;
+			}
+
+			@Override
+			public void onCustomBlockAdded(World world, int x, int y, int z, int fakeID, int customData1, int customData2) {}
+		};
+		generator.setStructure(structure);
+		generator.setBatchPlacement(batch);
+		generator.setSkipUnchanged(skip);
+		return generator;
+	}
+}
@@ -0,0 +1,157 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.minecraft.init.Bootstrap;
+import net.minecraft.world.World;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * Checks that walking a structure one section at a time with a StructureCursor plans exactly
+ * the same blocks as createPlan does for the whole structure, for every rotation, both when
+ * generating and when removing.
+ *
+ */
+public class StructureCursorTest
+{
+	/** Generation position, away from chunk and section boundaries */
+	private static final int POS_X = 100, POS_Y = 60, POS_Z = -37;
+
+	@BeforeClass
+	public static void registerBlocks() {
+		Bootstrap.func_151354_b();
+	}
+
+	@Test
+	public void windowsMatchWholePlan() {
+		Structure structure = createStructure();
+		for (boolean removal : new boolean[] {false, true}) {
+			for (int rotations = 0; rotations < 4; ++rotations) {
+				String message = (removal ? "removal, " : "") + rotations + " rotations";
+				StructureGeneratorBase generator = createGenerator(structure, rotations, removal);
+				Map<String, Integer> expected = new HashMap<String, Integer>();
+				addCells(expected, generator.createPlan());
+
+				Map<String, Integer> actual = new HashMap<String, Integer>();
+				StructureCursor cursor = generator.createCursor(POS_X, POS_Y, POS_Z);
+				int windows = 0;
+				for (PlacementPlan window = cursor.nextWindow(); window != null; window = cursor.nextWindow()) {
+					addCells(actual, window);
+					++windows;
+				}
+
+				assertSameCells(message, expected, actual);
+				assertTrue(message + ", " + windows + " windows", windows > 1);
+			}
+		}
+	}
+
+	/**
+	 * Two layers of different sizes, one of them jagged, with rotated, post-gen and negative
+	 * ids, plus a fill, a hollow box and a repeated layer, all spanning several sections
+	 */
+	private static Structure createStructure() {
+		Structure structure = new Structure("cursor");
+		int[][][][] bottom = new int[20][21][18][];
+		for (int y = 0; y < bottom.length; ++y) {
+			for (int x = 0; x < bottom[y].length; ++x) {
+				for (int z = 0; z < bottom[y][x].length; ++z) {
+					int cell = (y * 31 + x * 7 + z) % 5;
+					bottom[y][x][z] = (cell == 0 ? new int[] {53, (x + z) % 4} : cell == 1 ? new int[] {50, 1 + y % 4}
+							: cell == 2 ? new int[] {-4} : cell == 3 ? new int[] {StructureGeneratorBase.SET_NO_BLOCK} : new int[] {1});
+				}
+			}
+		}
+		structure.addBlockArray(bottom);
+		structure.addBlockArray(new int[][][][] {{{{5}, {5}, {65, 3}}, {{5}}, {{5}, {}, {17, 4}}}});
+		structure.addFill(0, 0, 1, 30, 2, 4, new int[] {3});
+		structure.addHollowBox(2, 21, 2, 12, 40, 9, new int[] {4}, new int[] {0});
+		structure.addRepeatedBlockArray(new int[][][][] {{{{98}, {98, 1}}, {{109, 2}, {98}}}}, 41, 5, 3);
+		structure.setStructureOffset(2, 1, -3);
+		return structure;
+	}
+
+	private static StructureGeneratorBase createGenerator(Structure structure, int rotations, boolean removal) {
+		StructureGeneratorBase generator = new StructureGeneratorBase() {
+			@Override
+			public int getRealBlockID(int fakeID, int customData1) {
+				return fakeID;
+			}
+
+			@Override
+			public void onCustomBlockAdded(World world, int x, int y, int z, int fakeID, int customData1, int customData2) {}
+		};
+		generator.setStructure(structure);
+		generator.setDefaultOffset();
+		generator.rotateStructureFacing(rotations);
+		generator.setRemoveStructure(removal);
+		return generator;
+	}
+
+	/**
+	 * Counts every block the plan places, with each copy of a run and each cell of a fill
+	 * counted separately, as "x,y,z,id,meta,flags" relative to the generation position
+	 */
+	private static void addCells(Map<String, Integer> cells, PlacementPlan plan) {
+		for (int r = 0; r < plan.getRunCount(); ++r) {
+			for (int copy = 0; copy < plan.getRunRepeats(r); ++copy) {
+				for (int i = plan.getRunStart(r); i < plan.getRunEnd(r); ++i) {
+					addCell(cells, plan.getX(i), plan.getY(i) + copy * plan.getRunStrideY(r), plan.getZ(i),
+							plan.getRealID(i), plan.getMetadata(i), plan.getFlags(i));
+				}
+			}
+		}
+
+		for (int f = 0; f < plan.getFillCount(); ++f) {
+			for (int x = plan.getFill(f, PlacementPlan.FILL_MIN_X); x <= plan.getFill(f, PlacementPlan.FILL_MAX_X); ++x) {
+				for (int y = plan.getFill(f, PlacementPlan.FILL_MIN_Y); y <= plan.getFill(f, PlacementPlan.FILL_MAX_Y); ++y) {
+					for (int z = plan.getFill(f, PlacementPlan.FILL_MIN_Z); z <= plan.getFill(f, PlacementPlan.FILL_MAX_Z); ++z) {
+						addCell(cells, x, y, z, plan.getFill(f, PlacementPlan.FILL_REAL_ID), plan.getFill(f, PlacementPlan.FILL_META),
+								plan.getFill(f, PlacementPlan.FILL_FLAGS));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fails naming the first block not planned the same number of times by both
+	 */
+	private static void assertSameCells(String message, Map<String, Integer> expected, Map<String, Integer> actual) {
+		Map<String, Integer> all = new HashMap<String, Integer>(expected);
+		all.putAll(actual);
+		for (String key : all.keySet()) {
+			assertEquals(message + ", block " + key, expected.get(key), actual.get(key));
+		}
+	}
+
+	private static void addCell(Map<String, Integer> cells, int x, int y, int z, int id, int meta, int flags) {
+		String key = x + "," + y + "," + z + "," + id + "," + meta + "," + flags;
+		Integer count = cells.get(key);
+		cells.put(key, count == null ? 1 : count + 1);
+	}
+}
@@ -0,0 +1,161 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * Writes structures with StructureFile and reads them back, both through a memory-mapped file
+ * and from a ByteBuffer, checking that the blockArrays, palettes and tile entities come back unchanged.
+ *
+ */
+public class StructureFileTest
+{
+	private static final int NO_BLOCK = StructureGeneratorBase.SET_NO_BLOCK;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void jaggedLayers() throws IOException {
+		Structure structure = new Structure("jagged");
+		structure.addBlockArray(new int[][][][] {
+			{{{1}, {2, 1}, {3}}, {{4}}},
+			{{{5}, {6}}, {{7}, {8}, {9}, {10}}, {{11, 2}}},
+			{}
+		});
+		structure.addBlockArray(new int[][][][] {{{{1}}}, {{{2}, {3}}, {}}});
+		assertRoundTrip(structure);
+	}
+
+	@Test
+	public void emptyAndNoBlockCells() throws IOException {
+		Structure structure = new Structure("empty");
+		structure.addBlockArray(new int[][][][] {
+			{{{}, {NO_BLOCK}, {1}}, {{NO_BLOCK}, {}, {}}},
+			{{{}, {}, {}}, {{NO_BLOCK}, {NO_BLOCK}, {2, 3}}}
+		});
+		assertRoundTrip(structure);
+	}
+
+	@Test
+	public void negativeIds() throws IOException {
+		Structure structure = new Structure("negative");
+		structure.addBlockArray(new int[][][][] {{{{-1}, {-4, 2}}, {{-4095, 15}, {3}}}});
+		assertRoundTrip(structure);
+	}
+
+	@Test
+	public void customIdsWithCustomData() throws IOException {
+		Structure structure = new Structure("custom");
+		structure.addBlockArray(new int[][][][] {
+			{{{4096, 0, 7}, {4100, 3, 1, 2}}, {{-5000, 1, 9, 4}, {1}}},
+			{{{Integer.MAX_VALUE - 1, 15, -8, 123456}, {4096, 0, 7}}, {{4096, 0, 8}, {}}}
+		});
+		assertRoundTrip(structure);
+	}
+
+	@Test
+	public void offsetsFacingAndPrimitives() throws IOException {
+		Structure structure = new Structure("primitives");
+		structure.setFacing(StructureGeneratorBase.EAST);
+		structure.setStructureOffset(3, -2, 5);
+		structure.addBlockArray(new int[][][][] {{{{1}, {2}}, {{3}, {}}}});
+		structure.addFill(0, 0, 0, 4, 1, 4, new int[] {4});
+		structure.addHollowBox(0, 2, 0, 4, 6, 4, new int[] {5, 1}, new int[] {0});
+		structure.addRepeatedBlockArray(new int[][][][] {{{{6}, {NO_BLOCK}}}}, 7, 3, 2);
+		Structure read = assertRoundTrip(structure);
+		assertEquals(structure, read);
+	}
+
+	@Test
+	public void tileEntities() throws IOException {
+		Structure structure = new Structure("tile_entities");
+		structure.addBlockArray(new int[][][][] {{{{54, 2}, {1}}, {{1}, {63, 4}}}});
+		structure.addTileEntity(0, 0, 0, new byte[] {10, 0, 0, 3, 0, 1, 'x', 0, 0, 0, 0, 0});
+		structure.addTileEntity(1, 0, 1, new byte[0]);
+		assertEquals(structure, assertRoundTrip(structure));
+	}
+
+	/**
+	 * Round trips the structure through a mapped file and through a ByteBuffer, checking both
+	 * @return the structure read from the file
+	 */
+	private Structure assertRoundTrip(Structure structure) throws IOException {
+		File file = folder.newFile(structure.name + ".sgas");
+		StructureFile.write(structure, file);
+		Structure mapped = StructureFile.read(file);
+		assertSameContents(structure, mapped);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StructureFile.write(structure, bytes);
+		assertSameContents(structure, StructureFile.read(ByteBuffer.wrap(bytes.toByteArray())));
+		return mapped;
+	}
+
+	private static void assertSameContents(Structure expected, Structure actual) {
+		assertEquals(expected.name, actual.name);
+		assertEquals(expected.getFacing(), actual.getFacing());
+		assertEquals(expected.getOffsetX(), actual.getOffsetX());
+		assertEquals(expected.getOffsetY(), actual.getOffsetY());
+		assertEquals(expected.getOffsetZ(), actual.getOffsetZ());
+
+		List<int[][][][]> expectedArrays = expected.blockArrayList(), actualArrays = actual.blockArrayList();
+		assertEquals(expectedArrays.size(), actualArrays.size());
+		for (int i = 0; i < expectedArrays.size(); ++i) {
+			assertArrayEquals("blockArray " + i, expectedArrays.get(i), actualArrays.get(i));
+		}
+
+		List<CompiledLayer> expectedLayers = expected.getLayers(), actualLayers = actual.getLayers();
+		assertEquals(expectedLayers.size(), actualLayers.size());
+		for (int i = 0; i < expectedLayers.size(); ++i) {
+			assertSamePalette("layer " + i, expectedLayers.get(i).getPalette(), actualLayers.get(i).getPalette());
+		}
+
+		assertEquals(expected.getTileEntities(), actual.getTileEntities());
+
+		List<StructurePrimitive> expectedPrimitives = expected.getPrimitives(), actualPrimitives = actual.getPrimitives();
+		assertEquals(expectedPrimitives, actualPrimitives);
+		for (int i = 0; i < expectedPrimitives.size(); ++i) {
+			CompiledLayer layer = expectedPrimitives.get(i).getLayer();
+			if (layer != null) {
+				assertArrayEquals("primitive " + i, layer.toBlockArray(), actualPrimitives.get(i).getLayer().toBlockArray());
+				assertSamePalette("primitive " + i, layer.getPalette(), actualPrimitives.get(i).getLayer().getPalette());
+			}
+		}
+	}
+
+	private static void assertSamePalette(String message, BlockPalette expected, BlockPalette actual) {
+		assertEquals(message + " palette size", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); ++i) {
+			assertArrayEquals(message + " palette entry " + i, expected.getEntry(i), actual.getEntry(i));
+		}
+	}
+}
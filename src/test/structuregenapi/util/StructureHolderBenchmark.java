@@ -0,0 +1,242 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ *
+ * Compares getting structures from N @StructureHolder classes of blockArray literals with
+ * getting them through the accessors StructureCompiler generates for the same holders. Each
+ * holder has two 12x12x12 blockArrays. For each approach the holders or accessors are loaded
+ * into a fresh class loader, together with the API classes, and every structure is fetched;
+ * the time taken and the growth of the class metadata (Metaspace or PermGen) are printed,
+ * best of several runs. Needs a JDK, as the holders are compiled on the fly; run the
+ * main method, optionally with the number of holders.
+ *
+ */
+public class StructureHolderBenchmark
+{
+	private static final int SIZE = 12, FIELDS = 2, RUNS = 5;
+
+	/** Blocks the literals are made of: stone, dirt, cobblestone, planks, glass and sandstone */
+	private static final int[] BLOCK_IDS = {1, 3, 4, 5, 20, 24};
+
+	public static void main(String[] args) throws Exception {
+		int holders = (args.length > 0 ? Integer.parseInt(args[0]) : 20);
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		if (javac == null) {
+			throw new IllegalStateException("StructureHolderBenchmark needs a JDK to compile the holders");
+		}
+
+		File dir = new File(System.getProperty("java.io.tmpdir"), "structure_holder_benchmark");
+		File holderSources = new File(dir, "holders_src"), holderClasses = new File(dir, "holders");
+		File accessorSources = new File(dir, "accessors_src"), accessorClasses = new File(dir, "accessors"), resources = new File(dir, "resources");
+		for (File file : new File[] {holderSources, holderClasses, accessorSources, accessorClasses, resources}) {
+			delete(file);
+			file.mkdirs();
+		}
+
+		List<String> names = new ArrayList<String>();
+		Random random = new Random(2);
+		for (int i = 0; i < holders; ++i) {
+			names.add("Holder" + i);
+			writeHolder(new File(holderSources, "Holder" + i + ".java"), "Holder" + i, random);
+		}
+		compile(javac, holderSources, holderClasses, System.getProperty("java.class.path"));
+
+		StructureCompiler compiler = new StructureCompiler(resources, accessorSources);
+		URLClassLoader holderLoader = new URLClassLoader(new URL[] {holderClasses.toURI().toURL()}, StructureHolderBenchmark.class.getClassLoader());
+		for (String name : names) {
+			compiler.compile(Class.forName("bench." + name, true, holderLoader), new File(holderClasses, "bench/" + name + ".class"));
+		}
+		compile(javac, accessorSources, accessorClasses, System.getProperty("java.class.path"));
+
+		long holderBytes = 0, resourceBytes = 0;
+		for (String name : names) {
+			holderBytes += new File(holderClasses, "bench/" + name + ".class").length();
+			for (int f = 0; f < FIELDS; ++f) {
+				resourceBytes += new File(resources, "structures/bench/" + name + "/blockArray" + f + ".sgas").length();
+			}
+		}
+		System.out.printf("%d holders: %d bytes of holder classes, %d bytes of resources%n", holders, holderBytes, resourceBytes);
+
+		// loaders are kept until the end, so that classes unloaded meanwhile do not hide the growth
+		List<Object> loaded = new ArrayList<Object>();
+		for (boolean accessors : new boolean[] {false, true}) {
+			long time = Long.MAX_VALUE, classMemory = Long.MAX_VALUE;
+			for (int run = 0; run < RUNS; ++run) {
+				URL[] urls = (accessors ? new URL[] {accessorClasses.toURI().toURL(), resources.toURI().toURL()} : new URL[] {holderClasses.toURI().toURL()});
+				ClassLoader loader = new URLClassLoader(concat(urls, getClassPath()), ClassLoader.getSystemClassLoader().getParent());
+				long classBefore = getClassMemory();
+				long start = System.nanoTime();
+				List<Object> structures = (accessors ? loadAccessors(loader, names) : loadHolders(loader, names));
+				time = Math.min(time, System.nanoTime() - start);
+				classMemory = Math.min(classMemory, getClassMemory() - classBefore);
+				if (structures.size() != holders * FIELDS) {
+					throw new IllegalStateException("Loaded " + structures.size() + " structures");
+				}
+				loaded.add(loader);
+				loaded.add(structures);
+			}
+			System.out.printf("%s: %.2fms, class metadata +%dKB%n", (accessors ? "Generated accessors" : "Literal holders"), time / 1.0E6D, classMemory / 1024);
+		}
+	}
+
+	/**
+	 * Loads each holder and builds a Structure from each of its blockArrays, as a mod would
+	 */
+	private static List<Object> loadHolders(ClassLoader loader, List<String> names) throws Exception {
+		Class<?> structureClass = Class.forName("structuregenapi.util.Structure", true, loader);
+		Method addBlockArray = structureClass.getMethod("addBlockArray", int[][][][].class);
+		List<Object> structures = new ArrayList<Object>();
+		for (String name : names) {
+			Class<?> holder = Class.forName("bench." + name, true, loader);
+			for (int f = 0; f < FIELDS; ++f) {
+				Object structure = structureClass.getConstructor(String.class).newInstance("blockArray" + f);
+				addBlockArray.invoke(structure, holder.getField("blockArray" + f).get(null));
+				structures.add(structure);
+			}
+		}
+		return structures;
+	}
+
+	/**
+	 * Loads each generated accessor and fetches each of its structures
+	 */
+	private static List<Object> loadAccessors(ClassLoader loader, List<String> names) throws Exception {
+		List<Object> structures = new ArrayList<Object>();
+		for (String name : names) {
+			Class<?> accessor = Class.forName("bench." + name + "Resources", true, loader);
+			for (int f = 0; f < FIELDS; ++f) {
+				Object structure = accessor.getMethod("blockArray" + f).invoke(null);
+				if (structure != null) {
+					structures.add(structure);
+				}
+			}
+		}
+		return structures;
+	}
+
+	private static void writeHolder(File file, String name, Random random) throws IOException {
+		StringBuilder out = new StringBuilder("package bench;\n\n@structuregenapi.util.StructureHolder\npublic class ").append(name).append(" {\n");
+		for (int f = 0; f < FIELDS; ++f) {
+			out.append("\tpublic static final int[][][][] blockArray").append(f).append(" = {\n");
+			for (int y = 0; y < SIZE; ++y) {
+				out.append("\t\t{");
+				for (int x = 0; x < SIZE; ++x) {
+					out.append('{');
+					for (int z = 0; z < SIZE; ++z) {
+						out.append('{').append(BLOCK_IDS[random.nextInt(BLOCK_IDS.length)]).append("},");
+					}
+					out.append("},");
+				}
+				out.append("},\n");
+			}
+			out.append("\t};\n");
+		}
+		out.append("}\n");
+
+		file.getParentFile().mkdirs();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(out.toString());
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void compile(JavaCompiler javac, File sources, File classes, String classPath) {
+		List<String> args = new ArrayList<String>();
+		args.add("-nowarn");
+		args.add("-cp");
+		args.add(classPath);
+		args.add("-d");
+		args.add(classes.getPath());
+		addSources(sources, args);
+		if (javac.run(null, null, null, args.toArray(new String[args.size()])) != 0) {
+			throw new IllegalStateException("Could not compile " + sources);
+		}
+	}
+
+	private static void addSources(File dir, List<String> sources) {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				addSources(file, sources);
+			} else if (file.getName().endsWith(".java")) {
+				sources.add(file.getPath());
+			}
+		}
+	}
+
+	private static URL[] getClassPath() throws IOException {
+		String[] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+		URL[] urls = new URL[entries.length];
+		for (int i = 0; i < entries.length; ++i) {
+			urls[i] = new File(entries[i]).toURI().toURL();
+		}
+		return urls;
+	}
+
+	private static URL[] concat(URL[] first, URL[] second) {
+		URL[] urls = new URL[first.length + second.length];
+		System.arraycopy(first, 0, urls, 0, first.length);
+		System.arraycopy(second, 0, urls, first.length, second.length);
+		return urls;
+	}
+
+	/**
+	 * Returns the bytes of class metadata in use after a garbage collection
+	 */
+	private static long getClassMemory() {
+		System.gc();
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.NON_HEAP && (pool.getName().contains("Metaspace") || pool.getName().contains("Perm Gen"))) {
+				used += pool.getUsage().getUsed();
+			}
+		}
+		return used;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,143 @@
+/**
+    Copyright (C) <2014> <coolAlias>
+
+    This file is part of coolAlias' Structure Generation Tool; as such,
+    you can redistribute it and/or modify it under the terms of the GNU
+    General Public License as published by the Free Software Foundation,
+    either version 3 of the License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package structuregenapi.util;
+
+import static org.junit.Assert.assertEquals;
+
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+
+import org.junit.Test;
+
+/**
+ *
+ * Relights a stand-in world after a roof is built high over open ground, checking that the
+ * full sky light left below the roof is darkened all the way down to the ground.
+ *
+ */
+public class StructureLighterTest
+{
+	/** Stand-in world covers x and z from -SIZE / 2 to SIZE / 2 - 1 */
+	private static final int SIZE = 80, GROUND = 10, ROOF = 100;
+
+	@Test
+	public void roofDarkensOpenGroundBelowIt() {
+		FlatLighter lighter = new FlatLighter();
+		for (int x = -4; x <= 4; ++x) {
+			for (int z = -4; z <= 4; ++z) {
+				lighter.setOpaque(x, ROOF, z);
+			}
+		}
+		lighter.relight(null, -4, ROOF, -4, 4, ROOF, 4, StructureLighter.DEFAULT_MARGIN);
+
+		for (int y = ROOF - 1; y >= GROUND; --y) {
+			assertEquals("center at y=" + y, 10, lighter.getSky(0, y, 0));
+			assertEquals("edge at y=" + y, 14, lighter.getSky(4, y, 0));
+			assertEquals("outside at y=" + y, 15, lighter.getSky(5, y, 0));
+		}
+		assertEquals(0, lighter.getSky(0, GROUND - 1, 0));
+		assertEquals(15, lighter.getSky(0, ROOF + 1, 0));
+	}
+
+	/**
+	 * Lights an open world with solid ground below GROUND, starting with full sky light above it
+	 */
+	private static class FlatLighter extends StructureLighter
+	{
+		private final boolean[] opaque = new boolean[SIZE * SIZE * 256];
+		private final byte[] sky = new byte[SIZE * SIZE * 256];
+
+		FlatLighter() {
+			for (int x = -SIZE / 2; x < SIZE / 2; ++x) {
+				for (int z = -SIZE / 2; z < SIZE / 2; ++z) {
+					for (int y = 0; y < 256; ++y) {
+						opaque[cell(x, y, z)] = (y < GROUND);
+						sky[cell(x, y, z)] = (byte) (y < GROUND ? 0 : 15);
+					}
+				}
+			}
+		}
+
+		private int cell(int x, int y, int z) {
+			return ((y * SIZE) + z + SIZE / 2) * SIZE + x + SIZE / 2;
+		}
+
+		/** Places an opaque block without relighting, as batch placement does */
+		void setOpaque(int x, int y, int z) {
+			opaque[cell(x, y, z)] = true;
+		}
+
+		int getSky(int x, int y, int z) {
+			return sky[cell(x, y, z)];
+		}
+
+		@Override
+		boolean hasSky(World world) {
+			return true;
+		}
+
+		@Override
+		boolean isLoaded(World world, int x, int z) {
+			return x >= -SIZE / 2 && x < SIZE / 2 && z >= -SIZE / 2 && z < SIZE / 2;
+		}
+
+		@Override
+		int getHeight(World world, int x, int z) {
+			for (int y = 255; y >= 0; --y) {
+				if (opaque[cell(x, y, z)]) {
+					return y + 1;
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		int getSavedLight(World world, EnumSkyBlock type, int x, int y, int z) {
+			return (type == EnumSkyBlock.Sky ? sky[cell(x, y, z)] : 0);
+		}
+
+		@Override
+		void readChunk(World world, int cx, int cz) {
+			for (int x = cx << 4; x < (cx << 4) + 16; ++x) {
+				for (int z = cz << 4; z < (cz << 4) + 16; ++z) {
+					for (int y = 0; y < 256; ++y) {
+						if (contains(x, y, z)) {
+							setBlock(x, y, z, opaque[cell(x, y, z)] ? 255 : 0, 0);
+						}
+					}
+				}
+			}
+		}
+
+		@Override
+		void writeChunk(World world, int cx, int cz, boolean hasSky) {
+			for (int x = cx << 4; x < (cx << 4) + 16; ++x) {
+				for (int z = cz << 4; z < (cz << 4) + 16; ++z) {
+					for (int y = 0; y < 256; ++y) {
+						if (contains(x, y, z)) {
+							sky[cell(x, y, z)] = (byte) getLight(EnumSkyBlock.Sky, x, y, z);
+						}
+					}
+				}
+			}
+		}
+
+		@Override
+		void markForRenderUpdate(World world) {}
+	}
+}